@@ -0,0 +1,288 @@
+package com.example.android.honeypad;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.text.Collator;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * A whole export & import of the notes through the archive format, at 100k
+ * notes, each timed once per iteration. Export reads the notes a batch at a
+ * time with the provider's query & each body by its note's revisions, then
+ * writes it as a line of JSON; import reads the lines back & inserts them a
+ * batch per transaction, as the provider's bulkInsert does, into a database
+ * with no notes yet. Notes per second is the note count over the time.
+ *
+ * The JSON is written & read with Gson's JsonWriter & JsonReader, which
+ * Android's android.util versions were copied from.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ArchiveBenchmark {
+
+	@Param({ "100000" })
+	public int notes;
+
+	private File file;
+	private Connection db;
+	private File archive;
+	private final Collator collator = Collator.getInstance();
+
+	@Setup(Level.Trial)
+	public void open() throws IOException, SQLException {
+		file = File.createTempFile("notes", ".db");
+		Files.copy(NotesBenchmark.template(notes).toPath(), file.toPath(),
+				StandardCopyOption.REPLACE_EXISTING);
+		db = DesktopNotes.open(file);
+		execute(db, "PRAGMA journal_mode=WAL");
+
+		// the archive imports read back
+		archive = File.createTempFile("notes", ".json");
+		OutputStream out = new FileOutputStream(archive);
+		final int count;
+		try {
+			count = export(out);
+		} finally {
+			out.close();
+		}
+		System.out.printf("%n%d notes, %d byte archive%n", count, archive
+				.length());
+	}
+
+	@TearDown(Level.Trial)
+	public void close() throws SQLException {
+		db.close();
+		delete(file);
+		archive.delete();
+	}
+
+	/**
+	 * An empty database at the current version for each import
+	 */
+	@State(Scope.Thread)
+	public static class Empty {
+
+		File file;
+		Connection db;
+
+		@Setup(Level.Iteration)
+		public void create() throws IOException, SQLException {
+			file = File.createTempFile("empty", ".db");
+			db = DesktopNotes.open(file);
+			DesktopNotes.create(db);
+			for (int version = 2; version <= NoteSchema.VERSION; version++) {
+				DesktopNotes.migrate(db, version);
+			}
+			execute(db, "PRAGMA journal_mode=WAL");
+		}
+
+		@TearDown(Level.Iteration)
+		public void delete() throws SQLException {
+			db.close();
+			ArchiveBenchmark.delete(file);
+		}
+	}
+
+	/**
+	 * Every note exported, to an archive that's thrown away as it's written
+	 */
+	@Benchmark
+	public int exportAll() throws IOException, SQLException {
+		return export(new OutputStream() {
+			@Override
+			public void write(int b) {
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) {
+			}
+		});
+	}
+
+	/**
+	 * Every note imported from an archive into an empty database
+	 */
+	@Benchmark
+	public int importAll(Empty empty) throws IOException, SQLException {
+		PreparedStatement insertNote = empty.db.prepareStatement(NoteQueries
+				.insert(NoteQueries.TABLE, DesktopNotes.INSERT_COLUMNS));
+		PreparedStatement insertRevision = empty.db
+				.prepareStatement(DesktopNotes.INSERT_FIRST_REVISION);
+		JsonReader reader = new JsonReader(new InputStreamReader(
+				new FileInputStream(archive), StandardCharsets.UTF_8));
+		reader.setLenient(true);
+		int count = 0;
+		try {
+			boolean more = true;
+			while (more) {
+				empty.db.setAutoCommit(false);
+				for (int size = 0; size < NoteQueries.ARCHIVE_BATCH; size++) {
+					if (reader.peek() == JsonToken.END_DOCUMENT) {
+						more = false;
+						break;
+					}
+					String title = "";
+					String body = "";
+					long modified = 0;
+					reader.beginObject();
+					while (reader.hasNext()) {
+						final String name = reader.nextName();
+						if (name.equals("title")) {
+							title = reader.nextString();
+						} else if (name.equals("body")) {
+							body = reader.nextString();
+						} else if (name.equals("modified")) {
+							modified = reader.nextLong();
+						} else {
+							reader.skipValue();
+						}
+					}
+					reader.endObject();
+
+					DesktopNotes.bindColumns(insertNote,
+							DesktopNotes.INSERT_COLUMNS, title, body,
+							modified, collator);
+					insertNote.executeUpdate();
+					DesktopNotes.bindFirstRevision(insertRevision,
+							DesktopNotes.lastInsertId(empty.db), body,
+							modified);
+					insertRevision.executeUpdate();
+					count++;
+				}
+				empty.db.commit();
+				empty.db.setAutoCommit(true);
+			}
+			return count;
+		} finally {
+			reader.close();
+			insertRevision.close();
+			insertNote.close();
+		}
+	}
+
+	/**
+	 * Writes every note to an archive as NotesProvider.exportNotes does.
+	 *
+	 * @return the number of notes written
+	 */
+	private int export(OutputStream output) throws IOException, SQLException {
+		Writer out = new BufferedWriter(new OutputStreamWriter(output,
+				StandardCharsets.UTF_8));
+		PreparedStatement batch = db.prepareStatement(NoteQueries.EXPORT_BATCH);
+		// what NoteRevisions.readBody reads of a note at its first revision
+		PreparedStatement revisions = db.prepareStatement(NoteQueries.select(
+				NoteQueries.TABLE, new String[] { "revision",
+						"snapshot_revision" }, "_id=?", null, null));
+		final String snapshotWhere = "note_id=? AND snapshot=1 AND revision=?";
+		PreparedStatement compressed = db.prepareStatement(NoteQueries.select(
+				"revisions", new String[] { "compressed" }, snapshotWhere,
+				null, null));
+		PreparedStatement text = db.prepareStatement(NoteQueries.select(
+				"revisions", new String[] { "text" }, snapshotWhere, null,
+				null));
+		long lastId = 0;
+		int count = 0;
+		try {
+			boolean more = true;
+			while (more) {
+				batch.setLong(1, lastId);
+				ResultSet c = batch.executeQuery();
+				int size = 0;
+				while (c.next()) {
+					size++;
+					lastId = c.getLong(1);
+					revisions.setLong(1, lastId);
+					ResultSet revision = revisions.executeQuery();
+					revision.next();
+					final long snapshot = revision.getLong(2);
+					revision.close();
+					compressed.setLong(1, lastId);
+					compressed.setLong(2, snapshot);
+					ResultSet isCompressed = compressed.executeQuery();
+					isCompressed.next();
+					final boolean deflated = isCompressed.getInt(1) != 0;
+					isCompressed.close();
+					text.setLong(1, lastId);
+					text.setLong(2, snapshot);
+					ResultSet body = text.executeQuery();
+					body.next();
+					final String value = deflated ? NoteText
+							.inflate(body.getBinaryStream(1)) : body
+							.getString(1);
+					body.close();
+
+					JsonWriter note = new JsonWriter(out);
+					note.beginObject();
+					note.name("title").value(c.getString(2));
+					note.name("body").value(value);
+					note.name("modified").value(c.getLong(3));
+					note.endObject();
+					out.write('\n');
+					count++;
+				}
+				c.close();
+				more = size == NoteQueries.ARCHIVE_BATCH;
+			}
+			out.flush();
+			return count;
+		} finally {
+			text.close();
+			compressed.close();
+			revisions.close();
+			batch.close();
+		}
+	}
+
+	private static void execute(Connection db, String sql)
+			throws SQLException {
+		Statement statement = db.createStatement();
+		try {
+			statement.execute(sql);
+		} finally {
+			statement.close();
+		}
+	}
+
+	private static void delete(File file) {
+		file.delete();
+		new File(file.getPath() + "-wal").delete();
+		new File(file.getPath() + "-shm").delete();
+	}
+}
@@ -0,0 +1,275 @@
+package com.example.android.honeypad;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.text.Collator;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The first open of the database in a new process, up to the first page of
+ * the list, each timed once on a fresh copy of a 100k note database: with
+ * its sort keys made, & as it is after the upgrade to keys, with none. With
+ * none the keys were made for every note before the first page, & are now
+ * left to the background while the notes without one sort first. The time
+ * that background work takes is timed on its own.
+ *
+ * The copy is made before each open, so the file is in the page cache, as
+ * it usually is by the time an app process opens it. An open from a cold
+ * disk adds the reads of the pages the first page touches.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ColdOpenBenchmark {
+
+	// as NoteListFragment.PAGE_SIZE & NotesProvider.SORT_KEY_BATCH
+	private static final int PAGE_SIZE = 50;
+	private static final int SORT_KEY_BATCH = 500;
+
+	private static final String[] COLUMNS = { "_id", "title", "preview" };
+
+	private static final String FIRST_PAGE = NoteQueries.select(
+			NoteQueries.TABLE, COLUMNS, null, NoteQueries.SORT_ORDER, String
+					.valueOf(PAGE_SIZE));
+
+	@Param({ "100000" })
+	public int notes;
+
+	private File keyed;
+	private File unkeyed;
+
+	@Setup(Level.Trial)
+	public void makeTemplates() throws IOException, SQLException {
+		keyed = NotesBenchmark.template(notes);
+		unkeyed = File.createTempFile("unkeyed", ".db");
+		Files.copy(keyed.toPath(), unkeyed.toPath(),
+				StandardCopyOption.REPLACE_EXISTING);
+		Connection db = DesktopNotes.open(unkeyed);
+		try {
+			execute(db, "update notes set sort_key = null");
+			execute(db, "delete from collation");
+		} finally {
+			db.close();
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void deleteTemplates() {
+		unkeyed.delete();
+	}
+
+	/**
+	 * A copy of a database for each open
+	 */
+	@State(Scope.Thread)
+	public abstract static class Copy {
+
+		File file;
+
+		abstract File template(ColdOpenBenchmark benchmark);
+
+		@Setup(Level.Iteration)
+		public void copy(ColdOpenBenchmark benchmark) throws IOException {
+			file = File.createTempFile("notes", ".db");
+			Files.copy(template(benchmark).toPath(), file.toPath(),
+					StandardCopyOption.REPLACE_EXISTING);
+		}
+
+		@TearDown(Level.Iteration)
+		public void delete() {
+			file.delete();
+			new File(file.getPath() + "-wal").delete();
+			new File(file.getPath() + "-shm").delete();
+		}
+	}
+
+	public static class Keyed extends Copy {
+		@Override
+		File template(ColdOpenBenchmark benchmark) {
+			return benchmark.keyed;
+		}
+	}
+
+	public static class Unkeyed extends Copy {
+		@Override
+		File template(ColdOpenBenchmark benchmark) {
+			return benchmark.unkeyed;
+		}
+	}
+
+	/**
+	 * The usual open, the keys made by an earlier one
+	 */
+	@Benchmark
+	public int openKeyed(Keyed copy) throws SQLException {
+		Connection db = open(copy.file);
+		try {
+			recordedLocale(db);
+			anyMissing(db);
+			return firstPage(db);
+		} finally {
+			db.close();
+		}
+	}
+
+	/**
+	 * The first open after the upgrade to keys, as it was: every note's key
+	 * made in one transaction before the first page
+	 */
+	@Benchmark
+	public int openMakingKeys(Unkeyed copy) throws SQLException {
+		Connection db = open(copy.file);
+		try {
+			recordedLocale(db);
+			DesktopNotes.rebuildSortKeys(db, Collator.getInstance());
+			recordLocale(db);
+			return firstPage(db);
+		} finally {
+			db.close();
+		}
+	}
+
+	/**
+	 * The same open as it is now, the keys left to the background
+	 */
+	@Benchmark
+	public int openLeavingKeys(Unkeyed copy) throws SQLException {
+		Connection db = open(copy.file);
+		try {
+			recordedLocale(db);
+			recordLocale(db);
+			anyMissing(db);
+			return firstPage(db);
+		} finally {
+			db.close();
+		}
+	}
+
+	/**
+	 * The keys then made in the background, a batch per transaction
+	 */
+	@Benchmark
+	public long makeKeysInBackground(Unkeyed copy) throws SQLException {
+		Connection db = open(copy.file);
+		try {
+			Collator collator = Collator.getInstance();
+			long after = 0;
+			long batches = 0;
+			while (after >= 0) {
+				after = DesktopNotes.makeMissingSortKeys(db, collator, after,
+						SORT_KEY_BATCH);
+				batches++;
+			}
+			return batches;
+		} finally {
+			db.close();
+		}
+	}
+
+	private static Connection open(File file) throws SQLException {
+		Connection db = DesktopNotes.open(file);
+		execute(db, "PRAGMA journal_mode=WAL");
+		return db;
+	}
+
+	/**
+	 * As TitleSortKeys.recorded reads it
+	 */
+	private static String recordedLocale(Connection db) throws SQLException {
+		Statement statement = db.createStatement();
+		try {
+			ResultSet c = statement.executeQuery("select locale from collation");
+			return c.next() ? c.getString(1) : null;
+		} finally {
+			statement.close();
+		}
+	}
+
+	/**
+	 * As TitleSortKeys.record writes it
+	 */
+	private static void recordLocale(Connection db) throws SQLException {
+		db.setAutoCommit(false);
+		try {
+			execute(db, "delete from collation");
+			PreparedStatement insert = db.prepareStatement("insert into "
+					+ "collation (locale, initials_made) values (?, 1)");
+			try {
+				insert.setString(1, Locale.getDefault().toString());
+				insert.executeUpdate();
+			} finally {
+				insert.close();
+			}
+			db.commit();
+		} finally {
+			db.setAutoCommit(true);
+		}
+	}
+
+	/**
+	 * As TitleSortKeys.anyMissing looks
+	 */
+	private static boolean anyMissing(Connection db) throws SQLException {
+		Statement statement = db.createStatement();
+		try {
+			return statement.executeQuery(
+					NoteQueries.select(NoteQueries.TABLE,
+							new String[] { NoteQueries.KEY_ID },
+							NoteQueries.UNKEYED_WHERE, null, "1")).next();
+		} finally {
+			statement.close();
+		}
+	}
+
+	private static int firstPage(Connection db) throws SQLException {
+		Statement statement = db.createStatement();
+		try {
+			ResultSet c = statement.executeQuery(FIRST_PAGE);
+			int count = 0;
+			while (c.next()) {
+				c.getLong(1);
+				c.getString(2);
+				c.getString(3);
+				count++;
+			}
+			return count;
+		} finally {
+			statement.close();
+		}
+	}
+
+	private static void execute(Connection db, String sql)
+			throws SQLException {
+		Statement statement = db.createStatement();
+		try {
+			statement.execute(sql);
+		} finally {
+			statement.close();
+		}
+	}
+}
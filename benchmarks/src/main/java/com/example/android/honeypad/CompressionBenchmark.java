@@ -0,0 +1,93 @@
+package com.example.android.honeypad;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * What storing long revision text deflated costs, through the same
+ * {@link NoteText} NoteRevisions uses: deflating a body as it's saved &
+ * inflating it as it's read, at 4K, 64K & 1M chars. The space saved is
+ * printed as each trial starts, for the body & for the bodies of 10k notes
+ * of the usual lengths, as {@link DesktopNotes#bodyLength} makes them.
+ *
+ * The generated bodies are random words, which deflate worse than prose,
+ * so the savings are if anything low.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CompressionBenchmark {
+
+	private static final long SEED = 1;
+
+	// notes in the corpus the overall saving is measured on
+	private static final int CORPUS_NOTES = 10000;
+
+	@Param({ "4096", "65536", "1048576" })
+	public int chars;
+
+	private String body;
+	private byte[] deflated;
+
+	@Setup(Level.Trial)
+	public void makeBody() {
+		body = DesktopNotes.body(new Random(SEED), chars);
+		deflated = NoteText.deflate(body);
+		System.out.printf("%n%d chars: %d bytes, %d deflated (%.0f%%)%n",
+				chars, utf8Length(body), deflated.length,
+				100.0 * deflated.length / utf8Length(body));
+
+		Random random = new Random(SEED);
+		long plain = 0;
+		long stored = 0;
+		for (int i = 0; i < CORPUS_NOTES; i++) {
+			final String text = DesktopNotes.body(random, DesktopNotes
+					.bodyLength(random));
+			final byte[] compressed = NoteText.deflate(text);
+			plain += utf8Length(text);
+			stored += compressed != null ? compressed.length
+					: utf8Length(text);
+		}
+		System.out.printf("%d note corpus: %d bytes, %d stored (%.0f%%)%n",
+				CORPUS_NOTES, plain, stored, 100.0 * stored / plain);
+	}
+
+	/**
+	 * A body deflated as it's saved
+	 */
+	@Benchmark
+	public byte[] deflate() {
+		return NoteText.deflate(body);
+	}
+
+	/**
+	 * A body inflated as it's read
+	 */
+	@Benchmark
+	public String inflate() throws IOException {
+		return NoteText.inflate(new ByteArrayInputStream(deflated));
+	}
+
+	private static int utf8Length(String text) {
+		return text.getBytes(StandardCharsets.UTF_8).length;
+	}
+}
@@ -0,0 +1,479 @@
+package com.example.android.honeypad;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.text.Collator;
+import java.util.Random;
+
+import org.sqlite.Collation;
+
+/**
+ * A notes database on a desktop JVM, standing in for the one NotesProvider
+ * opens on a device. The schema comes from {@link NoteSchema}; what Android
+ * adds to SQLite, the LOCALIZED collation & the collation keys made by
+ * TitleSortKeys, is made here with java.text.Collator instead.
+ */
+final class DesktopNotes {
+
+	private DesktopNotes() {
+	}
+
+	/**
+	 * Opens a database file, creating it if need be, with the LOCALIZED
+	 * collation registered.
+	 */
+	static Connection open(File file) throws SQLException {
+		Connection db = DriverManager.getConnection("jdbc:sqlite:"
+				+ file.getPath());
+		final Collator collator = Collator.getInstance();
+		Collation.create(db, "LOCALIZED", new Collation() {
+			@Override
+			protected int xCompare(String a, String b) {
+				return collator.compare(a, b);
+			}
+		});
+		return db;
+	}
+
+	/**
+	 * Creates the version 1 schema.
+	 */
+	static void create(Connection db) throws SQLException {
+		Statement statement = db.createStatement();
+		try {
+			statement.execute(NoteSchema.CREATE);
+		} finally {
+			statement.close();
+		}
+	}
+
+	/**
+	 * Takes the schema from {@code version - 1} to {@code version} in one
+	 * transaction, as SQLiteOpenHelper does.
+	 */
+	static void migrate(Connection db, int version) throws SQLException {
+		db.setAutoCommit(false);
+		Statement statement = db.createStatement();
+		try {
+			for (String sql : NoteSchema.MIGRATIONS[version - 2]) {
+				statement.execute(sql);
+			}
+			db.commit();
+		} catch (SQLException e) {
+			db.rollback();
+			throw e;
+		} finally {
+			statement.close();
+			db.setAutoCommit(true);
+		}
+	}
+
+	/**
+	 * @return a title of one to five words
+	 */
+	static String title(Random random) {
+		StringBuilder title = new StringBuilder();
+		final int words = 1 + random.nextInt(5);
+		for (int i = 0; i < words; i++) {
+			if (i > 0) {
+				title.append(' ');
+			}
+			word(random, title);
+		}
+		// capitalised half the time, as typed titles are
+		if (random.nextBoolean()) {
+			title.setCharAt(0, Character.toUpperCase(title.charAt(0)));
+		}
+		return title.toString();
+	}
+
+	/**
+	 * @return a body of roughly the given number of chars, in words &
+	 *         lines
+	 */
+	static String body(Random random, int chars) {
+		StringBuilder body = new StringBuilder(chars + 16);
+		while (body.length() < chars) {
+			word(random, body);
+			body.append(random.nextInt(12) == 0 ? '\n' : ' ');
+		}
+		return body.toString();
+	}
+
+	/**
+	 * @return the length of a body typical of notes, mostly short with a
+	 *         long tail
+	 */
+	static int bodyLength(Random random) {
+		final int kind = random.nextInt(100);
+		return kind < 70 ? 50 + random.nextInt(500)
+				: kind < 97 ? 500 + random.nextInt(4000)
+						: 5000 + random.nextInt(15000);
+	}
+
+	private static void word(Random random, StringBuilder out) {
+		final int length = 2 + random.nextInt(8);
+		for (int i = 0; i < length; i++) {
+			out.append((char) ('a' + random.nextInt(26)));
+		}
+	}
+
+	/**
+	 * Fills a version 1 database with generated notes in one transaction,
+	 * the same notes every time for a given seed.
+	 */
+	static void fillVersion1(Connection db, int count, long seed)
+			throws SQLException {
+		Random random = new Random(seed);
+		db.setAutoCommit(false);
+		PreparedStatement insert = db
+				.prepareStatement("insert into notes (title, body) values (?, ?)");
+		try {
+			for (int i = 0; i < count; i++) {
+				insert.setString(1, title(random));
+				insert.setString(2, body(random, bodyLength(random)));
+				insert.executeUpdate();
+			}
+			db.commit();
+		} finally {
+			insert.close();
+			db.setAutoCommit(true);
+		}
+	}
+
+	/**
+	 * Makes a database at the current version the way a fresh install does,
+	 * version 1 then every step after it, & fills it with generated notes in
+	 * one transaction. Each note is written as NotesProvider leaves it once
+	 * the background work has caught up: indexed for search, with a preview,
+	 * initial & sort key, & its body as revision 0. Bodies are kept to about
+	 * a preview's length so a million notes fit on disk, as nothing that
+	 * reads a list of notes reads a body.
+	 */
+	static void fill(Connection db, int count, long seed, Collator collator)
+			throws SQLException {
+		create(db);
+		for (int version = 2; version <= NoteSchema.VERSION; version++) {
+			migrate(db, version);
+		}
+		Random random = new Random(seed);
+		final long now = System.currentTimeMillis();
+		db.setAutoCommit(false);
+		PreparedStatement note = db.prepareStatement(INSERT_NOTE);
+		PreparedStatement revision = db.prepareStatement(INSERT_REVISION);
+		PreparedStatement search = db
+				.prepareStatement("insert into notes_fts (docid, title, body) "
+						+ "values (?, ?, ?)");
+		try {
+			for (long id = 1; id <= count; id++) {
+				final String title = title(random);
+				final String body = body(random, 50 + random.nextInt(200));
+				// a year's worth of notes
+				final long modified = now - (long) random.nextInt(365 * 24 * 60)
+						* 60 * 1000;
+				note.setLong(1, id);
+				bindNote(note, 2, title, body, modified, collator);
+				note.setInt(7, 1);
+				note.executeUpdate();
+				bindRevision(revision, id, body, modified);
+				revision.executeUpdate();
+				search.setLong(1, id);
+				search.setString(2, title);
+				search.setString(3, body);
+				search.executeUpdate();
+			}
+			db.commit();
+		} finally {
+			search.close();
+			revision.close();
+			note.close();
+			db.setAutoCommit(true);
+		}
+	}
+
+	/**
+	 * Inserts a note with the given id, or a new one when it's null, bound
+	 * by {@link #bindNote} from the second parameter on & then whether it's
+	 * in the search index
+	 */
+	static final String INSERT_NOTE = "insert into notes (_id, title, body, "
+			+ "modified, preview, initial, sort_key, search_indexed) "
+			+ "values (?, ?, '', ?, ?, ?, ?, ?)";
+
+	/**
+	 * Inserts revision 0 of a note, bound by {@link #bindRevision}
+	 */
+	static final String INSERT_REVISION = "insert into revisions (note_id, "
+			+ "revision, snapshot, text, modified) values (?, 0, 1, ?, ?)";
+
+	/**
+	 * Binds the title, modified time, preview, initial & sort key of a note
+	 * to {@link #INSERT_NOTE} from the given parameter on.
+	 */
+	static void bindNote(PreparedStatement insert, int first, String title,
+			String body, long modified, Collator collator)
+			throws SQLException {
+		insert.setString(first, title);
+		insert.setLong(first + 1, modified);
+		insert.setString(first + 2, preview(body));
+		insert.setString(first + 3, initial(collator, title));
+		insert.setBytes(first + 4, collator.getCollationKey(title)
+				.toByteArray());
+	}
+
+	/**
+	 * Binds a note's body to {@link #INSERT_REVISION}
+	 */
+	static void bindRevision(PreparedStatement insert, long id, String body,
+			long modified) throws SQLException {
+		insert.setLong(1, id);
+		insert.setString(2, body);
+		insert.setLong(3, modified);
+	}
+
+	/**
+	 * @return the first letter of a title for the collator's locale, as
+	 *         TitleSortKeys.initialOf makes it
+	 */
+	static String initial(Collator collator, String title) {
+		return NoteSections.initialOf(NoteSections.lettersOf(collator), title);
+	}
+
+	/**
+	 * @return the start of a body on one line, as NotesProvider.previewOf
+	 *         makes it for the generated bodies
+	 */
+	static String preview(String body) {
+		return body.substring(0, Math.min(body.length(), 120)).replace('\n',
+				' ').trim();
+	}
+
+	/**
+	 * The columns NotesProvider.doInsert writes, in the order NoteStatements
+	 * binds them
+	 */
+	static final String[] INSERT_COLUMNS = NoteQueries.sortedColumns("title",
+			"body", "modified", "search_indexed", "preview", "initial",
+			"sort_key", "next_initial", "next_sort_key");
+
+	/**
+	 * @return the row id of the row last inserted on a connection
+	 */
+	static long lastInsertId(Connection db) throws SQLException {
+		Statement statement = db.createStatement();
+		try {
+			ResultSet c = statement.executeQuery("SELECT last_insert_rowid()");
+			c.next();
+			return c.getLong(1);
+		} finally {
+			statement.close();
+		}
+	}
+
+	// the columns of a new note's first revision, in the order
+	// NoteStatements binds them
+	private static final String[] REVISION_COLUMNS = NoteQueries
+			.sortedColumns("note_id", "revision", "snapshot", "text",
+					"compressed", "modified");
+
+	/**
+	 * Inserts a new note's body as its first revision, as
+	 * NoteRevisions.addNote does, bound by {@link #bindFirstRevision}
+	 */
+	static final String INSERT_FIRST_REVISION = NoteQueries.insert(
+			"revisions", REVISION_COLUMNS);
+
+	/**
+	 * Binds a new note's body to {@link #INSERT_FIRST_REVISION}, deflated
+	 * if NoteRevisions would deflate it.
+	 */
+	static void bindFirstRevision(PreparedStatement insert, long id,
+			String body, long modified) throws SQLException {
+		final byte[] deflated = NoteText.deflate(body);
+		for (int i = 0; i < REVISION_COLUMNS.length; i++) {
+			final int index = i + 1;
+			final String column = REVISION_COLUMNS[i];
+			if (column.equals("text")) {
+				if (deflated != null) {
+					insert.setBytes(index, deflated);
+				} else {
+					insert.setString(index, body);
+				}
+			} else if (column.equals("compressed")) {
+				insert.setInt(index, deflated != null ? 1 : 0);
+			} else if (column.equals("note_id")) {
+				insert.setLong(index, id);
+			} else if (column.equals("modified")) {
+				insert.setLong(index, modified);
+			} else if (column.equals("snapshot")) {
+				insert.setInt(index, 1);
+			} else {
+				insert.setInt(index, 0);
+			}
+		}
+	}
+
+	// the columns NotesProvider.doUpdate writes for a new title
+	private static final String[] TITLE_COLUMNS = NoteQueries.sortedColumns(
+			"title", "modified", "search_indexed", "initial", "sort_key",
+			"next_initial", "next_sort_key");
+
+	/**
+	 * Gives a note a new title as NotesProvider.doUpdate does, bound by
+	 * {@link #bindTitleUpdate}
+	 */
+	static final String UPDATE_TITLE = NoteQueries.updateById(
+			NoteQueries.TABLE, NoteQueries.KEY_ID, TITLE_COLUMNS);
+
+	/**
+	 * Binds a note's new title to {@link #UPDATE_TITLE}.
+	 */
+	static void bindTitleUpdate(PreparedStatement update, long id,
+			String title, long modified, Collator collator)
+			throws SQLException {
+		bindColumns(update, TITLE_COLUMNS, title, null, modified, collator);
+		update.setLong(TITLE_COLUMNS.length + 1, id);
+	}
+
+	/**
+	 * Binds the columns of a note's row as the provider writes them for a
+	 * new title & any new body, the body itself going in the revisions.
+	 */
+	static void bindColumns(PreparedStatement write, String[] columns,
+			String title, String body, long modified, Collator collator)
+			throws SQLException {
+		for (int i = 0; i < columns.length; i++) {
+			final int index = i + 1;
+			final String column = columns[i];
+			if (column.equals("title")) {
+				write.setString(index, title);
+			} else if (column.equals("body")) {
+				write.setString(index, "");
+			} else if (column.equals("modified")) {
+				write.setLong(index, modified);
+			} else if (column.equals("search_indexed")) {
+				write.setInt(index, 0);
+			} else if (column.equals("preview")) {
+				write.setString(index, preview(body));
+			} else if (column.equals("initial")) {
+				write.setString(index, initial(collator, title));
+			} else if (column.equals("sort_key")) {
+				write.setBytes(index, collator.getCollationKey(title)
+						.toByteArray());
+			} else {
+				write.setNull(index, Types.BLOB);
+			}
+		}
+	}
+
+	/**
+	 * Fills in the collation key & initial of every title in one
+	 * transaction.
+	 */
+	static void rebuildSortKeys(Connection db, Collator collator)
+			throws SQLException {
+		makeSortKeys(db, collator, NoteSchema.UPDATE_SORT_KEY);
+	}
+
+	/**
+	 * Makes the keys & initials of a batch of the notes with none, in one
+	 * transaction, as TitleSortKeys.makeMissingKeys does in the background
+	 * once a database is first opened with no keys.
+	 * 
+	 * @return the id of the last note in the batch, or -1 if there were none
+	 */
+	static long makeMissingSortKeys(Connection db, Collator collator,
+			long afterId, int count) throws SQLException {
+		db.setAutoCommit(false);
+		PreparedStatement query = db.prepareStatement(NoteQueries.select(
+				NoteQueries.TABLE, new String[] { NoteQueries.KEY_ID, "title" },
+				NoteQueries.and(NoteQueries.KEY_ID + ">?",
+						NoteQueries.UNKEYED_WHERE), NoteQueries.KEY_ID, String
+						.valueOf(count)));
+		PreparedStatement update = db
+				.prepareStatement(NoteSchema.UPDATE_SORT_KEY);
+		try {
+			query.setLong(1, afterId);
+			ResultSet c = query.executeQuery();
+			long id = -1;
+			while (c.next()) {
+				id = c.getLong(1);
+				bindKey(update, collator, c.getString(2));
+				update.setLong(3, id);
+				update.executeUpdate();
+			}
+			c.close();
+			db.commit();
+			return id;
+		} finally {
+			update.close();
+			query.close();
+			db.setAutoCommit(true);
+		}
+	}
+
+	/**
+	 * Makes the keys & initials for another locale beside the current ones,
+	 * in one transaction, as TitleSortKeys.makeNextKeys does a batch at a
+	 * time.
+	 */
+	static void makeNextSortKeys(Connection db, Collator collator)
+			throws SQLException {
+		makeSortKeys(db, collator, NoteSchema.UPDATE_NEXT_SORT_KEY);
+	}
+
+	/**
+	 * Puts the keys made by {@link #makeNextSortKeys} in place of the
+	 * current ones, in one transaction.
+	 */
+	static void swapSortKeys(Connection db) throws SQLException {
+		db.setAutoCommit(false);
+		Statement statement = db.createStatement();
+		try {
+			for (String sql : NoteSchema.SWAP_SORT_KEYS) {
+				statement.execute(sql);
+			}
+			db.commit();
+		} finally {
+			statement.close();
+			db.setAutoCommit(true);
+		}
+	}
+
+	/**
+	 * Binds a title's key & initial to NoteSchema.UPDATE_SORT_KEY or
+	 * UPDATE_NEXT_SORT_KEY
+	 */
+	private static void bindKey(PreparedStatement update, Collator collator,
+			String title) throws SQLException {
+		update.setBytes(1, collator.getCollationKey(title).toByteArray());
+		update.setString(2, initial(collator, title));
+	}
+
+	private static void makeSortKeys(Connection db, Collator collator,
+			String updateSql) throws SQLException {
+		db.setAutoCommit(false);
+		Statement query = db.createStatement();
+		PreparedStatement update = db.prepareStatement(updateSql);
+		try {
+			ResultSet c = query.executeQuery("select _id, title from notes");
+			while (c.next()) {
+				bindKey(update, collator, c.getString(2));
+				update.setLong(3, c.getLong(1));
+				update.executeUpdate();
+			}
+			c.close();
+			db.commit();
+		} finally {
+			update.close();
+			query.close();
+			db.setAutoCommit(true);
+		}
+	}
+}
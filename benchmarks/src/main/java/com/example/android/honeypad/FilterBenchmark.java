@@ -0,0 +1,195 @@
+package com.example.android.honeypad;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * A keystroke in the list's filter box, as NoteListFragment.NoteListLoader
+ * loads the list for it: the provider's latest change number, the sections
+ * of the notes matching the filter & the first page of them. Each is also
+ * timed on its own. The filter is the first {@code typed} letters of a
+ * note's title, so the fewer typed the more notes match. The change number
+ * is a counter read behind a binder call on a device, which isn't timed
+ * here.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FilterBenchmark {
+
+	private static final long SEED = 1;
+
+	// as NoteListFragment.PAGE_SIZE & its projection
+	private static final int PAGE_SIZE = 50;
+	private static final String[] COLUMNS = { "_id", "title", "preview",
+			"sort_key" };
+
+	// filters to cycle through, picked ahead so picking them isn't timed
+	private static final int SAMPLES = 256;
+
+	@Param({ "100000", "1000000" })
+	public int notes;
+
+	@Param({ "1", "2", "3" })
+	public int typed;
+
+	private File file;
+	private Connection db;
+	private PreparedStatement sections;
+	private PreparedStatement page;
+	private long changeSeq;
+
+	private String[] sampleFilters;
+	private int sample;
+
+	@Setup(Level.Trial)
+	public void open() throws IOException, SQLException {
+		file = File.createTempFile("notes", ".db");
+		Files.copy(NotesBenchmark.template(notes).toPath(), file.toPath(),
+				StandardCopyOption.REPLACE_EXISTING);
+		db = DesktopNotes.open(file);
+		Statement statement = db.createStatement();
+		try {
+			statement.execute("PRAGMA journal_mode=WAL");
+		} finally {
+			statement.close();
+		}
+		sections = db.prepareStatement(NoteQueries.sections(true));
+		page = db.prepareStatement(NoteQueries.select(NoteQueries.TABLE,
+				COLUMNS, NoteQueries.and(NoteQueries.FILTER_WHERE),
+				NoteQueries.SORT_ORDER, String.valueOf(PAGE_SIZE)));
+
+		// the first letters of the first word of a note's title, as
+		// NotesProvider.toTitleMatchExpression makes the match
+		Random random = new Random(SEED);
+		sampleFilters = new String[SAMPLES];
+		PreparedStatement title = db.prepareStatement(NoteQueries.select(
+				NoteQueries.TABLE, new String[] { "title" }, "_id=?", null,
+				null));
+		try {
+			for (int i = 0; i < SAMPLES; i++) {
+				title.setLong(1, 1 + random.nextInt(notes));
+				ResultSet c = title.executeQuery();
+				c.next();
+				final String word = c.getString(1).split(" ")[0];
+				sampleFilters[i] = "title:"
+						+ word.substring(0, Math.min(typed, word.length()))
+								.toLowerCase() + "*";
+				c.close();
+			}
+		} finally {
+			title.close();
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void close() throws SQLException {
+		db.close();
+		file.delete();
+		new File(file.getPath() + "-wal").delete();
+		new File(file.getPath() + "-shm").delete();
+	}
+
+	/**
+	 * Everything the list loads for a keystroke
+	 */
+	@Benchmark
+	public int keystroke(Blackhole out) throws SQLException {
+		final String filter = sampleFilters[nextSample()];
+		out.consume(currentChangeSeq());
+		out.consume(readSections(filter));
+		return readPage(filter, out);
+	}
+
+	/**
+	 * The sections of the matching notes, as NotesProvider.sections counts
+	 * & groups them
+	 */
+	@Benchmark
+	public Object[][] filteredSections() throws SQLException {
+		return readSections(sampleFilters[nextSample()]);
+	}
+
+	/**
+	 * The first page of the matching notes
+	 */
+	@Benchmark
+	public int filteredPage(Blackhole out) throws SQLException {
+		return readPage(sampleFilters[nextSample()], out);
+	}
+
+	/**
+	 * As NoteChangeLog.currentSeq
+	 */
+	private synchronized long currentChangeSeq() {
+		return changeSeq;
+	}
+
+	private Object[][] readSections(String filter) throws SQLException {
+		sections.setString(1, filter);
+		ResultSet c = sections.executeQuery();
+		String[] firsts = new String[16];
+		int[] counts = new int[firsts.length];
+		int size = 0;
+		while (c.next()) {
+			if (size == firsts.length) {
+				firsts = Arrays.copyOf(firsts, size * 2);
+				counts = Arrays.copyOf(counts, size * 2);
+			}
+			firsts[size] = c.getString(1);
+			counts[size++] = c.getInt(2);
+		}
+		c.close();
+		return new NoteSections(Locale.getDefault()).sections(Arrays.copyOf(
+				firsts, size), Arrays.copyOf(counts, size));
+	}
+
+	private int readPage(String filter, Blackhole out) throws SQLException {
+		page.setString(1, filter);
+		ResultSet c = page.executeQuery();
+		int count = 0;
+		while (c.next()) {
+			out.consume(c.getLong(1));
+			out.consume(c.getString(2));
+			out.consume(c.getString(3));
+			out.consume(c.getBytes(4));
+			count++;
+		}
+		c.close();
+		return count;
+	}
+
+	private int nextSample() {
+		sample = (sample + 1) % SAMPLES;
+		return sample;
+	}
+}
@@ -0,0 +1,164 @@
+package com.example.android.honeypad;
+
+import java.text.Collator;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * The list's model as rows are bound & changes applied to it, for the
+ * objects each makes, run with {@code -prof gc} for the bytes allocated per
+ * operation. A row is bound as NoteRowView.bind reads it, from the packed
+ * chars, & as the cursor adapter before it did, by making strings of the
+ * title & preview. A change is a note's new title put where its sort key
+ * now sorts & counted from one section into another, as
+ * NoteListFragment.ApplyChangesTask applies it, over the most notes the
+ * list keeps loaded.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ListBenchmark {
+
+	private static final long SEED = 1;
+
+	// as NoteListFragment.MAX_LOADED
+	private static final int LOADED = 400;
+
+	// changes to cycle through, made ahead so making them isn't timed
+	private static final int CHANGES = 256;
+
+	private NoteList list;
+	private int position;
+
+	// the changed notes as read again, & the titles each is counted out of
+	// & into the sections under
+	private NoteList changed;
+	private String[][] changedTitles;
+	private int change;
+
+	@Setup(Level.Trial)
+	public void load() {
+		Random random = new Random(SEED);
+		final String[] titles = new String[LOADED];
+		final String[] previews = new String[LOADED];
+		for (int i = 0; i < LOADED; i++) {
+			titles[i] = DesktopNotes.title(random);
+			previews[i] = DesktopNotes.preview(DesktopNotes.body(random,
+					DesktopNotes.bodyLength(random)));
+		}
+		// in the provider's order, ids from 1 in the order made
+		final Collator collator = Collator.getInstance();
+		final byte[][] keys = new byte[LOADED][];
+		Integer[] order = new Integer[LOADED];
+		for (int i = 0; i < LOADED; i++) {
+			keys[i] = collator.getCollationKey(titles[i]).toByteArray();
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				final int cmp = NoteList.compareKeys(keys[a], keys[b]);
+				return cmp != 0 ? cmp : a - b;
+			}
+		});
+		list = new NoteList(LOADED);
+		list.complete = true;
+		for (int i : order) {
+			final char[] title = titles[i].toCharArray();
+			final char[] preview = previews[i].toCharArray();
+			list.add(i + 1, keys[i], title, title.length, preview,
+					preview.length);
+		}
+
+		NoteSections letters = new NoteSections(list.locale);
+		String[] firsts = new String[LOADED];
+		int[] counts = new int[LOADED];
+		for (int i = 0; i < LOADED; i++) {
+			firsts[i] = letters.initialOf(titles[i]);
+			counts[i] = 1;
+		}
+		Object[][] sections = letters.sections(firsts, counts);
+		String[] labels = new String[sections.length];
+		String[] initials = new String[sections.length];
+		int[] sectionCounts = new int[sections.length];
+		for (int i = 0; i < sections.length; i++) {
+			labels[i] = (String) sections[i][0];
+			sectionCounts[i] = (Integer) sections[i][1];
+			initials[i] = (String) sections[i][2];
+		}
+		list.setSections(labels, initials, sectionCounts);
+
+		// each change gives a note a new title, the next one its old title
+		// back, so the list keeps to the same notes
+		changed = new NoteList(CHANGES);
+		changedTitles = new String[CHANGES][];
+		for (int i = 0; i < CHANGES; i += 2) {
+			final int index = random.nextInt(LOADED);
+			final String title = DesktopNotes.title(random);
+			final char[] preview = previews[index].toCharArray();
+			for (String to : new String[] { title, titles[index] }) {
+				final char[] chars = to.toCharArray();
+				changed.add(index + 1, collator.getCollationKey(to)
+						.toByteArray(), chars, chars.length, preview,
+						preview.length);
+			}
+			changedTitles[i] = new String[] { titles[index], title };
+			changedTitles[i + 1] = new String[] { title, titles[index] };
+		}
+	}
+
+	/**
+	 * A row bound from the packed chars
+	 */
+	@Benchmark
+	public void bind(Blackhole out) {
+		position = (position + 1) % list.size();
+		final char[] chars = list.chars();
+		out.consume(chars);
+		out.consume(list.titleStart(position));
+		out.consume(list.titleLength(position));
+		out.consume(list.previewStart(position));
+		out.consume(list.previewLength(position));
+	}
+
+	/**
+	 * A row bound by making strings of its title & preview
+	 */
+	@Benchmark
+	public void bindStrings(Blackhole out) {
+		position = (position + 1) % list.size();
+		out.consume(list.titleAt(position));
+		out.consume(list.previewAt(position));
+	}
+
+	/**
+	 * A note's title changed, moved to where it now sorts & between
+	 * sections
+	 */
+	@Benchmark
+	public boolean changeTitle() {
+		change = (change + 1) % CHANGES;
+		final String[] titles = changedTitles[change];
+		final boolean listed = list.put(changed, change);
+		list.countInSection(titles[0], -1);
+		list.countInSection(titles[1], 1);
+		return listed;
+	}
+}
@@ -0,0 +1,441 @@
+package com.example.android.honeypad;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.text.Collator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * The queries & writes NotesProvider makes for the list, the editor & the
+ * widget, timed against databases of 1k, 100k & 1M notes. Each runs the SQL
+ * the provider runs for it, built by the same {@link NoteQueries}, in the
+ * same transactions, with statements the provider compiles once kept
+ * prepared here too.
+ *
+ * A database of each size is made once, by {@link DesktopNotes#fill}, & kept
+ * in target/notes (or -Dnotes.dir), then every trial works on a fresh copy
+ * of it in write-ahead-log mode, as the app opens it. This is SQLite 3.45 on
+ * a desktop rather than the device's own, so compare runs with each other,
+ * not with timings taken on a phone.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NotesBenchmark {
+
+	private static final long SEED = 1;
+
+	// as NoteListFragment.PAGE_SIZE & WidgetService's COUNT
+	private static final int PAGE_SIZE = 50;
+	private static final int WIDGET_COUNT = 10;
+
+	// notes picked at once to delete
+	private static final int SELECTED = 20;
+
+	// notes to start pages from & filter by, picked ahead so picking them
+	// isn't timed
+	private static final int SAMPLES = 1024;
+
+	// as NoteListFragment's projection, WidgetService's without the key
+	private static final String[] COLUMNS = { "_id", "title", "preview",
+			"sort_key" };
+
+
+	@Param({ "1000", "100000", "1000000" })
+	public int notes;
+
+	private File file;
+	private Connection db;
+	private final Collator collator = Collator.getInstance();
+	private final Random random = new Random(SEED);
+
+	// the by-id statements NoteStatements keeps compiled
+	private PreparedStatement insertNote;
+	private PreparedStatement insertRevision;
+	private PreparedStatement titleById;
+	private PreparedStatement updateTitle;
+	private PreparedStatement deleteById;
+	private PreparedStatement noteById;
+
+	// statements whose SQL never changes, which Android's statement cache
+	// keeps compiled
+	private PreparedStatement topNotes;
+	private PreparedStatement filter;
+	private PreparedStatement sections;
+
+	private long[] sampleIds;
+	private byte[][] sampleKeys;
+	private String[] sampleFilters;
+	private int sample;
+
+	@Setup(Level.Trial)
+	public void open() throws IOException, SQLException {
+		file = File.createTempFile("notes", ".db");
+		Files.copy(template(notes).toPath(), file.toPath(),
+				StandardCopyOption.REPLACE_EXISTING);
+		db = DesktopNotes.open(file);
+		execute("PRAGMA journal_mode=WAL");
+
+		insertNote = db.prepareStatement(NoteQueries.insert(
+				NoteQueries.TABLE, DesktopNotes.INSERT_COLUMNS));
+		insertRevision = db
+				.prepareStatement(DesktopNotes.INSERT_FIRST_REVISION);
+		titleById = db.prepareStatement(NoteQueries.select(NoteQueries.TABLE,
+				new String[] { "title" }, "_id=?", null, null));
+		updateTitle = db.prepareStatement(DesktopNotes.UPDATE_TITLE);
+		deleteById = db.prepareStatement(NoteQueries.deleteById(
+				NoteQueries.TABLE, "_id"));
+		noteById = db.prepareStatement(NoteQueries.select(NoteQueries.TABLE,
+				COLUMNS, "_id=?", null, null));
+		topNotes = db.prepareStatement(NoteQueries.select(NoteQueries.TABLE,
+				COLUMNS, null, NoteQueries.SORT_ORDER, String
+						.valueOf(WIDGET_COUNT)));
+		filter = db.prepareStatement(NoteQueries.select(NoteQueries.TABLE,
+				COLUMNS, NoteQueries.and(NoteQueries.FILTER_WHERE),
+				NoteQueries.SORT_ORDER, String.valueOf(PAGE_SIZE)));
+		sections = db.prepareStatement(NoteQueries.sections(false));
+
+		sampleIds = new long[SAMPLES];
+		sampleKeys = new byte[SAMPLES][];
+		sampleFilters = new String[SAMPLES];
+		PreparedStatement note = db.prepareStatement("SELECT sort_key, title "
+				+ "FROM notes WHERE _id=?");
+		try {
+			for (int i = 0; i < SAMPLES; i++) {
+				sampleIds[i] = randomId();
+				note.setLong(1, sampleIds[i]);
+				ResultSet c = note.executeQuery();
+				c.next();
+				sampleKeys[i] = c.getBytes(1);
+				// typing the first letters of a note's title, as
+				// NotesProvider.toTitleMatchExpression makes the match
+				sampleFilters[i] = "title:"
+						+ c.getString(2).substring(0, 2).toLowerCase() + "*";
+				c.close();
+			}
+		} finally {
+			note.close();
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void close() throws SQLException {
+		db.close();
+		file.delete();
+		new File(file.getPath() + "-wal").delete();
+		new File(file.getPath() + "-shm").delete();
+	}
+
+	/**
+	 * A new note, as NotesProvider.doInsert writes it
+	 */
+	@Benchmark
+	public long insert() throws SQLException {
+		db.setAutoCommit(false);
+		try {
+			final long id = insertNote();
+			db.commit();
+			return id;
+		} finally {
+			db.setAutoCommit(true);
+		}
+	}
+
+	/**
+	 * The number of notes in a bulkInsert
+	 */
+	@State(Scope.Benchmark)
+	public static class Batch {
+
+		@Param({ "1000", "10000", "100000" })
+		public int batchRows;
+	}
+
+	/**
+	 * The rows inserted by the iteration so far, which JMH reports per
+	 * second as bulkInsert:rows
+	 */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	public static class Inserted {
+
+		public long rows;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			rows = 0;
+		}
+	}
+
+	/**
+	 * A bulkInsert of a batch of notes in one transaction, as an import
+	 * makes, in batches per second & rows per second
+	 */
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	@OutputTimeUnit(TimeUnit.SECONDS)
+	public long bulkInsert(Batch batch, Inserted inserted)
+			throws SQLException {
+		db.setAutoCommit(false);
+		try {
+			long id = 0;
+			for (int i = 0; i < batch.batchRows; i++) {
+				id = insertNote();
+			}
+			db.commit();
+			inserted.rows += batch.batchRows;
+			return id;
+		} finally {
+			db.setAutoCommit(true);
+		}
+	}
+
+	/**
+	 * A query of one note by its Uri
+	 */
+	@Benchmark
+	public void byIdQuery(Blackhole out) throws SQLException {
+		noteById.setLong(1, randomId());
+		read(noteById.executeQuery(), out);
+	}
+
+	/**
+	 * The same query with the id built into the SQL, compiled every time as
+	 * it was before the provider bound it
+	 */
+	@Benchmark
+	public void byIdQueryCompiledEachTime(Blackhole out) throws SQLException {
+		Statement statement = db.createStatement();
+		try {
+			read(statement.executeQuery(NoteQueries.select(NoteQueries.TABLE,
+					COLUMNS, "_id=" + randomId(), null, null)), out);
+		} finally {
+			statement.close();
+		}
+	}
+
+	/**
+	 * A page of the sorted list after a note, as NoteListFragment pages it.
+	 * The provider builds the key into the SQL, so it's compiled every time.
+	 */
+	@Benchmark
+	public void sortedListQuery(Blackhole out) throws SQLException {
+		final int i = nextSample();
+		PreparedStatement page = db.prepareStatement(NoteQueries.select(
+				NoteQueries.TABLE, COLUMNS, NoteQueries.and(NoteQueries
+						.afterWhere(NoteQueries.literalOf(sampleKeys[i]))),
+				NoteQueries.SORT_ORDER, String.valueOf(PAGE_SIZE)));
+		try {
+			page.setLong(1, sampleIds[i]);
+			read(page.executeQuery(), out);
+		} finally {
+			page.close();
+		}
+	}
+
+	/**
+	 * The first page of the list filtered by the start of a title
+	 */
+	@Benchmark
+	public void filteredListQuery(Blackhole out) throws SQLException {
+		filter.setString(1, sampleFilters[nextSample()]);
+		read(filter.executeQuery(), out);
+	}
+
+	/**
+	 * The count of notes under each letter for the list's fast scroll
+	 */
+	@Benchmark
+	public void sectionsQuery(Blackhole out) throws SQLException {
+		ResultSet c = sections.executeQuery();
+		while (c.next()) {
+			out.consume(c.getString(1));
+			out.consume(c.getInt(2));
+		}
+		c.close();
+	}
+
+	/**
+	 * A new title for a note, as NotesProvider.doUpdate writes it
+	 */
+	@Benchmark
+	public int update() throws SQLException {
+		final long id = randomId();
+		final String title = DesktopNotes.title(random);
+		db.setAutoCommit(false);
+		try {
+			// the previous title, for the change log
+			titleById.setLong(1, id);
+			titleById.executeQuery().close();
+			DesktopNotes.bindTitleUpdate(updateTitle, id, title,
+					System.currentTimeMillis(), collator);
+			final int count = updateTitle.executeUpdate();
+			db.commit();
+			return count;
+		} finally {
+			db.setAutoCommit(true);
+		}
+	}
+
+	/**
+	 * Notes picked in the list to delete, added before each delete so the
+	 * database stays the same size
+	 */
+	@State(Scope.Thread)
+	public static class Selection {
+
+		long[] ids = new long[SELECTED];
+
+		@Setup(Level.Invocation)
+		public void select(NotesBenchmark notes) throws SQLException {
+			notes.db.setAutoCommit(false);
+			try {
+				for (int i = 0; i < SELECTED; i++) {
+					ids[i] = notes.insertNote();
+				}
+				notes.db.commit();
+			} finally {
+				notes.db.setAutoCommit(true);
+			}
+		}
+	}
+
+	/**
+	 * Deleting the selected notes, as NotesProvider.deleteNotes does
+	 */
+	@Benchmark
+	public int multiDelete(Selection selection) throws SQLException {
+		int count = 0;
+		db.setAutoCommit(false);
+		try {
+			for (long id : selection.ids) {
+				titleById.setLong(1, id);
+				ResultSet c = titleById.executeQuery();
+				final boolean found = c.next();
+				c.close();
+				deleteById.setLong(1, id);
+				if (found && deleteById.executeUpdate() > 0) {
+					count++;
+				}
+			}
+			db.commit();
+			return count;
+		} finally {
+			db.setAutoCommit(true);
+		}
+	}
+
+	/**
+	 * The widget's refresh, the first notes in the list
+	 */
+	@Benchmark
+	public void widgetTopN(Blackhole out) throws SQLException {
+		read(topNotes.executeQuery(), out);
+	}
+
+	/**
+	 * Inserts a note & its body within the current transaction, without the
+	 * search index as the provider leaves that to the background.
+	 *
+	 * @return the id of the new note
+	 */
+	private long insertNote() throws SQLException {
+		final String title = DesktopNotes.title(random);
+		final String body = DesktopNotes.body(random, 50 + random
+				.nextInt(200));
+		final long modified = System.currentTimeMillis();
+		DesktopNotes.bindColumns(insertNote, DesktopNotes.INSERT_COLUMNS,
+				title, body, modified, collator);
+		insertNote.executeUpdate();
+		final long id = DesktopNotes.lastInsertId(db);
+		DesktopNotes.bindFirstRevision(insertRevision, id, body, modified);
+		insertRevision.executeUpdate();
+		return id;
+	}
+
+	/**
+	 * @return the id of one of the notes the database was made with
+	 */
+	private long randomId() {
+		return 1 + random.nextInt(notes);
+	}
+
+	private int nextSample() {
+		sample = (sample + 1) % SAMPLES;
+		return sample;
+	}
+
+	private void execute(String sql) throws SQLException {
+		Statement statement = db.createStatement();
+		try {
+			statement.execute(sql);
+		} finally {
+			statement.close();
+		}
+	}
+
+	/**
+	 * Reads every row of a list query as the list or widget would
+	 */
+	private static void read(ResultSet c, Blackhole out) throws SQLException {
+		while (c.next()) {
+			out.consume(c.getLong(1));
+			out.consume(c.getString(2));
+			out.consume(c.getString(3));
+			out.consume(c.getBytes(4));
+		}
+		c.close();
+	}
+
+	/**
+	 * @return a database of the given number of notes, made the first time
+	 *         it's asked for
+	 */
+	static File template(int count) throws IOException, SQLException {
+		File dir = new File(System.getProperty("notes.dir", "target/notes"));
+		File template = new File(dir, "notes-v" + NoteSchema.VERSION + "-"
+				+ count + ".db");
+		if (!template.exists()) {
+			dir.mkdirs();
+			File made = new File(dir, template.getName() + ".tmp");
+			made.delete();
+			Connection db = DesktopNotes.open(made);
+			try {
+				DesktopNotes.fill(db, count, SEED, Collator.getInstance());
+			} finally {
+				db.close();
+			}
+			if (!made.renameTo(template)) {
+				throw new IOException("Couldn't keep " + template);
+			}
+		}
+		return template;
+	}
+}
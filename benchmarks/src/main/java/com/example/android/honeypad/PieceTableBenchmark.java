@@ -0,0 +1,113 @@
+package com.example.android.honeypad;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Editing a large note body through the {@link PieceTable} the editor keeps
+ * it in, at 1, 10 & 50 million chars: typing near the start, reading the
+ * text on screen, & saving just the edits against copying the whole body
+ * out as a save did before.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class PieceTableBenchmark {
+
+	// roughly what the editor shows at once
+	private static final int SCREEN_CHARS = 4 * 1024;
+
+	// a word typed between saves
+	private static final String WORD = "typed ";
+
+	@Param({ "1", "10", "50" })
+	public int millionChars;
+
+	private String body;
+	private PieceTable text;
+	private int position;
+
+	@Setup(Level.Trial)
+	public void makeBody() {
+		body = DesktopNotes.body(new Random(1), millionChars * 1000000);
+	}
+
+	/**
+	 * Each iteration starts from the body as loaded, typing just after its
+	 * first line
+	 */
+	@Setup(Level.Iteration)
+	public void load() {
+		text = new PieceTable(body);
+		position = 100;
+	}
+
+	/**
+	 * One char typed near the start
+	 */
+	@Benchmark
+	public int type() {
+		text.replace(position, position, "x");
+		position++;
+		return text.length();
+	}
+
+	/**
+	 * The text on screen, a little way into the body after typing there
+	 */
+	@Benchmark
+	public void readScreen(Blackhole out) {
+		text.replace(position, position, "x");
+		position++;
+		out.consume(text.subSequence(position, position + SCREEN_CHARS)
+				.toString());
+	}
+
+	/**
+	 * A word typed & then saved as the edits made since the last save
+	 */
+	@Benchmark
+	public void saveEdits(Blackhole out) {
+		typeWord();
+		for (int i = 0; i < text.editCount(); i++) {
+			out.consume(text.editStart(i));
+			out.consume(text.editDeleted(i));
+			out.consume(text.editText(i));
+		}
+		text.clearEdits();
+	}
+
+	/**
+	 * A word typed & then saved by copying out the whole body
+	 */
+	@Benchmark
+	public void saveWholeBody(Blackhole out) {
+		typeWord();
+		out.consume(text.toString());
+		text.clearEdits();
+	}
+
+	private void typeWord() {
+		for (int i = 0; i < WORD.length(); i++) {
+			text.replace(position, position, WORD.subSequence(i, i + 1));
+			position++;
+		}
+	}
+}
@@ -0,0 +1,199 @@
+package com.example.android.honeypad;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.text.Collator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Reads of the list while a note is saved over & over, as the widget & the
+ * list's loaders read while the editor autosaves. The reader & the writer
+ * each have their own connection, as the provider's read pool & its writer
+ * do, & the reads are sampled for their latency percentiles: alone, & with
+ * the writer saving as fast as it can, in write-ahead-log mode as the
+ * provider opens the database & in the rollback journal mode it used
+ * before.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WalBenchmark {
+
+	private static final long SEED = 1;
+
+	// as NoteListFragment.PAGE_SIZE
+	private static final int PAGE_SIZE = 50;
+
+	private static final String[] COLUMNS = { "_id", "title", "preview" };
+
+	// notes to start pages from, picked ahead so picking them isn't timed
+	private static final int SAMPLES = 1024;
+
+	@Param({ "WAL", "DELETE" })
+	public String journal;
+
+	@Param({ "100000" })
+	public int notes;
+
+	private File file;
+	private long[] sampleIds;
+	private String[] sampleKeys;
+
+	@Setup(Level.Trial)
+	public void copy() throws IOException, SQLException {
+		file = File.createTempFile("notes", ".db");
+		Files.copy(NotesBenchmark.template(notes).toPath(), file.toPath(),
+				StandardCopyOption.REPLACE_EXISTING);
+		Connection db = DesktopNotes.open(file);
+		try {
+			Statement statement = db.createStatement();
+			statement.execute("PRAGMA journal_mode=" + journal);
+			statement.close();
+
+			Random random = new Random(SEED);
+			sampleIds = new long[SAMPLES];
+			sampleKeys = new String[SAMPLES];
+			PreparedStatement key = db.prepareStatement(NoteQueries.select(
+					NoteQueries.TABLE, new String[] { NoteQueries.KEY_SORT_KEY },
+					"_id=?", null, null));
+			for (int i = 0; i < SAMPLES; i++) {
+				sampleIds[i] = 1 + random.nextInt(notes);
+				key.setLong(1, sampleIds[i]);
+				ResultSet c = key.executeQuery();
+				c.next();
+				sampleKeys[i] = NoteQueries.literalOf(c.getBytes(1));
+				c.close();
+			}
+			key.close();
+		} finally {
+			db.close();
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void delete() {
+		file.delete();
+		new File(file.getPath() + "-wal").delete();
+		new File(file.getPath() + "-shm").delete();
+		new File(file.getPath() + "-journal").delete();
+	}
+
+	/**
+	 * One thread's connection to the database, waiting on a lock rather
+	 * than failing as Android's connections do
+	 */
+	@State(Scope.Thread)
+	public static class Session {
+
+		Connection db;
+		final Random random = new Random(SEED);
+		final Collator collator = Collator.getInstance();
+		int sample;
+
+		@Setup(Level.Trial)
+		public void open(WalBenchmark benchmark) throws SQLException {
+			db = DesktopNotes.open(benchmark.file);
+			Statement statement = db.createStatement();
+			statement.execute("PRAGMA busy_timeout=60000");
+			statement.close();
+		}
+
+		@TearDown(Level.Trial)
+		public void close() throws SQLException {
+			db.close();
+		}
+	}
+
+	/**
+	 * A page of the list after a note, with no one writing
+	 */
+	@Benchmark
+	@Group("alone")
+	public void read(Session session, Blackhole out) throws SQLException {
+		readPage(session, out);
+	}
+
+	/**
+	 * The same page, while another connection saves
+	 */
+	@Benchmark
+	@Group("underWriter")
+	@GroupThreads(1)
+	public void readWhileWriting(Session session, Blackhole out)
+			throws SQLException {
+		readPage(session, out);
+	}
+
+	/**
+	 * A note's new title saved in its own transaction, as an autosave does,
+	 * over & over while the reader reads
+	 */
+	@Benchmark
+	@Group("underWriter")
+	@GroupThreads(1)
+	public int write(Session session) throws SQLException {
+		final long id = 1 + session.random.nextInt(notes);
+		final String title = DesktopNotes.title(session.random);
+		session.db.setAutoCommit(false);
+		PreparedStatement update = session.db
+				.prepareStatement(DesktopNotes.UPDATE_TITLE);
+		try {
+			DesktopNotes.bindTitleUpdate(update, id, title, System
+					.currentTimeMillis(), session.collator);
+			final int count = update.executeUpdate();
+			session.db.commit();
+			return count;
+		} finally {
+			update.close();
+			session.db.setAutoCommit(true);
+		}
+	}
+
+	private void readPage(Session session, Blackhole out) throws SQLException {
+		session.sample = (session.sample + 1) % SAMPLES;
+		PreparedStatement page = session.db.prepareStatement(NoteQueries
+				.select(NoteQueries.TABLE, COLUMNS, NoteQueries
+						.and(NoteQueries.afterWhere(sampleKeys[session.sample])),
+						NoteQueries.SORT_ORDER, String.valueOf(PAGE_SIZE)));
+		try {
+			page.setLong(1, sampleIds[session.sample]);
+			ResultSet c = page.executeQuery();
+			while (c.next()) {
+				out.consume(c.getLong(1));
+				out.consume(c.getString(2));
+				out.consume(c.getString(3));
+			}
+			c.close();
+		} finally {
+			page.close();
+		}
+	}
+}
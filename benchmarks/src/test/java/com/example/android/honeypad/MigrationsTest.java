@@ -0,0 +1,394 @@
+package com.example.android.honeypad;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Upgrades a version 1 database of 100k notes through every step in
+ * {@link NoteSchema#MIGRATIONS}, printing how long each step takes. Set
+ * -Dnotes=n for another number of notes.
+ */
+public class MigrationsTest {
+
+	private static final long SEED = 1;
+
+	// as NotesProvider.SORT_KEY_BATCH & NoteListFragment.PAGE_SIZE
+	private static final int SORT_KEY_BATCH = 500;
+	private static final int PAGE_SIZE = 50;
+
+	private final int count = Integer.getInteger("notes", 100000);
+
+	private File file;
+	private Connection db;
+
+	@Before
+	public void setUp() throws IOException, SQLException {
+		file = File.createTempFile("notes", ".db");
+		db = DesktopNotes.open(file);
+		DesktopNotes.create(db);
+		long start = System.nanoTime();
+		DesktopNotes.fillVersion1(db, count, SEED);
+		System.out.printf("v1 with %d notes: %d ms%n", count,
+				millisSince(start));
+	}
+
+	@After
+	public void tearDown() throws SQLException {
+		db.close();
+		file.delete();
+	}
+
+	@Test
+	public void upgradeKeepsEveryNote() throws SQLException {
+		for (int version = 2; version <= NoteSchema.VERSION; version++) {
+			long start = System.nanoTime();
+			DesktopNotes.migrate(db, version);
+			System.out.printf("v%d: %d ms%n", version, millisSince(start));
+
+			switch (version) {
+			case 4:
+				checkBodiesMovedToRevisions();
+				break;
+			case 12:
+				// every long revision waits to be deflated, & no other
+				assertEquals(longOf("select count(*) from revisions "
+						+ "where length(text) >= 4096"),
+						longOf("select count(*) from revisions_to_deflate"));
+				break;
+			}
+		}
+		// the keys added at step 6, as the provider makes them once the
+		// upgraded database is open
+		long start = System.nanoTime();
+		long after = 0;
+		while (after >= 0) {
+			after = DesktopNotes.makeMissingSortKeys(db, Collator
+					.getInstance(), after, SORT_KEY_BATCH);
+		}
+		System.out.printf("sort keys: %d ms%n", millisSince(start));
+		checkSortedByKey(Collator.getInstance());
+		checkInitialCounts();
+
+		assertEquals(count, longOf("select count(*) from notes"));
+		assertEquals(count, longOf("select count(*) from notes_fts"));
+		assertEquals(count, longOf("select count(*) from titles_fts"));
+	}
+
+	@Test
+	public void localeChangeSwapsSortKeys() throws SQLException {
+		for (int version = 2; version <= NoteSchema.VERSION; version++) {
+			DesktopNotes.migrate(db, version);
+		}
+		DesktopNotes.rebuildSortKeys(db, Collator.getInstance(Locale.ENGLISH));
+
+		Collator swedish = Collator.getInstance(new Locale("sv"));
+		long start = System.nanoTime();
+		DesktopNotes.makeNextSortKeys(db, swedish);
+		System.out.printf("next sort keys: %d ms%n", millisSince(start));
+		start = System.nanoTime();
+		DesktopNotes.swapSortKeys(db);
+		System.out.printf("sort key swap: %d ms%n", millisSince(start));
+
+		checkSortedByKey(swedish);
+		checkInitialCounts();
+		assertEquals(0, longOf("select count(*) from notes "
+				+ "where next_sort_key is not null or next_initial is not null"));
+	}
+
+	@Test
+	public void contractionsHaveTheirOwnSections() throws SQLException {
+		for (int version = 2; version <= NoteSchema.VERSION; version++) {
+			DesktopNotes.migrate(db, version);
+		}
+		// Czech sorts "ch" as a letter of its own, after "h"
+		final Locale czech = new Locale("cs");
+		final Collator collator = Collator.getInstance(czech);
+		DesktopNotes.rebuildSortKeys(db, collator);
+		String[] titles = { "chleba", "Chata", "CHALUPA", "cukr", "hrad",
+				"ihned" };
+		PreparedStatement update = db.prepareStatement(DesktopNotes.UPDATE_TITLE);
+		try {
+			for (int i = 0; i < titles.length; i++) {
+				DesktopNotes.bindTitleUpdate(update, i + 1, titles[i], 0,
+						collator);
+				update.executeUpdate();
+			}
+		} finally {
+			update.close();
+		}
+		checkInitialCounts();
+
+		List<String> firsts = new ArrayList<String>();
+		List<Integer> counts = new ArrayList<Integer>();
+		Statement statement = db.createStatement();
+		try {
+			ResultSet c = statement.executeQuery(NoteQueries.sections(false));
+			while (c.next()) {
+				firsts.add(c.getString(1));
+				counts.add(c.getInt(2));
+			}
+		} finally {
+			statement.close();
+		}
+		int[] countArray = new int[counts.size()];
+		for (int i = 0; i < countArray.length; i++) {
+			countArray[i] = counts.get(i);
+		}
+		Object[][] sections = new NoteSections(czech).sections(firsts
+				.toArray(new String[firsts.size()]), countArray);
+
+		// each section starts where the list seeks to from its initial, so
+		// holds just the notes under its letter
+		List<Object> labels = new ArrayList<Object>();
+		long start = 0;
+		for (Object[] section : sections) {
+			final String from = NoteQueries.literalOf(collator
+					.getCollationKey((String) section[2]).toByteArray());
+			assertEquals("start of " + section[0], start, longOf("select "
+					+ "count(*) from notes where sort_key < " + from));
+			start += (Integer) section[1];
+			labels.add(section[0]);
+		}
+		assertEquals(count, start);
+		assertTrue(labels.toString(), labels.indexOf("CH") > labels
+				.indexOf("H"));
+		assertTrue(labels.toString(), labels.indexOf("C") < labels
+				.indexOf("H"));
+	}
+
+	@Test
+	public void pagesWhileSortKeysAreMissing() throws SQLException {
+		for (int version = 2; version <= NoteSchema.VERSION; version++) {
+			DesktopNotes.migrate(db, version);
+		}
+		// the first batch made, as if the list reads before the rest are
+		DesktopNotes.makeMissingSortKeys(db, Collator.getInstance(), 0,
+				SORT_KEY_BATCH);
+
+		List<Long> order = idsOf(NoteQueries.select(NoteQueries.TABLE,
+				new String[] { NoteQueries.KEY_ID }, null,
+				NoteQueries.SORT_ORDER, null), null);
+		assertEquals(count, order.size());
+		final int unkeyed = count - SORT_KEY_BATCH;
+		for (int at : new int[] { 0, 75, unkeyed - 10, unkeyed - 1, unkeyed,
+				unkeyed + 75, count - 1 }) {
+			final long id = order.get(at);
+			final byte[] key = keyOf(id);
+			final String literal = key != null ? NoteQueries.literalOf(key)
+					: null;
+			assertEquals("after " + at, order.subList(at + 1, Math.min(
+					count, at + 1 + PAGE_SIZE)), idsOf(NoteQueries.select(
+					NoteQueries.TABLE, new String[] { NoteQueries.KEY_ID },
+					NoteQueries.afterWhere(literal), NoteQueries.SORT_ORDER,
+					String.valueOf(PAGE_SIZE)), id));
+
+			List<Long> before = idsOf(NoteQueries.select(NoteQueries.TABLE,
+					new String[] { NoteQueries.KEY_ID }, NoteQueries
+							.beforeWhere(literal, true),
+					NoteQueries.REVERSE_SORT_ORDER, String.valueOf(PAGE_SIZE)),
+					id);
+			Collections.reverse(before);
+			assertEquals("before " + at, order.subList(Math.max(0, at
+					- PAGE_SIZE), at), before);
+		}
+	}
+
+	@Test
+	public void upgradeMatchesFreshSchema() throws IOException, SQLException {
+		for (int version = 2; version <= NoteSchema.VERSION; version++) {
+			DesktopNotes.migrate(db, version);
+		}
+		File freshFile = File.createTempFile("fresh", ".db");
+		Connection fresh = DesktopNotes.open(freshFile);
+		try {
+			DesktopNotes.create(fresh);
+			for (int version = 2; version <= NoteSchema.VERSION; version++) {
+				DesktopNotes.migrate(fresh, version);
+			}
+			assertEquals(schemaOf(fresh), schemaOf(db));
+		} finally {
+			fresh.close();
+			freshFile.delete();
+		}
+	}
+
+	/**
+	 * Every note has its version 1 body as a snapshot at revision 0, & no
+	 * body left in the notes table.
+	 */
+	private void checkBodiesMovedToRevisions() throws SQLException {
+		assertEquals(count, longOf("select count(*) from revisions "
+				+ "where revision = 0 and snapshot = 1"));
+		assertEquals(0, longOf("select count(*) from notes where body != ''"));
+
+		// regenerate the notes in insert order, _ids start at 1
+		Random random = new Random(SEED);
+		Statement statement = db.createStatement();
+		ResultSet c = statement.executeQuery("select note_id, text "
+				+ "from revisions order by note_id");
+		try {
+			long id = 0;
+			while (c.next()) {
+				DesktopNotes.title(random);
+				String body = DesktopNotes.body(random,
+						DesktopNotes.bodyLength(random));
+				assertEquals(++id, c.getLong(1));
+				assertEquals(body, c.getString(2));
+			}
+			assertEquals(count, id);
+		} finally {
+			c.close();
+			statement.close();
+		}
+	}
+
+	/**
+	 * The notes_sort_key index gives titles in the collator's order.
+	 */
+	private void checkSortedByKey(Collator collator) throws SQLException {
+		Statement statement = db.createStatement();
+		ResultSet c = statement
+				.executeQuery("select title from notes order by sort_key, _id");
+		try {
+			String previous = null;
+			while (c.next()) {
+				String title = c.getString(1);
+				assertTrue(previous + " before " + title, previous == null
+						|| collator.compare(previous, title) <= 0);
+				previous = title;
+			}
+		} finally {
+			c.close();
+			statement.close();
+		}
+
+		assertUsesIndex("select _id from notes order by sort_key, _id "
+				+ "limit 50", "notes_sort_key");
+	}
+
+	/**
+	 * The counts the triggers keep are those of the notes under each
+	 * initial.
+	 */
+	private void checkInitialCounts() throws SQLException {
+		assertEquals(rowsOf("select initial, count(*) from notes "
+				+ "group by initial"), rowsOf("select initial, count "
+				+ "from initial_counts order by initial"));
+	}
+
+	/**
+	 * The query is answered from the index, without sorting.
+	 */
+	private void assertUsesIndex(String sql, String index)
+			throws SQLException {
+		Statement statement = db.createStatement();
+		StringBuilder detail = new StringBuilder();
+		try {
+			ResultSet plan = statement.executeQuery("explain query plan "
+					+ sql);
+			while (plan.next()) {
+				detail.append(plan.getString("detail")).append('\n');
+			}
+		} finally {
+			statement.close();
+		}
+		assertTrue(detail.toString(), detail.indexOf("INDEX " + index) >= 0
+				&& detail.indexOf("TEMP B-TREE") < 0);
+	}
+
+	/**
+	 * @return the ids a query finds, with any id bound to it
+	 */
+	private List<Long> idsOf(String sql, Long id) throws SQLException {
+		List<Long> ids = new ArrayList<Long>();
+		PreparedStatement query = db.prepareStatement(sql);
+		try {
+			if (id != null) {
+				query.setLong(1, id);
+			}
+			ResultSet c = query.executeQuery();
+			while (c.next()) {
+				ids.add(c.getLong(1));
+			}
+		} finally {
+			query.close();
+		}
+		return ids;
+	}
+
+	private List<String> rowsOf(String sql) throws SQLException {
+		List<String> rows = new ArrayList<String>();
+		Statement statement = db.createStatement();
+		try {
+			ResultSet c = statement.executeQuery(sql);
+			while (c.next()) {
+				rows.add(c.getString(1) + " " + c.getLong(2));
+			}
+		} finally {
+			statement.close();
+		}
+		return rows;
+	}
+
+	private byte[] keyOf(long id) throws SQLException {
+		PreparedStatement query = db
+				.prepareStatement("select sort_key from notes where _id = ?");
+		try {
+			query.setLong(1, id);
+			ResultSet c = query.executeQuery();
+			c.next();
+			return c.getBytes(1);
+		} finally {
+			query.close();
+		}
+	}
+
+	private long longOf(String sql) throws SQLException {
+		Statement statement = db.createStatement();
+		try {
+			ResultSet c = statement.executeQuery(sql);
+			c.next();
+			return c.getLong(1);
+		} finally {
+			statement.close();
+		}
+	}
+
+	private static List<String> schemaOf(Connection db) throws SQLException {
+		List<String> schema = new ArrayList<String>();
+		Statement statement = db.createStatement();
+		try {
+			ResultSet c = statement.executeQuery("select type, name, sql "
+					+ "from sqlite_master order by type, name");
+			while (c.next()) {
+				schema.add(c.getString(1) + " " + c.getString(2) + ": "
+						+ c.getString(3));
+			}
+		} finally {
+			statement.close();
+		}
+		return schema;
+	}
+
+	private static long millisSince(long start) {
+		return (System.nanoTime() - start) / 1000000;
+	}
+}
@@ -37,14 +37,19 @@ public final class R {
         public static final int confirm=0x7f090002;
         public static final int delete_notes=0x7f090009;
         public static final int empty_view=0x7f090007;
+        public static final int filter=0x7f09000c;
         public static final int list=0x7f090003;
+        public static final int next_section=0x7f09000b;
         public static final int note_detail_container=0x7f090004;
+        public static final int preview=0x7f09000d;
+        public static final int previous_section=0x7f09000a;
         public static final int stack_view=0x7f090006;
         public static final int title=0x7f090000;
         public static final int widget_item=0x7f090005;
     }
     public static final class layout {
         public static final int note_edit=0x7f030000;
+        public static final int note_list=0x7f030005;
         public static final int note_list_row=0x7f030001;
         public static final int notepad=0x7f030002;
         public static final int widget_item=0x7f030003;
@@ -61,13 +66,17 @@ public final class R {
         public static final int confirm=0x7f070006;
         public static final int delete_note=0x7f070007;
         public static final int edit_note=0x7f070008;
+        public static final int filter_hint=0x7f070011;
         public static final int menu_add=0x7f070002;
         public static final int menu_delete=0x7f070003;
+        public static final int next_section=0x7f070010;
+        public static final int no_matching_notes=0x7f070012;
         public static final int no_notes=0x7f070001;
         public static final int note_saved=0x7f070009;
         public static final int note_updated=0x7f07000a;
         public static final int num_deleted=0x7f07000c;
         public static final int num_selected=0x7f07000b;
+        public static final int previous_section=0x7f07000f;
         public static final int title=0x7f070004;
         public static final int widget_empty_view_text=0x7f07000d;
     }
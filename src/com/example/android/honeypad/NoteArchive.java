@@ -0,0 +1,106 @@
+package com.example.android.honeypad;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.nio.charset.Charset;
+
+import android.content.ContentValues;
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.JsonWriter;
+
+/**
+ * The format notes are exported & imported in: one JSON object per line,
+ * holding a note's title, body & modified time, so archives of any size can
+ * be written & read a note at a time. Note ids aren't kept, imported notes
+ * are always added as new notes.
+ */
+final class NoteArchive {
+
+	static final String MIME_TYPE = "application/vnd.honeypad.notes+json";
+
+	static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	// the fields of each note
+	private static final String FIELD_TITLE = "title";
+	private static final String FIELD_BODY = "body";
+	private static final String FIELD_MODIFIED = "modified";
+
+	private final JsonReader mReader;
+	private boolean mStarted;
+
+	/**
+	 * Starts reading notes from an archive.
+	 */
+	NoteArchive(InputStream in) {
+		mReader = new JsonReader(new InputStreamReader(in, UTF_8));
+		// lenient to read one object after another rather than a single
+		// top-level value
+		mReader.setLenient(true);
+	}
+
+	/**
+	 * Writes a note as a line of the archive.
+	 */
+	static void write(Writer out, String title, String body, long modified)
+			throws IOException {
+		// not closed, that would close the archive too. It writes straight
+		// through to out, so there's nothing to flush either.
+		JsonWriter note = new JsonWriter(out);
+		note.beginObject();
+		note.name(FIELD_TITLE).value(title);
+		note.name(FIELD_BODY).value(body);
+		note.name(FIELD_MODIFIED).value(modified);
+		note.endObject();
+		out.write('\n');
+	}
+
+	/**
+	 * Reads the next note into {@code note}, replacing what was there. Fields
+	 * this version doesn't know are skipped.
+	 *
+	 * @return false at the end of the archive
+	 */
+	boolean read(ContentValues note) throws IOException {
+		try {
+			if (mReader.peek() == JsonToken.END_DOCUMENT) {
+				return false;
+			}
+		} catch (EOFException e) {
+			// an empty archive has no document to end
+			if (!mStarted) {
+				return false;
+			}
+			throw e;
+		}
+		mStarted = true;
+
+		note.clear();
+		note.put(NotesProvider.KEY_TITLE, "");
+		note.put(NotesProvider.KEY_BODY, "");
+		mReader.beginObject();
+		while (mReader.hasNext()) {
+			final String name = mReader.nextName();
+			if (mReader.peek() == JsonToken.NULL) {
+				mReader.nextNull();
+			} else if (FIELD_TITLE.equals(name)) {
+				note.put(NotesProvider.KEY_TITLE, mReader.nextString());
+			} else if (FIELD_BODY.equals(name)) {
+				note.put(NotesProvider.KEY_BODY, mReader.nextString());
+			} else if (FIELD_MODIFIED.equals(name)) {
+				note.put(NotesProvider.KEY_MODIFIED, mReader.nextLong());
+			} else {
+				mReader.skipValue();
+			}
+		}
+		mReader.endObject();
+		return true;
+	}
+
+	void close() throws IOException {
+		mReader.close();
+	}
+}
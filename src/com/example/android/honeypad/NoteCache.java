@@ -0,0 +1,79 @@
+package com.example.android.honeypad;
+
+import android.util.LruCache;
+
+/**
+ * Process wide cache of recently opened notes, bounded by the number of bytes
+ * their text takes up. {@link NotesProvider} drops notes from here once their
+ * writes commit, & a note read before then is turned away by {@link #put},
+ * so anything found in the cache is current.
+ */
+final class NoteCache {
+
+	// total size of the cached titles & bodies
+	private static final int MAX_BYTES = 2 * 1024 * 1024;
+
+	/**
+	 * The content of a single note.
+	 */
+	static final class Note {
+		final long id;
+		final String title;
+		final String body;
+
+		Note(long id, String title, String body) {
+			this.id = id;
+			this.title = title;
+			this.body = body;
+		}
+	}
+
+	private static final LruCache<Long, Note> sNotes = new LruCache<Long, Note>(
+			MAX_BYTES) {
+		@Override
+		protected int sizeOf(Long id, Note note) {
+			// java chars are 2 bytes each
+			return 2 * (note.title.length() + note.body.length());
+		}
+	};
+
+	// counts the notes dropped, so a note read before a write commits can't
+	// be put back after the write has dropped it
+	private static long sVersion;
+
+	private NoteCache() {
+	}
+
+	static Note get(long id) {
+		return sNotes.get(id);
+	}
+
+	/**
+	 * @return the version to {@link #put} a note with, taken before the note
+	 *         is read
+	 */
+	static synchronized long version() {
+		return sVersion;
+	}
+
+	/**
+	 * Caches a note unless any note has been dropped since the given
+	 * {@link #version()}, as the note may then have been read before a write
+	 * to it.
+	 */
+	static synchronized void put(Note note, long version) {
+		if (version == sVersion) {
+			sNotes.put(note.id, note);
+		}
+	}
+
+	static synchronized void remove(long id) {
+		sVersion++;
+		sNotes.remove(id);
+	}
+
+	static synchronized void clear() {
+		sVersion++;
+		sNotes.evictAll();
+	}
+}
@@ -0,0 +1,89 @@
+package com.example.android.honeypad;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+
+/**
+ * The most recent changes made through {@link NotesProvider}, each numbered
+ * with an increasing sequence number. Observers remember the last number they
+ * have seen and ask for anything newer, so they can update just the notes
+ * that changed rather than reloading everything. A change that moves a
+ * note out of where it was listed carries the note's title from before, so
+ * observers can tell where it was without having loaded it.
+ * 
+ * Only the last {@link #CAPACITY} changes are kept. Asking for changes older
+ * than that, or changes that can't be narrowed down to a set of notes,
+ * returns a single {@link NotesProvider#CHANGE_RESET} telling the observer
+ * to reload.
+ */
+final class NoteChangeLog {
+
+	private static final int CAPACITY = 512;
+
+	private static final String[] COLUMNS = new String[] {
+			NotesProvider.KEY_CHANGE_SEQ, NotesProvider.KEY_ID,
+			NotesProvider.KEY_CHANGE, NotesProvider.KEY_PREVIOUS_TITLE };
+
+	// ring buffers, the change numbered seq is at index seq % CAPACITY
+	private final long[] mIds = new long[CAPACITY];
+	private final int[] mChanges = new int[CAPACITY];
+	private final String[] mPreviousTitles = new String[CAPACITY];
+
+	// number of the latest change, & of the oldest one we still hold
+	private long mSeq;
+	private long mOldestSeq = 1;
+
+	/**
+	 * Records a change to a single note, or one that may have touched any.
+	 * 
+	 * @param change
+	 *            one of {@link NotesProvider#CHANGE_INSERT},
+	 *            {@link NotesProvider#CHANGE_UPDATE},
+	 *            {@link NotesProvider#CHANGE_DELETE}, or
+	 *            {@link NotesProvider#CHANGE_RESET} with an id of -1
+	 * @param previousTitle
+	 *            the note's title before a delete or a change of title,
+	 *            otherwise null
+	 */
+	synchronized void record(int change, long id, String previousTitle) {
+		mSeq++;
+		final int index = (int) (mSeq % CAPACITY);
+		mIds[index] = id;
+		mChanges[index] = change;
+		mPreviousTitles[index] = previousTitle;
+		if (mSeq - mOldestSeq >= CAPACITY) {
+			mOldestSeq = mSeq - CAPACITY + 1;
+		}
+	}
+
+	/**
+	 * @return the number of the latest change
+	 */
+	synchronized long currentSeq() {
+		return mSeq;
+	}
+
+	/**
+	 * @return the changes made after the one numbered {@code since}, oldest
+	 *         first
+	 */
+	synchronized Cursor changesSince(long since) {
+		if (since < mOldestSeq - 1 || since > mSeq) {
+			// we no longer know everything that happened since then, or the
+			// numbering has restarted along with the process
+			MatrixCursor reset = new MatrixCursor(COLUMNS, 1);
+			reset.addRow(new Object[] { mSeq, -1,
+					NotesProvider.CHANGE_RESET, null });
+			return reset;
+		}
+
+		MatrixCursor changes = new MatrixCursor(COLUMNS,
+				(int) Math.max(0, mSeq - since));
+		for (long seq = since + 1; seq <= mSeq; seq++) {
+			final int index = (int) (seq % CAPACITY);
+			changes.addRow(new Object[] { seq, mIds[index], mChanges[index],
+					mPreviousTitles[index] });
+		}
+		return changes;
+	}
+}
@@ -2,12 +2,22 @@
 package com.example.android.honeypad;
 
 import android.app.Fragment;
-import android.appwidget.AppWidgetManager;
-import android.content.ComponentName;
+import android.app.LoaderManager;
+import android.content.AsyncTaskLoader;
+import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.Context;
+import android.content.Loader;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.text.Editable;
+import android.text.TextUtils;
+import android.text.TextWatcher;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -15,12 +25,46 @@ import android.widget.Button;
 import android.widget.EditText;
 import android.widget.Toast;
 
-import com.example.android.honeypad.widget.WidgetProvider;
+public class NoteEditFragment extends Fragment implements
+		LoaderManager.LoaderCallbacks<NoteCache.Note> {
 
-public class NoteEditFragment extends Fragment {
+	// the id of our loader
+	private static final int LOADER_ID = 0;
 
 	private EditText mTitleText;
 	private EditText mBodyText;
+	private Button mConfirmButton;
+	private Button mPreviousButton;
+	private Button mNextButton;
+
+	// set while the current note is being loaded in the background
+	private boolean mLoading;
+
+	// autosave waits for typing to pause for AUTOSAVE_DELAY, but never holds
+	// on to an edit for longer than AUTOSAVE_MAX_DELAY
+	private static final long AUTOSAVE_DELAY = 2000;
+	private static final long AUTOSAVE_MAX_DELAY = 10000;
+
+	private final Handler mHandler = new Handler();
+
+	// the note as last loaded or saved, & whether it has been edited since.
+	// mEdits counts the edits, so a save only marks the note clean if
+	// nothing was typed while it was being written.
+	private SavedNote mSaved = new SavedNote(null, "", "");
+	private boolean mDirty;
+	private long mDirtySince;
+	private int mEdits;
+
+	// set while we fill in the fields ourselves
+	private boolean mPopulating;
+
+	// bodies longer than LARGE_NOTE_CHARS are edited in a PieceTable, with
+	// only a section of up to SECTION_CHARS starting at mSectionStart shown
+	// in the body field at a time
+	private static final int LARGE_NOTE_CHARS = 256 * 1024;
+	private static final int SECTION_CHARS = 16 * 1024;
+	private PieceTable mLargeBody;
+	private int mSectionStart;
 
 	// expose the currently displayed note
 	protected Uri mCurrentNote;
@@ -37,12 +81,27 @@ public class NoteEditFragment extends Fragment {
 
 		mTitleText = (EditText) v.findViewById(R.id.title);
 		mBodyText = (EditText) v.findViewById(R.id.body);
-		Button confirmButton = (Button) v.findViewById(R.id.confirm);
-		confirmButton.setOnClickListener(new View.OnClickListener() {
+		mConfirmButton = (Button) v.findViewById(R.id.confirm);
+		mConfirmButton.setOnClickListener(new View.OnClickListener() {
 			public void onClick(View view) {
-				saveNote();
+				saveNote(true);
 			}
 		});
+		mPreviousButton = (Button) v.findViewById(R.id.previous_section);
+		mPreviousButton.setOnClickListener(new View.OnClickListener() {
+			public void onClick(View view) {
+				showSection(mSectionStart - SECTION_CHARS);
+			}
+		});
+		mNextButton = (Button) v.findViewById(R.id.next_section);
+		mNextButton.setOnClickListener(new View.OnClickListener() {
+			public void onClick(View view) {
+				showSection(mSectionStart + mBodyText.length());
+			}
+		});
+		mTitleText.addTextChangedListener(mDirtyWatcher);
+		mBodyText.addTextChangedListener(mDirtyWatcher);
+		mBodyText.addTextChangedListener(mLargeBodyWatcher);
 
 		if (savedInstanceState != null
 				&& savedInstanceState.containsKey(NotesProvider.KEY_ID)) {
@@ -61,6 +120,7 @@ public class NoteEditFragment extends Fragment {
 	 *            The Uri of the note to display
 	 */
 	protected void loadNote(Uri noteUri) {
+		flushAutosave();
 		mCurrentNote = noteUri;
 		if (isAdded()) {
 			populateFields();
@@ -71,33 +131,135 @@ public class NoteEditFragment extends Fragment {
 	 * Clear all fields on this fragment.
 	 */
 	protected void clear() {
+		flushAutosave();
+		mPopulating = true;
 		mTitleText.setText(null);
 		mBodyText.setText(null);
+		mPopulating = false;
 		mCurrentNote = null;
+		setLargeBody(null);
+		setSaved("", "");
+		setLoading(false);
 	}
 
 	/**
-	 * Helper method which retrieves & displays the content of the current note.
+	 * Helper method which retrieves & displays the content of the current
+	 * note. Recently opened notes are shown straight from the
+	 * {@link NoteCache}, anything else is loaded in the background.
 	 */
 	private void populateFields() {
 		if (mCurrentNote != null) {
+			NoteCache.Note note = NoteCache.get(ContentUris
+					.parseId(mCurrentNote));
+			if (note != null) {
+				setLoading(false);
+				showNote(note);
+			} else {
+				// don't allow saving until the note has arrived, the fields
+				// still hold the previous note
+				setLoading(true);
+				getLoaderManager().restartLoader(LOADER_ID, null, this);
+			}
+		}
+	}
 
-			Cursor c = null;
-			try {
-				c = getActivity().getContentResolver().query(mCurrentNote,
-						null, null, null, null);
-				if (c.moveToFirst()) {
-					mTitleText.setText(c.getString(NotesProvider.TITLE_COLUMN));
-					mBodyText.setText(c.getString(NotesProvider.BODY_COLUMN));
-				}
-			} finally {
-				if (c != null) {
-					c.close();
+	private void showNote(NoteCache.Note note) {
+		setLargeBody(null);
+		mPopulating = true;
+		mTitleText.setText(note.title);
+		mBodyText.setText(note.body);
+		mPopulating = false;
+		setSaved(note.title, note.body);
+	}
+
+	/**
+	 * Shows a note whose body is too large to edit all at once, starting with
+	 * the first section of the body.
+	 */
+	private void showLargeNote(NoteCache.Note note, PieceTable body) {
+		setLargeBody(body);
+		mPopulating = true;
+		mTitleText.setText(note.title);
+		mPopulating = false;
+		showSection(0);
+		setSaved(note.title, null);
+	}
+
+	private void setLargeBody(PieceTable body) {
+		mLargeBody = body;
+		final int visibility = body != null ? View.VISIBLE : View.GONE;
+		mPreviousButton.setVisibility(visibility);
+		mNextButton.setVisibility(visibility);
+	}
+
+	/**
+	 * Shows the section of a large note's body starting at the given char.
+	 */
+	private void showSection(int start) {
+		final int length = mLargeBody.length();
+		start = Math.max(0, Math.min(start, length));
+		int end = Math.min(start + SECTION_CHARS, length);
+		// don't split surrogate pairs between sections
+		if (start > 0 && start < length
+				&& Character.isLowSurrogate(mLargeBody.charAt(start))) {
+			start--;
+		}
+		if (end < length && Character.isLowSurrogate(mLargeBody.charAt(end))) {
+			end++;
+		}
+		mSectionStart = start;
+		mPopulating = true;
+		mBodyText.setText(mLargeBody.subSequence(start, end));
+		mPopulating = false;
+		mPreviousButton.setEnabled(start > 0);
+		mNextButton.setEnabled(end < length);
+	}
+
+	/**
+	 * Records the text the current note holds in the database, which is then
+	 * what the fields are compared against before saving.
+	 */
+	private void setSaved(String title, String body) {
+		mSaved = new SavedNote(mCurrentNote, title, body);
+		mDirty = false;
+		mHandler.removeCallbacks(mAutosave);
+	}
+
+	private void setLoading(boolean loading) {
+		mLoading = loading;
+		mConfirmButton.setEnabled(!loading);
+	}
+
+	public Loader<NoteCache.Note> onCreateLoader(int id, Bundle args) {
+		return new NoteLoader(getActivity(), mCurrentNote);
+	}
+
+	public void onLoadFinished(Loader<NoteCache.Note> loader,
+			NoteCache.Note note) {
+		// ignore notes that have since been navigated away from
+		if (mLoading && mCurrentNote != null
+				&& mCurrentNote.equals(((NoteLoader) loader).mNoteUri)) {
+			if (note != null) {
+				PieceTable largeBody = ((NoteLoader) loader).mLargeBody;
+				if (largeBody != null) {
+					showLargeNote(note, largeBody);
+				} else {
+					showNote(note);
 				}
 			}
+			setLoading(false);
 		}
 	}
 
+	public void onLoaderReset(Loader<NoteCache.Note> loader) {
+	}
+
+	@Override
+	public void onPause() {
+		super.onPause();
+		flushAutosave();
+	}
+
 	@Override
 	public void onSaveInstanceState(Bundle outState) {
 		super.onSaveInstanceState(outState);
@@ -106,37 +268,325 @@ public class NoteEditFragment extends Fragment {
 		}
 	}
 
+	/**
+	 * Marks the note as dirty when the user edits it & schedules an autosave.
+	 */
+	private final TextWatcher mDirtyWatcher = new TextWatcher() {
+
+		public void beforeTextChanged(CharSequence s, int start, int count,
+				int after) {
+		}
+
+		public void onTextChanged(CharSequence s, int start, int before,
+				int count) {
+		}
+
+		public void afterTextChanged(Editable s) {
+			if (mPopulating || mLoading) {
+				return;
+			}
+			final long now = SystemClock.uptimeMillis();
+			mEdits++;
+			if (!mDirty) {
+				mDirty = true;
+				mDirtySince = now;
+			}
+			// wait for a pause in typing, up to the longest we'll hold an
+			// edit for
+			mHandler.removeCallbacks(mAutosave);
+			mHandler.postAtTime(mAutosave, Math.min(now + AUTOSAVE_DELAY,
+					mDirtySince + AUTOSAVE_MAX_DELAY));
+		}
+	};
+
+	/**
+	 * Copies edits made to the section of a large note that's showing into
+	 * the note's PieceTable.
+	 */
+	private final TextWatcher mLargeBodyWatcher = new TextWatcher() {
+
+		public void beforeTextChanged(CharSequence s, int start, int count,
+				int after) {
+		}
+
+		public void onTextChanged(CharSequence s, int start, int before,
+				int count) {
+			if (mLargeBody != null && !mPopulating && !mLoading) {
+				mLargeBody.replace(mSectionStart + start, mSectionStart + start
+						+ before, s.subSequence(start, start + count));
+			}
+		}
+
+		public void afterTextChanged(Editable s) {
+		}
+	};
+
+	private final Runnable mAutosave = new Runnable() {
+		public void run() {
+			if (isAdded()) {
+				saveNote(false);
+			}
+		}
+	};
+
+	/**
+	 * Saves any edits straight away rather than waiting for the autosave.
+	 */
+	private void flushAutosave() {
+		if (mDirty && mTitleText != null && !mLoading) {
+			saveNote(false);
+		}
+	}
+
 	/**
 	 * Persists the details of the current note. This will either create a new
-	 * note, or update an existing note.
+	 * note, or update an existing note. The fields are read here, & compared
+	 * with what was last saved & written by a {@link SaveTask} in the
+	 * background. For a large note only the edited ranges of the body are
+	 * written.
+	 * 
+	 * @param confirm
+	 *            {@code true} if the user asked to save & should see a
+	 *            confirmation, {@code false} for an autosave
+	 */
+	private void saveNote(boolean confirm) {
+		mHandler.removeCallbacks(mAutosave);
+		SaveTask save = new SaveTask(getActivity(), mSaved, mEdits, confirm);
+		if (mDirty || mCurrentNote == null) {
+			save.mTitle = mTitleText.getText().toString();
+			if (mLargeBody != null) {
+				save.mBodyEdits = bodyEdits();
+			} else {
+				save.mBody = mBodyText.getText().toString();
+			}
+		}
+		save.execute();
+	}
+
+	/**
+	 * @return the edits made to a large note's body since it was last saved,
+	 *         as ranges for {@link NotesProvider#METHOD_EDIT_BODY}, or null
+	 *         if there are none
+	 */
+	private Bundle bodyEdits() {
+		final int count = mLargeBody.editCount();
+		if (count == 0) {
+			return null;
+		}
+		int[] starts = new int[count];
+		int[] lengths = new int[count];
+		String[] texts = new String[count];
+		for (int i = 0; i < count; i++) {
+			starts[i] = mLargeBody.editStart(i);
+			lengths[i] = mLargeBody.editDeleted(i);
+			texts[i] = mLargeBody.editText(i);
+		}
+		mLargeBody.clearEdits();
+		Bundle extras = new Bundle(4);
+		extras.putIntArray(NotesProvider.EXTRA_EDIT_STARTS, starts);
+		extras.putIntArray(NotesProvider.EXTRA_EDIT_LENGTHS, lengths);
+		extras.putStringArray(NotesProvider.EXTRA_EDIT_TEXTS, texts);
+		return extras;
+	}
+
+	/**
+	 * What the database holds for the note being edited, which saves compare
+	 * the fields against. Once the note is showing only saves touch it, one
+	 * at a time in the background, so a save queued behind the one inserting
+	 * a new note updates that note rather than inserting another.
+	 */
+	private static final class SavedNote {
+		volatile Uri uri;
+		volatile String title;
+		// null for a large note, whose body is saved as edits
+		volatile String body;
+
+		SavedNote(Uri uri, String title, String body) {
+			this.uri = uri;
+			this.title = title;
+			this.body = body;
+		}
+	}
+
+	/**
+	 * Writes the fields of a note that differ from what was last saved, &
+	 * nothing at all when the note hasn't changed. Saves run one at a time,
+	 * in the order they're made, on AsyncTask's serial executor.
 	 */
-	private void saveNote() {
-		ContentValues values = new ContentValues(2);
-		values.put(NotesProvider.KEY_TITLE, mTitleText.getText().toString());
-		values.put(NotesProvider.KEY_BODY, mBodyText.getText().toString());
-		final boolean updating = mCurrentNote != null;
-		if (updating) {
-			getActivity().getContentResolver().update(mCurrentNote, values,
-					null, null);
-		} else {
-			Uri newNote = getActivity().getContentResolver().insert(
-					NotesProvider.CONTENT_URI, values);
-
-			if (newNote != null) {
-				mCurrentNote = newNote;
-			}
-		}
-
-		// show a toast confirmation
-		Toast.makeText(getActivity(),
-				updating ? R.string.note_updated : R.string.note_saved,
-				Toast.LENGTH_SHORT).show();
-
-		// update widget
-		AppWidgetManager awm = AppWidgetManager.getInstance(getActivity());
-		awm.notifyAppWidgetViewDataChanged(awm
-				.getAppWidgetIds(new ComponentName(getActivity(),
-						WidgetProvider.class)), R.id.stack_view);
+	private class SaveTask extends AsyncTask<Void, Void, Boolean> {
+
+		private final Context mContext;
+		private final SavedNote mNote;
+		private final int mEditsSaved;
+		private final boolean mConfirm;
+
+		// the fields as they were when the save was made, null if unedited
+		String mTitle;
+		String mBody;
+		Bundle mBodyEdits;
+
+		SaveTask(Context context, SavedNote note, int edits, boolean confirm) {
+			mContext = context.getApplicationContext();
+			mNote = note;
+			mEditsSaved = edits;
+			mConfirm = confirm;
+		}
+
+		@Override
+		protected Boolean doInBackground(Void... params) {
+			final boolean updating = mNote.uri != null;
+			ContentValues values = new ContentValues(2);
+			if (mTitle != null && (!updating || !mTitle.equals(mNote.title))) {
+				values.put(NotesProvider.KEY_TITLE, mTitle);
+			}
+			if (mBody != null && (!updating || !mBody.equals(mNote.body))) {
+				values.put(NotesProvider.KEY_BODY, mBody);
+			}
+			if (!updating && !mConfirm && TextUtils.isEmpty(mTitle)
+					&& TextUtils.isEmpty(mBody)) {
+				// don't autosave a blank new note
+				values.clear();
+			}
+
+			ContentResolver resolver = mContext.getContentResolver();
+			if (mBodyEdits != null && updating) {
+				mBodyEdits.putLong(NotesProvider.EXTRA_NOTE_ID, ContentUris
+						.parseId(mNote.uri));
+				resolver.call(NotesProvider.CONTENT_URI,
+						NotesProvider.METHOD_EDIT_BODY, null, mBodyEdits);
+			}
+			if (values.size() > 0) {
+				if (updating) {
+					resolver.update(mNote.uri, values, null, null);
+				} else {
+					mNote.uri = resolver.insert(NotesProvider.CONTENT_URI,
+							values);
+				}
+				if (values.containsKey(NotesProvider.KEY_TITLE)) {
+					mNote.title = mTitle;
+				}
+				if (values.containsKey(NotesProvider.KEY_BODY)) {
+					mNote.body = mBody;
+				}
+
+				// keep what we just saved handy for the next time it's
+				// opened, the save having already dropped what was cached
+				if (mNote.uri != null && mNote.body != null) {
+					NoteCache.put(new NoteCache.Note(ContentUris
+							.parseId(mNote.uri), mNote.title, mNote.body),
+							NoteCache.version());
+				}
+			}
+			return updating;
+		}
+
+		@Override
+		protected void onPostExecute(Boolean updating) {
+			// unless the note has since been navigated away from
+			if (mNote == mSaved) {
+				if (mCurrentNote == null) {
+					mCurrentNote = mNote.uri;
+				}
+				if (mEdits == mEditsSaved) {
+					mDirty = false;
+				}
+			}
+
+			if (mConfirm) {
+				// show a toast confirmation
+				Toast.makeText(mContext,
+						updating ? R.string.note_updated : R.string.note_saved,
+						Toast.LENGTH_SHORT).show();
+			}
+		}
+	}
+
+	/**
+	 * Loads a single note off the UI thread, adding it to the
+	 * {@link NoteCache} on the way. The body is read in one go outside of
+	 * the query, as large bodies won't fit in a cursor window, and large
+	 * bodies are returned in a {@link PieceTable} rather than cached.
+	 */
+	private static class NoteLoader extends AsyncTaskLoader<NoteCache.Note> {
+
+		private static final String[] PROJECTION = new String[] {
+				NotesProvider.KEY_ID, NotesProvider.KEY_TITLE };
+
+		final Uri mNoteUri;
+		private NoteCache.Note mNote;
+		PieceTable mLargeBody;
+
+		public NoteLoader(Context context, Uri noteUri) {
+			super(context);
+			mNoteUri = noteUri;
+		}
+
+		@Override
+		public NoteCache.Note loadInBackground() {
+			final long version = NoteCache.version();
+			final long id;
+			final String title;
+			Cursor c = null;
+			try {
+				c = getContext().getContentResolver().query(mNoteUri,
+						PROJECTION, null, null, null);
+				if (c == null || !c.moveToFirst()) {
+					return null;
+				}
+				id = c.getLong(NotesProvider.ID_COLUMN);
+				title = c.getString(NotesProvider.TITLE_COLUMN);
+			} finally {
+				if (c != null) {
+					c.close();
+				}
+			}
+
+			Bundle extras = new Bundle(1);
+			extras.putLong(NotesProvider.EXTRA_NOTE_ID, id);
+			Bundle result = getContext().getContentResolver().call(
+					NotesProvider.CONTENT_URI, NotesProvider.METHOD_READ_BODY,
+					null, extras);
+			String body = result.getString(NotesProvider.EXTRA_BODY);
+			if (body == null) {
+				return null;
+			}
+			if (body.length() > LARGE_NOTE_CHARS) {
+				mLargeBody = new PieceTable(body);
+				return new NoteCache.Note(id, title, null);
+			}
+			NoteCache.Note note = new NoteCache.Note(id, title, body);
+			NoteCache.put(note, version);
+			return note;
+		}
+
+		@Override
+		public void deliverResult(NoteCache.Note note) {
+			mNote = note;
+			if (isStarted()) {
+				super.deliverResult(note);
+			}
+		}
+
+		@Override
+		protected void onStartLoading() {
+			if (mNote != null) {
+				deliverResult(mNote);
+			} else {
+				forceLoad();
+			}
+		}
+
+		@Override
+		protected void onStopLoading() {
+			cancelLoad();
+		}
+
+		@Override
+		protected void onReset() {
+			onStopLoading();
+			mNote = null;
+			mLargeBody = null;
+		}
 	}
 
 }
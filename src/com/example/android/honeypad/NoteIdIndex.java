@@ -0,0 +1,102 @@
+package com.example.android.honeypad;
+
+import java.util.Arrays;
+
+/**
+ * Maps note ids to positions without boxing either, using open addressing
+ * with linear probing.
+ */
+final class NoteIdIndex {
+
+	// marks an unused slot, positions are never negative
+	private static final int EMPTY = -1;
+
+	private long[] mKeys;
+	private int[] mValues;
+	private int mSize;
+
+	NoteIdIndex(int capacity) {
+		int length = 16;
+		while (length < capacity * 2) {
+			length <<= 1;
+		}
+		allocate(length);
+	}
+
+	/**
+	 * @return the position of the given id, or -1 if it isn't indexed
+	 */
+	int get(long id) {
+		final int mask = mKeys.length - 1;
+		for (int i = slot(id, mask);; i = (i + 1) & mask) {
+			if (mValues[i] == EMPTY) {
+				return -1;
+			} else if (mKeys[i] == id) {
+				return mValues[i];
+			}
+		}
+	}
+
+	void put(long id, int position) {
+		if ((mSize + 1) * 4 > mKeys.length * 3) {
+			resize(mKeys.length * 2);
+		}
+		final int mask = mKeys.length - 1;
+		int i = slot(id, mask);
+		while (mValues[i] != EMPTY && mKeys[i] != id) {
+			i = (i + 1) & mask;
+		}
+		if (mValues[i] == EMPTY) {
+			mSize++;
+		}
+		mKeys[i] = id;
+		mValues[i] = position;
+	}
+
+	void remove(long id) {
+		final int mask = mKeys.length - 1;
+		int i = slot(id, mask);
+		while (mKeys[i] != id || mValues[i] == EMPTY) {
+			if (mValues[i] == EMPTY) {
+				return;
+			}
+			i = (i + 1) & mask;
+		}
+		mSize--;
+
+		// shift back any following entries that would no longer be found
+		for (int j = (i + 1) & mask; mValues[j] != EMPTY; j = (j + 1) & mask) {
+			final int home = slot(mKeys[j], mask);
+			if (i <= j ? (i < home && home <= j) : (i < home || home <= j)) {
+				continue;
+			}
+			mKeys[i] = mKeys[j];
+			mValues[i] = mValues[j];
+			i = j;
+		}
+		mValues[i] = EMPTY;
+	}
+
+	private static int slot(long id, int mask) {
+		final long hash = id * 0x9E3779B97F4A7C15L;
+		return (int) (hash ^ (hash >>> 32)) & mask;
+	}
+
+	private void allocate(int length) {
+		mKeys = new long[length];
+		mValues = new int[length];
+		Arrays.fill(mValues, EMPTY);
+		mSize = 0;
+	}
+
+	private void resize(int length) {
+		final long[] keys = mKeys;
+		final int[] values = mValues;
+		allocate(length);
+		for (int i = 0; i < keys.length; i++) {
+			if (values[i] != EMPTY) {
+				put(keys[i], values[i]);
+			}
+		}
+	}
+}
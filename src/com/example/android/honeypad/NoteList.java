@@ -0,0 +1,481 @@
+package com.example.android.honeypad;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * The ids, titles, previews & sort keys of the notes loaded into the list, in
+ * the provider's {@link NotesProvider#DEFAULT_SORT_ORDER}. These are a window onto the whole
+ * list, starting {@link #offset} notes in, so the list can be scrolled
+ * anywhere & only the notes around there loaded. Changes reported by the
+ * provider are applied to it note by note rather than reloading the whole
+ * list, and any loaded note's position can be found without scanning it.
+ * Titles & previews are kept as ranges of one char array rather than as
+ * strings, so they can be shown without making any objects. It uses no
+ * Android classes, so the benchmarks under benchmarks/ run it too.
+ */
+final class NoteList {
+
+	// chars first allowed for each note's title & preview
+	private static final int CHARS_PER_NOTE = 48;
+
+	// the last provider change reflected in this list
+	long changeSeq;
+
+	// the position in the whole list of the first note loaded, & set if
+	// the notes through to the end of the list are loaded
+	int offset;
+	boolean complete;
+
+	// the filter the notes are narrowed by, if any
+	String filter;
+
+	// the locale the provider's sort keys & sections were made for
+	Locale locale = Locale.getDefault();
+
+	// the labels of the sections of the list for fast scrolling, & the
+	// position each starts at, counting notes not loaded yet
+	String[] sections = new String[0];
+	int[] sectionStarts = new int[0];
+
+	// the last provider change the sections include, or -1 if not known,
+	// & the first character of one of the titles in each section & its
+	// number of notes, which changes are counted into & out of
+	long sectionsSeq = -1;
+	private String[] mSectionInitials = new String[0];
+	private int[] mSectionCounts = new int[0];
+	private NoteSections mSectionOrder;
+
+	private long[] mIds;
+	private int mSize;
+
+	// each note's sort key as the provider stored it, null for a note with
+	// none yet, which sorts first. Changed notes are placed by these, so
+	// they go where the provider's pages will find them.
+	private byte[][] mKeys;
+
+	// each note's title followed by its preview, packed one after another
+	// into mChars. Chars are only ever appended, those of removed notes are
+	// left until the notes are compacted into a new array, so a row still
+	// showing chars from an earlier array or a removed note isn't disturbed.
+	private char[] mChars;
+	private int mCharsUsed;
+	private int mCharsRemoved;
+	private int[] mStarts;
+	private int[] mTitleEnds;
+	private int[] mEnds;
+
+	// where each id is, this holds every loaded id but the positions from
+	// mIndexedUpTo onwards may have shifted since they were indexed
+	private final NoteIdIndex mIndex;
+	private int mIndexedUpTo;
+
+	NoteList(int capacity) {
+		mIds = new long[Math.max(capacity, 16)];
+		mKeys = new byte[mIds.length][];
+		mStarts = new int[mIds.length];
+		mTitleEnds = new int[mIds.length];
+		mEnds = new int[mIds.length];
+		mChars = new char[mIds.length * CHARS_PER_NOTE];
+		mIndex = new NoteIdIndex(mIds.length);
+	}
+
+	int size() {
+		return mSize;
+	}
+
+	long idAt(int position) {
+		return mIds[position];
+	}
+
+	/**
+	 * @return the note's sort key, or null if it has none yet
+	 */
+	byte[] keyAt(int position) {
+		return mKeys[position];
+	}
+
+	/**
+	 * @return the note's title, as a new string
+	 */
+	String titleAt(int position) {
+		return new String(mChars, mStarts[position], mTitleEnds[position]
+				- mStarts[position]);
+	}
+
+	/**
+	 * @return the preview of the note's body as a new string, or null if it
+	 *         has none yet
+	 */
+	String previewAt(int position) {
+		return mEnds[position] > mTitleEnds[position] ? new String(mChars,
+				mTitleEnds[position], mEnds[position] - mTitleEnds[position])
+				: null;
+	}
+
+	/**
+	 * @return the chars the titles & previews are packed into, which are
+	 *         replaced as the list grows
+	 */
+	char[] chars() {
+		return mChars;
+	}
+
+	int titleStart(int position) {
+		return mStarts[position];
+	}
+
+	int titleLength(int position) {
+		return mTitleEnds[position] - mStarts[position];
+	}
+
+	int previewStart(int position) {
+		return mTitleEnds[position];
+	}
+
+	/**
+	 * @return the length of the note's preview, 0 if it has none yet
+	 */
+	int previewLength(int position) {
+		return mEnds[position] - mTitleEnds[position];
+	}
+
+	/**
+	 * @return the position of the note with the given id, or -1 if it isn't
+	 *         loaded
+	 */
+	int indexOfId(long id) {
+		final int position = mIndex.get(id);
+		// a note put in front of another takes its position, so the index
+		// may still hold that position for the other note too
+		if (position < 0 || position < mIndexedUpTo && mIds[position] == id) {
+			return position;
+		}
+		// the note may have shifted, re-index everything past the notes known
+		// to be in place
+		for (int i = mIndexedUpTo; i < mSize; i++) {
+			mIndex.put(mIds[i], i);
+		}
+		mIndexedUpTo = mSize;
+		return mIndex.get(id);
+	}
+
+	/**
+	 * Adds a note to the end of the list, for notes that are known to sort
+	 * after everything loaded so far. The title & preview are copied out of
+	 * the arrays, so they can be reused for the next note read.
+	 */
+	void add(long id, byte[] key, char[] title, int titleLength,
+			char[] preview, int previewLength) {
+		add(id, key, title, 0, titleLength, preview, 0, previewLength);
+	}
+
+	/**
+	 * Adds every note of a page following on from this list to its end.
+	 */
+	void addAll(NoteList page) {
+		for (int i = 0; i < page.mSize; i++) {
+			add(page.mIds[i], page.mKeys[i], page.mChars, page.mStarts[i],
+					page.titleLength(i), page.mChars, page.mTitleEnds[i],
+					page.previewLength(i));
+		}
+	}
+
+	private void add(long id, byte[] key, char[] title, int titleStart,
+			int titleLength, char[] preview, int previewStart,
+			int previewLength) {
+		ensureCapacity(mSize + 1);
+		reserveChars(titleLength + previewLength);
+		final int start = mCharsUsed;
+		System.arraycopy(title, titleStart, mChars, start, titleLength);
+		System.arraycopy(preview, previewStart, mChars, start + titleLength,
+				previewLength);
+		mCharsUsed += titleLength + previewLength;
+		mIds[mSize] = id;
+		mKeys[mSize] = key;
+		mStarts[mSize] = start;
+		mTitleEnds[mSize] = start + titleLength;
+		mEnds[mSize] = mCharsUsed;
+		mIndex.put(id, mSize);
+		if (mIndexedUpTo == mSize) {
+			mIndexedUpTo++;
+		}
+		mSize++;
+	}
+
+	void remove(int position) {
+		mIndex.remove(mIds[position]);
+		mIndexedUpTo = Math.min(mIndexedUpTo, position);
+		mCharsRemoved += mEnds[position] - mStarts[position];
+		final int moved = mSize - position - 1;
+		System.arraycopy(mIds, position + 1, mIds, position, moved);
+		System.arraycopy(mKeys, position + 1, mKeys, position, moved);
+		System.arraycopy(mStarts, position + 1, mStarts, position, moved);
+		System.arraycopy(mTitleEnds, position + 1, mTitleEnds, position, moved);
+		System.arraycopy(mEnds, position + 1, mEnds, position, moved);
+		mKeys[--mSize] = null;
+	}
+
+	/**
+	 * Removes the loaded notes from {@code start} up to {@code end}, to keep
+	 * to a window around where the list is scrolled.
+	 */
+	void remove(int start, int end) {
+		for (int i = start; i < end; i++) {
+			mIndex.remove(mIds[i]);
+			mCharsRemoved += mEnds[i] - mStarts[i];
+		}
+		mIndexedUpTo = Math.min(mIndexedUpTo, start);
+		final int moved = mSize - end;
+		System.arraycopy(mIds, end, mIds, start, moved);
+		System.arraycopy(mKeys, end, mKeys, start, moved);
+		System.arraycopy(mStarts, end, mStarts, start, moved);
+		System.arraycopy(mTitleEnds, end, mTitleEnds, start, moved);
+		System.arraycopy(mEnds, end, mEnds, start, moved);
+		Arrays.fill(mKeys, mSize - (end - start), mSize, null);
+		mSize -= end - start;
+	}
+
+	/**
+	 * Adds every note of a page read back from the first loaded note, in
+	 * reverse order, to the start of the list.
+	 */
+	void addAllBefore(NoteList page) {
+		for (int i = 0; i < page.mSize; i++) {
+			insert(0, page.mIds[i], page.mKeys[i], page.mChars,
+					page.mStarts[i], page.titleLength(i), page.mChars,
+					page.mTitleEnds[i], page.previewLength(i));
+		}
+		offset -= page.mSize;
+	}
+
+	/**
+	 * Adds or moves a note, as read again into another list, to where it
+	 * sorts. A note sorting outside the notes loaded is left for a page to
+	 * bring in, unless the list reaches that end of the whole list. The
+	 * first & last notes loaded stay where they are if they still sort
+	 * there.
+	 *
+	 * @return {@code true} if the note is now in the list
+	 */
+	boolean put(NoteList notes, int from) {
+		final long id = notes.mIds[from];
+		final int existing = indexOfId(id);
+		if (existing >= 0) {
+			remove(existing);
+		}
+		final int position = insertionPoint(id, notes.mKeys[from], mSize);
+		if (position == mSize && !complete && existing != mSize
+				|| position == 0 && offset > 0 && existing != 0) {
+			return false;
+		}
+		insert(position, id, notes.mKeys[from], notes.mChars,
+				notes.mStarts[from], notes.titleLength(from), notes.mChars,
+				notes.mTitleEnds[from], notes.previewLength(from));
+		return true;
+	}
+
+	private void insert(int position, long id, byte[] key, char[] title,
+			int titleStart, int titleLength, char[] preview,
+			int previewStart, int previewLength) {
+		ensureCapacity(mSize + 1);
+		// before shifting, compacting goes by the notes' positions
+		reserveChars(titleLength + previewLength);
+		final int moved = mSize - position;
+		System.arraycopy(mIds, position, mIds, position + 1, moved);
+		System.arraycopy(mKeys, position, mKeys, position + 1, moved);
+		System.arraycopy(mStarts, position, mStarts, position + 1, moved);
+		System.arraycopy(mTitleEnds, position, mTitleEnds, position + 1, moved);
+		System.arraycopy(mEnds, position, mEnds, position + 1, moved);
+		final int start = mCharsUsed;
+		System.arraycopy(title, titleStart, mChars, start, titleLength);
+		System.arraycopy(preview, previewStart, mChars, start + titleLength,
+				previewLength);
+		mCharsUsed += titleLength + previewLength;
+		mIds[position] = id;
+		mKeys[position] = key;
+		mStarts[position] = start;
+		mTitleEnds[position] = start + titleLength;
+		mEnds[position] = mCharsUsed;
+		mIndex.put(id, position);
+		mIndexedUpTo = Math.min(mIndexedUpTo, position + 1);
+		mSize++;
+	}
+
+	/**
+	 * @return true if a note with the given sort key sorts before the first
+	 *         note loaded
+	 */
+	boolean sortsBeforeFirst(long id, byte[] key) {
+		return mSize > 0 && insertionPoint(id, key, 1) == 0;
+	}
+
+	/**
+	 * @return where a note sorts among the first {@code end} notes loaded
+	 */
+	private int insertionPoint(long id, byte[] key, int end) {
+		int low = 0;
+		int high = end;
+		while (low < high) {
+			final int mid = (low + high) >>> 1;
+			int cmp = compareKeys(mKeys[mid], key);
+			if (cmp == 0) {
+				cmp = mIds[mid] < id ? -1 : 1;
+			}
+			if (cmp < 0) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Compares sort keys as SQLite compares blobs, byte by byte unsigned &
+	 * then by length, with no key before any key.
+	 */
+	static int compareKeys(byte[] a, byte[] b) {
+		if (a == null || b == null) {
+			return a == b ? 0 : a == null ? -1 : 1;
+		}
+		final int length = Math.min(a.length, b.length);
+		for (int i = 0; i < length; i++) {
+			final int cmp = (a[i] & 0xff) - (b[i] & 0xff);
+			if (cmp != 0) {
+				return cmp;
+			}
+		}
+		return a.length - b.length;
+	}
+
+	/**
+	 * Sets the sections of the list from the number of notes in each.
+	 */
+	void setSections(String[] labels, String[] initials, int[] counts) {
+		sections = labels;
+		mSectionInitials = initials;
+		mSectionCounts = counts;
+		sectionStarts = startsOf(counts);
+	}
+
+	/**
+	 * Counts a note into or out of the section its title falls in, adding
+	 * the section for its first note & dropping it with its last.
+	 */
+	void countInSection(String title, int delta) {
+		if (mSectionOrder == null) {
+			mSectionOrder = new NoteSections(locale);
+		}
+		final String initial = mSectionOrder.initialOf(title);
+		final int found = mSectionOrder.indexOf(mSectionInitials, initial);
+		if (found >= 0 && mSectionCounts[found] + delta > 0) {
+			mSectionCounts[found] += delta;
+		} else if (found >= 0) {
+			spliceSection(found, 1, null, 0);
+		} else if (delta > 0) {
+			spliceSection(-found - 1, 0, initial, delta);
+		}
+		sectionStarts = startsOf(mSectionCounts);
+	}
+
+	/**
+	 * Removes a section, or adds one with the given initial & count, into
+	 * new arrays so the old labels can be told apart.
+	 */
+	private void spliceSection(int index, int removed, String initial,
+			int count) {
+		final int length = sections.length - removed + (initial != null ? 1 : 0);
+		final int tail = sections.length - index - removed;
+		final int to = index + (initial != null ? 1 : 0);
+		String[] labels = new String[length];
+		String[] initials = new String[length];
+		int[] counts = new int[length];
+		System.arraycopy(sections, 0, labels, 0, index);
+		System.arraycopy(mSectionInitials, 0, initials, 0, index);
+		System.arraycopy(mSectionCounts, 0, counts, 0, index);
+		System.arraycopy(sections, index + removed, labels, to, tail);
+		System.arraycopy(mSectionInitials, index + removed, initials, to, tail);
+		System.arraycopy(mSectionCounts, index + removed, counts, to, tail);
+		if (initial != null) {
+			labels[index] = mSectionOrder.labelOf(initial);
+			initials[index] = initial;
+			counts[index] = count;
+		}
+		sections = labels;
+		mSectionInitials = initials;
+		mSectionCounts = counts;
+	}
+
+	private static int[] startsOf(int[] counts) {
+		int[] starts = new int[counts.length];
+		int start = 0;
+		for (int i = 0; i < counts.length; i++) {
+			starts[i] = start;
+			start += counts[i];
+		}
+		return starts;
+	}
+
+	/**
+	 * @return the number of notes in the whole list, as far as is known
+	 */
+	int count() {
+		final int last = mSectionCounts.length - 1;
+		return Math.max(last >= 0 ? sectionStarts[last] + mSectionCounts[last]
+				: 0, offset + mSize);
+	}
+
+	/**
+	 * @return a title that none of a section's notes sort before, to page
+	 *         through the section from
+	 */
+	String sectionInitial(int section) {
+		return mSectionInitials[section];
+	}
+
+	/**
+	 * @return the section holding a position, which may be outside the
+	 *         notes loaded
+	 */
+	int sectionAt(int position) {
+		final int found = Arrays.binarySearch(sectionStarts, position);
+		// a position between starts is in the section starting before it
+		return Math.max(found >= 0 ? found : -found - 2, 0);
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (capacity > mIds.length) {
+			final int length = Math.max(capacity, mIds.length * 2);
+			mIds = Arrays.copyOf(mIds, length);
+			mKeys = Arrays.copyOf(mKeys, length);
+			mStarts = Arrays.copyOf(mStarts, length);
+			mTitleEnds = Arrays.copyOf(mTitleEnds, length);
+			mEnds = Arrays.copyOf(mEnds, length);
+		}
+	}
+
+	/**
+	 * Makes room for more chars past those used, in a new array holding just
+	 * the chars of the notes still in the list.
+	 */
+	private void reserveChars(int count) {
+		if (mCharsUsed + count <= mChars.length) {
+			return;
+		}
+		final int needed = mCharsUsed - mCharsRemoved + count;
+		char[] chars = new char[Math.max(needed * 2, mChars.length)];
+		int used = 0;
+		for (int i = 0; i < mSize; i++) {
+			final int length = mEnds[i] - mStarts[i];
+			System.arraycopy(mChars, mStarts[i], chars, used, length);
+			mTitleEnds[i] += used - mStarts[i];
+			mStarts[i] = used;
+			used += length;
+			mEnds[i] = used;
+		}
+		mChars = chars;
+		mCharsUsed = used;
+		mCharsRemoved = 0;
+	}
+}
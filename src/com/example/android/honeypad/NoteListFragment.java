@@ -1,31 +1,47 @@
 package com.example.android.honeypad;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import android.app.Activity;
 import android.app.ListFragment;
 import android.app.LoaderManager;
-import android.appwidget.AppWidgetManager;
-import android.content.ComponentName;
+import android.content.AsyncTaskLoader;
+import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.Context;
-import android.content.CursorLoader;
 import android.content.Loader;
+import android.database.CharArrayBuffer;
+import android.database.ContentObserver;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.Handler;
+import android.text.Editable;
+import android.text.TextWatcher;
 import android.view.ActionMode;
+import android.view.LayoutInflater;
 import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.AbsListView;
+import android.widget.BaseAdapter;
+import android.widget.EditText;
+import android.widget.LinearLayout;
 import android.widget.ListView;
-import android.widget.SimpleCursorAdapter;
+import android.widget.SectionIndexer;
 import android.widget.Toast;
 
-import com.example.android.honeypad.widget.WidgetProvider;
-
 public class NoteListFragment extends ListFragment implements
-		LoaderManager.LoaderCallbacks<Cursor> {
+		LoaderManager.LoaderCallbacks<NoteList> {
 
 	// containing Activity must implement this interface
 	public interface NoteListEventsCallback {
@@ -34,58 +50,197 @@ public class NoteListFragment extends ListFragment implements
 		public void onNoteDeleted();
 	}
 
-	// key for saving state
+	// keys for saving state
 	private static final String KEY_CURRENT_ACTIVATED = "KEY_CURRENT_ACTIVATED";
+	private static final String KEY_FILTER = "KEY_FILTER";
 
-	// the id of our loader
+	// the id of our loader, & the arguments giving the position in the list
+	// or the note it loads notes from & the filter they're narrowed by
 	private static final int LOADER_ID = 0;
+	private static final String ARG_POSITION = "position";
+	private static final String ARG_NOTE_ID = "note_id";
+	private static final String ARG_FILTER = "filter";
+
+	// number of notes fetched per page, how close to either end of what's
+	// loaded the list can get before the next page that way is fetched, &
+	// the most notes kept loaded around where the list is scrolled
+	private static final int PAGE_SIZE = 50;
+	private static final int PAGE_PREFETCH = 10;
+	private static final int MAX_LOADED = PAGE_SIZE * 8;
+
+	// most changed notes re-queried at once, keeping well inside SQLite's
+	// limit on query arguments
+	private static final int IDS_PER_QUERY = 100;
+
+	// times changes are read again if more are made while the changed notes
+	// are re-queried, before reading the sections afresh instead
+	private static final int CHANGES_TRIES = 3;
+
+	// how long the filter box is left after a keystroke before the list is
+	// loaded for it, so typing a word loads it once rather than per letter
+	private static final long FILTER_DELAY_MILLIS = 200;
 
 	// This is the Adapter being used to display the list's data.
-	private SimpleCursorAdapter mAdapter;
+	private NoteListAdapter mAdapter;
 
 	// callback for notifying container of events
 	private NoteListEventsCallback mContainerCallback;
 
-	// track the currently activated item
-	private int mCurrentActivePosition = ListView.INVALID_POSITION;
+	// track the currently activated note, & the note to scroll to once it's
+	// loaded if it wasn't when it was activated
+	private long mActivatedNoteId = -1;
+	private long mScrollToNoteId = -1;
+
+	// what's typed in the filter box, the notes listed are narrowed to those
+	// with title words starting with it
+	private String mFilter = "";
+
+	// the notes loaded around where the list is scrolled, our Loader loads a
+	// page from a position & pages either side are added as the list is
+	// scrolled
+	private NoteList mNotes;
+	private PageTask mPageTask;
+
+	// the position the loader is loading notes from, when the list has been
+	// scrolled away from those loaded, or -1
+	private int mSeekingTo = -1;
+
+	// changes to the notes are applied to mNotes one note at a time, if
+	// more arrive while that's happening another pass is made afterwards
+	private ApplyChangesTask mApplyChangesTask;
+	private boolean mChangesPending;
 
-	// track if we need to set a note to activated once data is loaded
-	private long mNoteIdToActivate = -1;
+	private final Handler mHandler = new Handler();
+
+	private final ContentObserver mNotesObserver = new ContentObserver(
+			mHandler) {
+		@Override
+		public void onChange(boolean selfChange) {
+			applyChanges();
+		}
+	};
 
 	// default constructor
 	public NoteListFragment() {
 
 	}
 
+	/**
+	 * Puts the filter box above the list.
+	 */
+	@Override
+	public View onCreateView(LayoutInflater inflater, ViewGroup container,
+			Bundle savedInstanceState) {
+		View list = super.onCreateView(inflater, container, savedInstanceState);
+		LinearLayout layout = (LinearLayout) inflater.inflate(
+				R.layout.note_list, container, false);
+		layout.addView(list, new LinearLayout.LayoutParams(
+				ViewGroup.LayoutParams.MATCH_PARENT, 0, 1));
+		return layout;
+	}
+
 	@Override
 	public void onActivityCreated(Bundle savedInstanceState) {
 		super.onActivityCreated(savedInstanceState);
 
-		setEmptyText(getActivity().getString(R.string.no_notes));
-
 		// create an empty adapter, our Loader will retrieve the data
 		// asynchronously
-		mAdapter = new ActivatedCursorAdapter(getActivity(),
-				R.layout.note_list_row, null,
-				new String[] { NotesProvider.KEY_TITLE },
-				new int[] { android.R.id.text1 }, 0);
+		mAdapter = new NoteListAdapter(getActivity());
 		setListAdapter(mAdapter);
 
 		// setup our list view
 		final ListView notesList = getListView();
 		notesList.setChoiceMode(ListView.CHOICE_MODE_MULTIPLE_MODAL);
 		notesList.setMultiChoiceModeListener(mNoteSelectionModeCallback);
+		notesList.setOnScrollListener(mPagingScrollListener);
+		notesList.setFastScrollEnabled(true);
 
 		// restore any saved state
 		if (savedInstanceState != null
 				&& savedInstanceState.containsKey(KEY_CURRENT_ACTIVATED)) {
-			mCurrentActivePosition = savedInstanceState.getInt(
-					KEY_CURRENT_ACTIVATED, ListView.INVALID_POSITION);
+			mActivatedNoteId = savedInstanceState.getLong(
+					KEY_CURRENT_ACTIVATED, -1);
 		}
+		if (savedInstanceState != null
+				&& savedInstanceState.containsKey(KEY_FILTER)) {
+			mFilter = savedInstanceState.getString(KEY_FILTER);
+		}
+		setEmptyText(getActivity().getString(
+				mFilter.length() > 0 ? R.string.no_matching_notes
+						: R.string.no_notes));
+
+		// the box's text is restored after this, which the watcher ignores
+		// as it matches the restored filter
+		((EditText) getView().findViewById(R.id.filter))
+				.addTextChangedListener(mFilterWatcher);
+
+		// hear about every change to the notes, we then ask the provider
+		// which notes changed
+		getActivity().getContentResolver().registerContentObserver(
+				NotesProvider.CONTENT_URI, true, mNotesObserver);
 
 		// Prepare the loader. Either re-connect with an existing one,
-		// or start a new one.
-		getLoaderManager().initLoader(LOADER_ID, null, this);
+		// or start a new one, from a note activated before we were ready.
+		getLoaderManager().initLoader(LOADER_ID,
+				mScrollToNoteId != -1 ? noteArgs(mScrollToNoteId)
+						: loaderArgs(0), this);
+	}
+
+	/**
+	 * Reloads the list narrowed by the filter once it stops changing for
+	 * {@link #FILTER_DELAY_MILLIS}. A load still running for an earlier
+	 * filter stops at its next query & its notes are never shown.
+	 */
+	private final TextWatcher mFilterWatcher = new TextWatcher() {
+
+		public void beforeTextChanged(CharSequence s, int start, int count,
+				int after) {
+		}
+
+		public void onTextChanged(CharSequence s, int start, int before,
+				int count) {
+		}
+
+		public void afterTextChanged(Editable s) {
+			final String filter = s.toString().trim();
+			if (filter.equals(mFilter)) {
+				return;
+			}
+			mFilter = filter;
+			setEmptyText(getActivity().getString(
+					filter.length() > 0 ? R.string.no_matching_notes
+							: R.string.no_notes));
+			mHandler.removeCallbacks(mFilterLoad);
+			mHandler.postDelayed(mFilterLoad, FILTER_DELAY_MILLIS);
+		}
+	};
+
+	private final Runnable mFilterLoad = new Runnable() {
+		public void run() {
+			getLoaderManager().restartLoader(LOADER_ID, loaderArgs(0),
+					NoteListFragment.this);
+		}
+	};
+
+	/**
+	 * @return the arguments to load a page of notes from a position in the
+	 *         list, narrowed by the current filter
+	 */
+	private Bundle loaderArgs(int position) {
+		Bundle args = new Bundle(2);
+		args.putInt(ARG_POSITION, position);
+		args.putString(ARG_FILTER, mFilter);
+		return args;
+	}
+
+	/**
+	 * @return the arguments to load a page of notes starting at a note,
+	 *         narrowed by the current filter
+	 */
+	private Bundle noteArgs(long noteId) {
+		Bundle args = loaderArgs(0);
+		args.putLong(ARG_NOTE_ID, noteId);
+		return args;
 	}
 
 	@Override
@@ -101,10 +256,27 @@ public class NoteListFragment extends ListFragment implements
 		}
 	}
 
+	@Override
+	public void onDestroyView() {
+		getActivity().getContentResolver().unregisterContentObserver(
+				mNotesObserver);
+		mHandler.removeCallbacks(mFilterLoad);
+		if (mPageTask != null) {
+			mPageTask.cancel(false);
+			mPageTask = null;
+		}
+		if (mApplyChangesTask != null) {
+			mApplyChangesTask.cancel(false);
+			mApplyChangesTask = null;
+		}
+		super.onDestroyView();
+	}
+
 	@Override
 	public void onSaveInstanceState(Bundle outState) {
 		super.onSaveInstanceState(outState);
-		outState.putInt(KEY_CURRENT_ACTIVATED, mCurrentActivePosition);
+		outState.putLong(KEY_CURRENT_ACTIVATED, mActivatedNoteId);
+		outState.putString(KEY_FILTER, mFilter);
 	}
 
 	/**
@@ -114,26 +286,37 @@ public class NoteListFragment extends ListFragment implements
 	 *            The id of the note to be activated
 	 */
 	protected void setActivatedNote(long noteId) {
-		if (mAdapter != null) {
-			// work out the position in the list of note with the given id
-			final int N = mAdapter.getCount();
-			for (int position = 0; position < N; position++) {
-				if (mAdapter.getItemId(position) == noteId) {
-					if (position != mCurrentActivePosition) {
-						clearActivation();
-						mCurrentActivePosition = position;
-						View row = getListView().getChildAt(position);
-						if (row != null) {
-							row.setActivated(true);
-						}
-					}
-					break;
-				}
+		// if the note isn't loaded yet it is activated once it is
+		if (noteId != mActivatedNoteId) {
+			setRowActivated(mActivatedNoteId, false);
+			mActivatedNoteId = noteId;
+			setRowActivated(noteId, true);
+		}
+		scrollToNote(noteId);
+	}
+
+	/**
+	 * Scrolls the list to a note if it's off screen, loading the notes from
+	 * it first if it isn't loaded.
+	 */
+	private void scrollToNote(long noteId) {
+		if (mNotes == null || getView() == null) {
+			// the first load starts from the note
+			mScrollToNoteId = noteId;
+			return;
+		}
+		final ListView list = getListView();
+		final int index = mNotes.indexOfId(noteId);
+		if (index >= 0) {
+			final int position = mNotes.offset + index;
+			if (position < list.getFirstVisiblePosition()
+					|| position > list.getLastVisiblePosition()) {
+				list.setSelection(position);
 			}
 		} else {
-			// if we have not loaded our cursor yet then store the note id
-			// for now & activate once loaded
-			mNoteIdToActivate = noteId;
+			mScrollToNoteId = noteId;
+			getLoaderManager().restartLoader(LOADER_ID, noteArgs(noteId),
+					this);
 		}
 	}
 
@@ -141,37 +324,817 @@ public class NoteListFragment extends ListFragment implements
 	 * Helper method to clear the list's activated state
 	 */
 	protected void clearActivation() {
-		if (mCurrentActivePosition != ListView.INVALID_POSITION) {
-			getListView().getChildAt(mCurrentActivePosition)
-					.setActivated(false);
+		setRowActivated(mActivatedNoteId, false);
+		mActivatedNoteId = -1;
+	}
+
+	/**
+	 * Updates the activated state of a note's row, if it is on screen.
+	 */
+	private void setRowActivated(long noteId, boolean activated) {
+		if (mNotes == null || noteId == -1 || getView() == null) {
+			return;
+		}
+		final int index = mNotes.indexOfId(noteId);
+		if (index >= 0) {
+			final ListView list = getListView();
+			View row = list.getChildAt(mNotes.offset + index
+					- list.getFirstVisiblePosition());
+			if (row != null) {
+				row.setActivated(activated);
+			}
 		}
-		mCurrentActivePosition = ListView.INVALID_POSITION;
 	}
 
-	public Loader<Cursor> onCreateLoader(int id, Bundle args) {
+	public Loader<NoteList> onCreateLoader(int id, Bundle args) {
 		// This is called when a new Loader needs to be created. This
-		// sample only has one Loader, so we don't care about the ID.
-		return new CursorLoader(getActivity(), NotesProvider.CONTENT_URI,
-				new String[] { NotesProvider.KEY_ID, NotesProvider.KEY_TITLE },
-				null, null, NotesProvider.KEY_TITLE + " COLLATE LOCALIZED ASC");
+		// sample only has one Loader, so we don't care about the ID. Each
+		// load is numbered on from the one it replaces, which is kept
+		// across a restart of the activity along with the loader.
+		final Loader<NoteList> replaced = getLoaderManager().getLoader(
+				LOADER_ID);
+		return new NoteListLoader(getActivity(), args.getInt(ARG_POSITION),
+				args.getLong(ARG_NOTE_ID, -1), args.getString(ARG_FILTER),
+				replaced != null ? ((NoteListLoader) replaced).mLatestSeq
+						: new AtomicInteger());
 	}
 
-	public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
-		mAdapter.swapCursor(data);
-		// check if we need to set one of the (now loaded) notes as activated
-		if (mNoteIdToActivate > -1) {
-			setActivatedNote(mNoteIdToActivate);
-			mNoteIdToActivate = -1;
+	public void onLoadFinished(Loader<NoteList> loader, NoteList notes) {
+		// notes from a load replaced since it started are stale
+		if (notes == null || !((NoteListLoader) loader).isLatest()) {
+			return;
+		}
+		// a fresh load replaces everything paged in so far, it's loaded
+		// where the list is scrolled to
+		if (mPageTask != null) {
+			mPageTask.cancel(false);
+			mPageTask = null;
 		}
+		final String[] sections = mNotes != null ? mNotes.sections : null;
+		mNotes = notes;
+		mSeekingTo = -1;
+		mAdapter.notifyDataSetChanged();
+		sectionsChanged(sections);
+		if (mScrollToNoteId != -1) {
+			final int index = notes.indexOfId(mScrollToNoteId);
+			if (index >= 0) {
+				getListView().setSelection(notes.offset + index);
+			}
+			mScrollToNoteId = -1;
+		}
+
+		// pick up anything changed since the load began
+		applyChanges();
 	}
 
-	public void onLoaderReset(Loader<Cursor> loader) {
-		mAdapter.swapCursor(null);
+	public void onLoaderReset(Loader<NoteList> loader) {
+		mNotes = null;
+		mAdapter.notifyDataSetChanged();
+	}
+
+	private static final String[] NOTES_PROJECTION = new String[] {
+			NotesProvider.KEY_ID, NotesProvider.KEY_TITLE,
+			NotesProvider.KEY_PREVIEW, NotesProvider.KEY_SORT_KEY };
+	private static final int PREVIEW_COLUMN = 2;
+	private static final int SORT_KEY_COLUMN = 3;
+
+	// room first made for a title or preview read, the buffers grow to fit
+	private static final int TEXT_BUFFER_SIZE = 128;
+
+	/**
+	 * @return the Uri of the notes narrowed by a filter
+	 */
+	private static Uri notesUri(String filter) {
+		if (filter == null || filter.length() == 0) {
+			return NotesProvider.CONTENT_URI;
+		}
+		return NotesProvider.CONTENT_URI.buildUpon().appendQueryParameter(
+				NotesProvider.PARAM_FILTER, filter).build();
+	}
+
+	/**
+	 * Builds the Uri for a page of notes.
+	 * 
+	 * @param limit
+	 *            maximum number of notes in the page
+	 * @param after
+	 *            the notes the page follows on from, or {@code null} for the
+	 *            first page
+	 * @param filter
+	 *            what the notes are narrowed by, if anything
+	 */
+	private static Uri pageUri(int limit, NoteList after, String filter) {
+		Uri.Builder builder = notesUri(filter).buildUpon()
+				.appendQueryParameter(NotesProvider.PARAM_LIMIT,
+						String.valueOf(limit));
+		if (after != null && after.size() > 0) {
+			final int last = after.size() - 1;
+			builder.appendQueryParameter(NotesProvider.PARAM_AFTER_TITLE,
+					after.titleAt(last));
+			builder.appendQueryParameter(NotesProvider.PARAM_AFTER_ID,
+					String.valueOf(after.idAt(last)));
+		}
+		return builder.build();
+	}
+
+	/**
+	 * Builds the Uri for the page of notes before those loaded, which comes
+	 * back in reverse.
+	 */
+	private static Uri previousPageUri(int limit, NoteList before,
+			String filter) {
+		return notesUri(filter).buildUpon().appendQueryParameter(
+				NotesProvider.PARAM_LIMIT, String.valueOf(limit))
+				.appendQueryParameter(NotesProvider.PARAM_BEFORE_TITLE,
+						before.titleAt(0)).appendQueryParameter(
+						NotesProvider.PARAM_BEFORE_ID,
+						String.valueOf(before.idAt(0))).build();
+	}
+
+	/**
+	 * Builds the Uri for a page of notes from a title, such as part way
+	 * through a section, paging from the start of the section & skipping the
+	 * notes before the page.
+	 * 
+	 * @param from
+	 *            a title none of the page's notes sort before
+	 * @param afterId
+	 *            the id notes with a title sorting the same as {@code from}
+	 *            must be past
+	 */
+	private static Uri seekUri(int limit, String from, long afterId,
+			int skip, String filter) {
+		Uri.Builder builder = notesUri(filter).buildUpon()
+				.appendQueryParameter(NotesProvider.PARAM_LIMIT,
+						String.valueOf(limit)).appendQueryParameter(
+						NotesProvider.PARAM_AFTER_TITLE, from)
+				.appendQueryParameter(NotesProvider.PARAM_AFTER_ID,
+						String.valueOf(afterId));
+		if (skip > 0) {
+			builder.appendQueryParameter(NotesProvider.PARAM_OFFSET, String
+					.valueOf(skip));
+		}
+		return builder.build();
+	}
+
+	/**
+	 * Runs a query for notes & adds them to the end of a list, copying each
+	 * title & preview straight into the list rather than making strings,
+	 * along with the key the provider sorts it by.
+	 * 
+	 * @return the number of notes added
+	 */
+	private static int readNotes(ContentResolver resolver, Uri uri,
+			String selection, String[] selectionArgs, NoteList notes) {
+		Cursor c = resolver.query(uri, NOTES_PROJECTION, selection,
+				selectionArgs, null);
+		if (c == null) {
+			return 0;
+		}
+		try {
+			CharArrayBuffer title = new CharArrayBuffer(TEXT_BUFFER_SIZE);
+			CharArrayBuffer preview = new CharArrayBuffer(TEXT_BUFFER_SIZE);
+			while (c.moveToNext()) {
+				// a null column is copied as empty
+				c.copyStringToBuffer(NotesProvider.TITLE_COLUMN, title);
+				c.copyStringToBuffer(PREVIEW_COLUMN, preview);
+				notes.add(c.getLong(NotesProvider.ID_COLUMN), c
+						.getBlob(SORT_KEY_COLUMN), title.data,
+						title.sizeCopied, preview.data, preview.sizeCopied);
+			}
+			return c.getCount();
+		} finally {
+			c.close();
+		}
+	}
+
+	/**
+	 * @return the title of a note, or null if there's no such note
+	 */
+	private static String readTitle(ContentResolver resolver, long noteId) {
+		Cursor c = resolver.query(ContentUris.withAppendedId(
+				NotesProvider.CONTENT_URI, noteId),
+				new String[] { NotesProvider.KEY_TITLE }, null, null, null);
+		if (c == null) {
+			return null;
+		}
+		try {
+			return c.moveToFirst() ? c.getString(0) : null;
+		} finally {
+			c.close();
+		}
+	}
+
+	/**
+	 * @return the number of notes narrowed by a filter that sort before a
+	 *         note, counted along the sort key index by the provider
+	 */
+	private static int countBefore(ContentResolver resolver, String title,
+			long noteId, String filter) {
+		Cursor c = resolver.query(notesUri(filter).buildUpon()
+				.appendQueryParameter(NotesProvider.PARAM_BEFORE_TITLE, title)
+				.appendQueryParameter(NotesProvider.PARAM_BEFORE_ID,
+						String.valueOf(noteId)).build(),
+				new String[] { "count(*)" }, null, null, null);
+		if (c == null) {
+			return 0;
+		}
+		try {
+			return c.moveToFirst() ? c.getInt(0) : 0;
+		} finally {
+			c.close();
+		}
+	}
+
+	/**
+	 * @return the number of the provider's latest change
+	 */
+	private static long currentChangeSeq(ContentResolver resolver) {
+		Bundle result = resolver.call(NotesProvider.CONTENT_URI,
+				NotesProvider.METHOD_GET_CHANGE_SEQ, null, null);
+		return result.getLong(NotesProvider.EXTRA_CHANGE_SEQ);
+	}
+
+	/**
+	 * Reads the sections of the notes narrowed by a filter from the provider,
+	 * which counts the notes in each without us reading them, along with the
+	 * last change the counts include & the locale the notes are sorted for.
+	 */
+	private static void readSections(ContentResolver resolver, String filter,
+			NoteList notes) {
+		Uri uri = NotesProvider.SECTIONS_URI;
+		if (filter != null && filter.length() > 0) {
+			uri = uri.buildUpon().appendQueryParameter(
+					NotesProvider.PARAM_FILTER, filter).build();
+		}
+		Cursor c = resolver.query(uri, null, null, null, null);
+		if (c == null) {
+			return;
+		}
+		try {
+			final int sectionColumn = c
+					.getColumnIndexOrThrow(NotesProvider.KEY_SECTION);
+			final int countColumn = c
+					.getColumnIndexOrThrow(NotesProvider.KEY_SECTION_COUNT);
+			final int initialColumn = c
+					.getColumnIndexOrThrow(NotesProvider.KEY_SECTION_INITIAL);
+			String[] labels = new String[c.getCount()];
+			String[] initials = new String[labels.length];
+			int[] counts = new int[labels.length];
+			for (int i = 0; c.moveToNext(); i++) {
+				labels[i] = c.getString(sectionColumn);
+				initials[i] = c.getString(initialColumn);
+				counts[i] = c.getInt(countColumn);
+			}
+			final Bundle extras = c.getExtras();
+			final String locale = extras.getString(NotesProvider.EXTRA_LOCALE);
+			if (locale != null) {
+				notes.locale = TitleSortKeys.localeOf(locale);
+			}
+			notes.setSections(labels, initials, counts);
+			notes.sectionsSeq = extras.getLong(NotesProvider.EXTRA_CHANGE_SEQ,
+					-1);
+		} finally {
+			c.close();
+		}
+	}
+
+	/**
+	 * Resets the fast scroller if the sections have changed, it only asks
+	 * for them when it's created.
+	 */
+	private void sectionsChanged(String[] previous) {
+		if (getView() != null && mNotes != null
+				&& !Arrays.equals(previous, mNotes.sections)) {
+			final ListView list = getListView();
+			list.setFastScrollEnabled(false);
+			list.setFastScrollEnabled(true);
+		}
+	}
+
+	/**
+	 * Loads the notes from a position the list has been scrolled to, away
+	 * from those loaded, unless they're already on the way.
+	 */
+	private void seek(int position) {
+		final int from = Math.max(0, position - PAGE_PREFETCH);
+		if (mSeekingTo >= 0 && Math.abs(from - mSeekingTo) < PAGE_PREFETCH) {
+			return;
+		}
+		mSeekingTo = from;
+		getLoaderManager().restartLoader(LOADER_ID, loaderArgs(from), this);
+	}
+
+	/**
+	 * Reloads the notes where the list is scrolled to, for when the loaded
+	 * notes can't be brought up to date.
+	 */
+	private void reload() {
+		mSeekingTo = getListView().getFirstVisiblePosition();
+		getLoaderManager().restartLoader(LOADER_ID, loaderArgs(mSeekingTo),
+				this);
+	}
+
+	/**
+	 * Fetches the page following the notes loaded so far.
+	 */
+	private void loadNextPage() {
+		mPageTask = new PageTask(getActivity(), mNotes, false);
+		mPageTask.execute(pageUri(PAGE_SIZE, mNotes, mNotes.filter));
+	}
+
+	/**
+	 * Fetches the page before the notes loaded so far.
+	 */
+	private void loadPreviousPage() {
+		mPageTask = new PageTask(getActivity(), mNotes, true);
+		mPageTask.execute(previousPageUri(PAGE_SIZE, mNotes, mNotes.filter));
+	}
+
+	private AbsListView.OnScrollListener mPagingScrollListener = new AbsListView.OnScrollListener() {
+
+		public void onScrollStateChanged(AbsListView view, int scrollState) {
+		}
+
+		public void onScroll(AbsListView view, int firstVisibleItem,
+				int visibleItemCount, int totalItemCount) {
+			if (mNotes == null) {
+				return;
+			}
+			final int start = mNotes.offset;
+			final int end = start + mNotes.size();
+			final int last = firstVisibleItem + visibleItemCount;
+			if (firstVisibleItem > end + PAGE_PREFETCH
+					|| last < start - PAGE_PREFETCH) {
+				// fast scrolled or flung past the notes loaded
+				seek(firstVisibleItem);
+			} else if (mSeekingTo < 0 && mPageTask == null
+					&& mNotes.size() > 0) {
+				if (!mNotes.complete && last + PAGE_PREFETCH >= end) {
+					loadNextPage();
+				} else if (start > 0
+						&& firstVisibleItem - PAGE_PREFETCH <= start) {
+					loadPreviousPage();
+				}
+			}
+		}
+	};
+
+	/**
+	 * Loads the sections of the list & a page of notes from a position in
+	 * it or from a note, noting how far through the provider's changes they
+	 * are so later changes can be applied to them.
+	 */
+	private static class NoteListLoader extends AsyncTaskLoader<NoteList> {
+
+		private final int mPosition;
+		private final long mNoteId;
+		private final String mFilter;
+		private NoteList mNotes;
+
+		// the number of the latest load of the list, shared with the
+		// loaders this replaces & is replaced by, & of this one
+		final AtomicInteger mLatestSeq;
+		private final int mSeq;
+
+		public NoteListLoader(Context context, int position, long noteId,
+				String filter, AtomicInteger latestSeq) {
+			super(context);
+			mPosition = position;
+			mNoteId = noteId;
+			mFilter = filter;
+			mLatestSeq = latestSeq;
+			mSeq = latestSeq.incrementAndGet();
+		}
+
+		/**
+		 * @return true if no load of the list has been started since this
+		 *         one
+		 */
+		boolean isLatest() {
+			return mLatestSeq.get() == mSeq;
+		}
+
+		@Override
+		public NoteList loadInBackground() {
+			ContentResolver resolver = getContext().getContentResolver();
+			// take the change number before querying, anything that changes
+			// while we query is then applied again afterwards. The sections
+			// come with the number of the last change they include, so no
+			// change is counted into them twice.
+			NoteList notes = new NoteList(PAGE_SIZE);
+			notes.changeSeq = currentChangeSeq(resolver);
+			notes.filter = mFilter;
+			readSections(resolver, mFilter, notes);
+			// a load replaced meanwhile, as by the next keystroke in the
+			// filter box, goes no further
+			if (!isLatest()) {
+				return null;
+			}
+
+			// a position part way down the list is found by paging from the
+			// start of its section, so only the notes before it in that
+			// section are read & skipped
+			final int position = Math.min(mPosition, notes.count() - 1);
+			final String noteTitle = mNoteId != -1 ? readTitle(resolver,
+					mNoteId) : null;
+			Uri uri = pageUri(PAGE_SIZE, null, mFilter);
+			if (noteTitle != null) {
+				// a note is paged from with a keyset seek to it, & found
+				// at the position of the notes counted before it
+				notes.offset = countBefore(resolver, noteTitle, mNoteId,
+						mFilter);
+				uri = seekUri(PAGE_SIZE, noteTitle, mNoteId - 1, 0, mFilter);
+			} else if (position > 0) {
+				final int section = notes.sectionAt(position);
+				uri = seekUri(PAGE_SIZE, notes.sectionInitial(section), 0,
+						position - notes.sectionStarts[section], mFilter);
+				notes.offset = position;
+			}
+			if (!isLatest()) {
+				return null;
+			}
+			// the notes' positions are indexed as they're read, here rather
+			// than on the UI thread
+			notes.complete = readNotes(resolver, uri, null, null, notes)
+					< PAGE_SIZE;
+			return notes;
+		}
+
+		@Override
+		public void deliverResult(NoteList notes) {
+			mNotes = notes;
+			if (isStarted()) {
+				super.deliverResult(notes);
+			}
+		}
+
+		@Override
+		protected void onStartLoading() {
+			if (mNotes != null) {
+				deliverResult(mNotes);
+			} else {
+				forceLoad();
+			}
+		}
+
+		@Override
+		protected void onStopLoading() {
+			cancelLoad();
+		}
+
+		@Override
+		protected void onReset() {
+			onStopLoading();
+			mNotes = null;
+		}
+	}
+
+	/**
+	 * Queries the page of notes either side of those loaded in the
+	 * background, dropping notes at the other end to keep to
+	 * {@link #MAX_LOADED}.
+	 */
+	private class PageTask extends AsyncTask<Uri, Void, NoteList> {
+
+		private final Context mContext;
+
+		// the notes this page adjoins, if they've been replaced or their
+		// note at that end has changed by the time we finish then our page
+		// is stale
+		private final NoteList mNear;
+		private final boolean mBefore;
+		private final long mEdgeId;
+
+		public PageTask(Context context, NoteList near, boolean before) {
+			mContext = context.getApplicationContext();
+			mNear = near;
+			mBefore = before;
+			mEdgeId = near.idAt(before ? 0 : near.size() - 1);
+		}
+
+		@Override
+		protected NoteList doInBackground(Uri... params) {
+			NoteList page = new NoteList(PAGE_SIZE);
+			readNotes(mContext.getContentResolver(), params[0], null, null,
+					page);
+			return page;
+		}
+
+		@Override
+		protected void onPostExecute(NoteList page) {
+			mPageTask = null;
+			if (!isAdded() || mNotes != mNear || mNear.size() == 0
+					|| mNear.idAt(mBefore ? 0 : mNear.size() - 1) != mEdgeId) {
+				return;
+			}
+			final int excess = mNotes.size() + page.size() - MAX_LOADED;
+			if (mBefore) {
+				if (excess > 0) {
+					mNotes.remove(mNotes.size() - excess, mNotes.size());
+					mNotes.complete = false;
+				}
+				mNotes.addAllBefore(page);
+				if (page.size() < PAGE_SIZE) {
+					// the start of the list, wherever it was counted to be
+					mNotes.offset = 0;
+				} else if (mNotes.offset < 0) {
+					// there are more notes before these than were counted
+					reload();
+					return;
+				}
+			} else {
+				if (excess > 0) {
+					mNotes.remove(0, excess);
+					mNotes.offset += excess;
+				}
+				mNotes.addAll(page);
+				mNotes.complete = page.size() < PAGE_SIZE;
+			}
+			mAdapter.notifyDataSetChanged();
+		}
+	}
+
+	/**
+	 * Brings the loaded notes up to date with the provider, unless that's
+	 * already underway.
+	 */
+	private void applyChanges() {
+		if (mNotes == null || mApplyChangesTask != null) {
+			mChangesPending = true;
+			return;
+		}
+		mChangesPending = false;
+		mApplyChangesTask = new ApplyChangesTask(getActivity(), mNotes);
+		mApplyChangesTask.execute();
+	}
+
+	/**
+	 * The notes changed since a list was loaded.
+	 */
+	private static class Changes {
+		// the last change included
+		long seq;
+
+		// set if the list has to be reloaded
+		boolean reset;
+
+		// the ids of the notes that changed, & those of them that still
+		// exist
+		long[] ids;
+		NoteList found;
+
+		// the notes to count out of the sections under the titles they had,
+		// & into them under the titles they have now, with the sort keys of
+		// those titles
+		ArrayList<Long> countedOutIds;
+		ArrayList<String> countedOut;
+		ArrayList<byte[]> countedOutKeys;
+		ArrayList<Long> countedInIds;
+		ArrayList<String> countedIn;
+		ArrayList<byte[]> countedInKeys;
+	}
+
+	/**
+	 * Asks the provider which notes have changed & re-queries just those
+	 * notes in the background, then moves, adds & removes them in the list
+	 * & moves them between the sections.
+	 */
+	private class ApplyChangesTask extends AsyncTask<Void, Void, Changes> {
+
+		private final Context mContext;
+		private final NoteList mList;
+		private final long mSince;
+		private final long mSectionsSince;
+
+		public ApplyChangesTask(Context context, NoteList list) {
+			mContext = context.getApplicationContext();
+			mList = list;
+			mSince = list.changeSeq;
+			mSectionsSince = list.sectionsSeq;
+		}
+
+		@Override
+		protected Changes doInBackground(Void... params) {
+			ContentResolver resolver = mContext.getContentResolver();
+			for (int tries = 1;; tries++) {
+				// the notes' titles before the changes the sections don't
+				// include yet, null for notes that didn't exist, & which of
+				// the notes changed since then
+				Map<Long, String> before = new HashMap<Long, String>();
+				Set<Long> changed = new LinkedHashSet<Long>();
+				Changes changes = readChanges(resolver, before, changed);
+				if (changes.reset || changes.ids == null) {
+					return changes;
+				}
+				// the titles the notes are now counted under must be those
+				// of the same changes, so if more were made while we queried
+				// the notes we read them all again. If they don't settle, or
+				// it isn't known which changes the sections include, the
+				// list is reloaded.
+				final long seq = mSectionsSince >= 0 ? currentChangeSeq(resolver)
+						: -1;
+				if (seq != changes.seq && seq >= 0 && tries < CHANGES_TRIES) {
+					continue;
+				} else if (seq != changes.seq) {
+					changes.reset = true;
+					return changes;
+				}
+				changes.countedOutIds = new ArrayList<Long>();
+				changes.countedOut = new ArrayList<String>();
+				changes.countedOutKeys = new ArrayList<byte[]>();
+				changes.countedInIds = new ArrayList<Long>();
+				changes.countedIn = new ArrayList<String>();
+				changes.countedInKeys = new ArrayList<byte[]>();
+				// the keys of titles the notes no longer have are made as
+				// the provider made them, in the locale of the list's keys
+				TitleSortKeys keys = null;
+				for (long id : changed) {
+					// a note whose title is unchanged stays in its section
+					if (!before.containsKey(id)) {
+						continue;
+					}
+					final String title = before.get(id);
+					if (title != null
+							&& NotesProvider.titleMatches(title, mList.filter)) {
+						if (keys == null) {
+							keys = new TitleSortKeys(mList.locale);
+						}
+						changes.countedOutIds.add(id);
+						changes.countedOut.add(title);
+						changes.countedOutKeys.add(keys.keyOf(title));
+					}
+					final int position = changes.found.indexOfId(id);
+					if (position >= 0) {
+						changes.countedInIds.add(id);
+						changes.countedIn.add(changes.found.titleAt(position));
+						changes.countedInKeys.add(changes.found
+								.keyAt(position));
+					}
+				}
+				return changes;
+			}
+		}
+
+		/**
+		 * Reads the changes since the list was loaded, & the notes they
+		 * touched as they are now.
+		 * 
+		 * @param before
+		 *            filled with the titles of the notes before the changes
+		 *            the sections don't include, for those given one since
+		 * @param changed
+		 *            filled with the notes changed since the sections were
+		 *            counted
+		 */
+		private Changes readChanges(ContentResolver resolver,
+				Map<Long, String> before, Set<Long> changed) {
+			Changes changes = new Changes();
+			changes.seq = mSince;
+
+			Set<Long> ids = new LinkedHashSet<Long>();
+			Cursor c = resolver.query(NotesProvider.CHANGES_URI.buildUpon()
+					.appendQueryParameter(NotesProvider.PARAM_SINCE,
+							String.valueOf(mSince)).build(), null, null, null,
+					null);
+			if (c == null) {
+				changes.reset = true;
+				return changes;
+			}
+			try {
+				final int seqColumn = c
+						.getColumnIndexOrThrow(NotesProvider.KEY_CHANGE_SEQ);
+				final int idColumn = c
+						.getColumnIndexOrThrow(NotesProvider.KEY_ID);
+				final int changeColumn = c
+						.getColumnIndexOrThrow(NotesProvider.KEY_CHANGE);
+				final int titleColumn = c
+						.getColumnIndexOrThrow(NotesProvider.KEY_PREVIOUS_TITLE);
+				while (c.moveToNext()) {
+					changes.seq = c.getLong(seqColumn);
+					final int change = c.getInt(changeColumn);
+					if (change == NotesProvider.CHANGE_RESET) {
+						changes.reset = true;
+						continue;
+					}
+					final long id = c.getLong(idColumn);
+					ids.add(id);
+					if (changes.seq <= mSectionsSince) {
+						continue;
+					}
+					// a note's first change the sections don't include
+					// tells whether it existed, & its first change of title
+					// what it was before
+					if (changed.add(id)
+							&& change == NotesProvider.CHANGE_INSERT) {
+						before.put(id, null);
+					} else if (!c.isNull(titleColumn)
+							&& !before.containsKey(id)) {
+						before.put(id, c.getString(titleColumn));
+					}
+				}
+			} finally {
+				c.close();
+			}
+			if (changes.reset || ids.isEmpty()) {
+				return changes;
+			}
+
+			// fetch the current title of each changed note, any not found
+			// have been deleted or no longer match the filter
+			changes.ids = new long[ids.size()];
+			changes.found = new NoteList(ids.size());
+			int i = 0;
+			for (long id : ids) {
+				changes.ids[i++] = id;
+			}
+			for (int start = 0; start < changes.ids.length; start += IDS_PER_QUERY) {
+				final int end = Math.min(start + IDS_PER_QUERY,
+						changes.ids.length);
+				StringBuilder selection = new StringBuilder(
+						NotesProvider.KEY_ID).append(" IN (");
+				String[] args = new String[end - start];
+				for (int j = start; j < end; j++) {
+					selection.append(j > start ? ",?" : "?");
+					args[j - start] = String.valueOf(changes.ids[j]);
+				}
+				selection.append(')');
+				readNotes(resolver, notesUri(mList.filter),
+						selection.toString(), args, changes.found);
+			}
+			return changes;
+		}
+
+		@Override
+		protected void onPostExecute(Changes changes) {
+			mApplyChangesTask = null;
+			if (!isAdded()) {
+				return;
+			}
+			if (mNotes == mList) {
+				if (changes.reset) {
+					reload();
+				} else {
+					if (changes.ids != null) {
+						// notes moving into or out of those before the first
+						// loaded move it along the list, the first note
+						// itself stays first if it can
+						int shift = 0;
+						if (mNotes.offset > 0 && mNotes.size() > 0) {
+							final long first = mNotes.idAt(0);
+							for (int i = 0; i < changes.countedOut.size(); i++) {
+								final long id = changes.countedOutIds.get(i);
+								if (id != first
+										&& mNotes.sortsBeforeFirst(id,
+												changes.countedOutKeys.get(i))) {
+									shift--;
+								}
+							}
+							for (int i = 0; i < changes.countedIn.size(); i++) {
+								final long id = changes.countedInIds.get(i);
+								if (id != first
+										&& mNotes.sortsBeforeFirst(id,
+												changes.countedInKeys.get(i))) {
+									shift++;
+								}
+							}
+						}
+						for (long id : changes.ids) {
+							if (changes.found.indexOfId(id) < 0) {
+								final int position = mNotes.indexOfId(id);
+								if (position >= 0) {
+									mNotes.remove(position);
+								}
+							}
+						}
+						for (int i = 0; i < changes.found.size(); i++) {
+							mNotes.put(changes.found, i);
+						}
+						mNotes.offset += shift;
+						final String[] sections = mNotes.sections;
+						for (String title : changes.countedOut) {
+							mNotes.countInSection(title, -1);
+						}
+						for (String title : changes.countedIn) {
+							mNotes.countInSection(title, 1);
+						}
+						mNotes.sectionsSeq = Math.max(mNotes.sectionsSeq,
+								changes.seq);
+						mAdapter.notifyDataSetChanged();
+						sectionsChanged(sections);
+					}
+					mNotes.changeSeq = changes.seq;
+				}
+			}
+			if (mChangesPending) {
+				applyChanges();
+			}
+		}
 	}
 
 	@Override
 	public void onListItemClick(ListView l, View v, int position, long id) {
-		mCurrentActivePosition = position;
+		setActivatedNote(id);
 		mContainerCallback.onNoteSelected(ContentUris.withAppendedId(
 				NotesProvider.CONTENT_URI, id));
 	}
@@ -191,35 +1154,14 @@ public class NoteListFragment extends ListFragment implements
 		public boolean onActionItemClicked(ActionMode mode, MenuItem item) {
 			switch (item.getItemId()) {
 			case R.id.delete_notes:
-				int deletedCount = 0;
-
-				for (long id : getListView().getCheckItemIds()) {
-					deletedCount += getActivity().getContentResolver().delete(
-							ContentUris.withAppendedId(
-									NotesProvider.CONTENT_URI, id), null, null);
-				}
+				// delete all of the selected notes in one go, off the UI
+				// thread
+				new DeleteNotesTask(getActivity()).execute(getListView()
+						.getCheckItemIds());
 
 				// clear any selections
 				clearActivation();
 
-				// update container
-				mContainerCallback.onNoteDeleted();
-
-				// show a toast to confirm delete
-				Toast.makeText(
-						getActivity(),
-						String.format(
-								getActivity().getString(R.string.num_deleted),
-								deletedCount, (deletedCount == 1 ? "" : "s")),
-						Toast.LENGTH_SHORT).show();
-
-				// update widget
-				AppWidgetManager awm = AppWidgetManager
-						.getInstance(getActivity());
-				awm.notifyAppWidgetViewDataChanged(awm
-						.getAppWidgetIds(new ComponentName(getActivity(),
-								WidgetProvider.class)), R.id.stack_view);
-
 				// clear the contextual action bar
 				mode.finish();
 			}
@@ -239,25 +1181,130 @@ public class NoteListFragment extends ListFragment implements
 	};
 
 	/**
-	 * 
-	 * A trivial extension to {@link SimpleCursorAdapter} that sets a specified
-	 * item's Activated state.
-	 * 
+	 * Deletes a set of notes through a single provider call, then updates the
+	 * container & confirms the delete.
 	 */
-	private class ActivatedCursorAdapter extends SimpleCursorAdapter {
+	private class DeleteNotesTask extends AsyncTask<long[], Void, Integer> {
+
+		private final Context mContext;
 
-		public ActivatedCursorAdapter(Context context, int layout, Cursor c,
-				String[] from, int[] to, int flags) {
-			super(context, layout, c, from, to, flags);
+		public DeleteNotesTask(Context context) {
+			mContext = context.getApplicationContext();
 		}
 
 		@Override
+		protected Integer doInBackground(long[]... params) {
+			Bundle extras = new Bundle(1);
+			extras.putLongArray(NotesProvider.EXTRA_NOTE_IDS, params[0]);
+			ContentResolver resolver = mContext.getContentResolver();
+			Bundle result = resolver.call(NotesProvider.CONTENT_URI,
+					NotesProvider.METHOD_DELETE_NOTES, null, extras);
+			return result.getInt(NotesProvider.EXTRA_COUNT);
+		}
+
+		@Override
+		protected void onPostExecute(Integer result) {
+			final int deletedCount = result;
+			if (!isAdded()) {
+				return;
+			}
+
+			// update container
+			mContainerCallback.onNoteDeleted();
+
+			// show a toast to confirm delete
+			Toast.makeText(
+					getActivity(),
+					String.format(
+							getActivity().getString(R.string.num_deleted),
+							deletedCount, (deletedCount == 1 ? "" : "s")),
+					Toast.LENGTH_SHORT).show();
+		}
+	}
+
+	/**
+	 * Shows the loaded notes' titles, setting the activated note's row as
+	 * Activated. The list is as long as the provider counts the notes in
+	 * the sections, so it can be fast scrolled anywhere; rows outside the
+	 * notes loaded are left blank until the scroll listener loads them.
+	 */
+	private class NoteListAdapter extends BaseAdapter implements
+			SectionIndexer {
+
+		private final LayoutInflater mInflater;
+
+		public NoteListAdapter(Context context) {
+			mInflater = LayoutInflater.from(context);
+		}
+
+		public int getCount() {
+			return mNotes != null ? mNotes.count() : 0;
+		}
+
+		/**
+		 * @return the position among the notes loaded, or -1 if the note
+		 *         there isn't loaded
+		 */
+		private int indexOf(int position) {
+			final int index = position - mNotes.offset;
+			return index >= 0 && index < mNotes.size() ? index : -1;
+		}
+
+		public Object getItem(int position) {
+			final int index = indexOf(position);
+			return index >= 0 ? mNotes.titleAt(index) : null;
+		}
+
+		public long getItemId(int position) {
+			final int index = indexOf(position);
+			return index >= 0 ? mNotes.idAt(index) : -1 - position;
+		}
+
+		@Override
+		public boolean hasStableIds() {
+			return true;
+		}
+
+		@Override
+		public boolean areAllItemsEnabled() {
+			return false;
+		}
+
+		@Override
+		public boolean isEnabled(int position) {
+			return indexOf(position) >= 0;
+		}
+
 		public View getView(int position, View convertView, ViewGroup parent) {
-			View v = super.getView(position, convertView, parent);
-			v.setActivated(position == mCurrentActivePosition);
+			NoteRowView v = (NoteRowView) (convertView != null ? convertView
+					: mInflater.inflate(R.layout.note_list_row, parent, false));
+			final int index = indexOf(position);
+			if (index >= 0) {
+				v.bind(mNotes, index);
+				v.setActivated(mNotes.idAt(index) == mActivatedNoteId);
+			} else {
+				v.clear();
+				v.setActivated(false);
+			}
 			return v;
 		}
 
+		public Object[] getSections() {
+			return mNotes != null ? mNotes.sections : new String[0];
+		}
+
+		public int getPositionForSection(int section) {
+			if (mNotes == null || mNotes.sections.length == 0) {
+				return 0;
+			}
+			return mNotes.sectionStarts[Math.max(0, Math.min(section,
+					mNotes.sections.length - 1))];
+		}
+
+		public int getSectionForPosition(int position) {
+			return mNotes != null ? mNotes.sectionAt(position) : 0;
+		}
+
 	}
 
 }
@@ -0,0 +1,212 @@
+package com.example.android.honeypad;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.os.Binder;
+import android.util.Log;
+
+/**
+ * Call counts & latencies of {@link NotesProvider} operations, kept per
+ * operation, per kind of Uri (or call() method) & per calling uid. Latencies
+ * go into power of two histograms, so recording a call is a few additions
+ * under a lock & allocates nothing once a combination has been seen.
+ *
+ * Calls taking longer than the slow threshold are also logged, & the last
+ * {@link #SLOW_CAPACITY} of them kept.
+ */
+final class NoteMetrics {
+
+	private static final String TAG = "NoteMetrics";
+
+	// the operations timed
+	static final int QUERY = 0;
+	static final int INSERT = 1;
+	static final int BULK_INSERT = 2;
+	static final int UPDATE = 3;
+	static final int DELETE = 4;
+	static final int APPLY_BATCH = 5;
+	static final int CALL = 6;
+	static final int OPEN_FILE = 7;
+
+	private static final String[] OPERATIONS = new String[] { "query",
+			"insert", "bulkInsert", "update", "delete", "applyBatch", "call",
+			"openFile" };
+
+	// columns of the metrics & of the slow calls, latencies are in
+	// microseconds & the percentiles are the bound of the bucket they fall in
+	private static final String[] COLUMNS = new String[] { "operation",
+			"uri", "caller_uid", "count", "mean_us", "max_us", "p50_us",
+			"p90_us", "p99_us" };
+	private static final String[] SLOW_COLUMNS = new String[] { "time",
+			"operation", "uri", "caller_uid", "duration_us" };
+
+	// bucket i holds calls taking under 2^i microseconds, the last one
+	// anything slower
+	private static final int BUCKETS = 25;
+
+	private static final int SLOW_CAPACITY = 64;
+
+	/**
+	 * What the calls are counted by.
+	 */
+	private static final class Key {
+		int operation;
+		String uri;
+		int uid;
+
+		void set(int operation, String uri, int uid) {
+			this.operation = operation;
+			this.uri = uri;
+			this.uid = uid;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) o;
+			return operation == other.operation && uid == other.uid
+					&& uri.equals(other.uri);
+		}
+
+		@Override
+		public int hashCode() {
+			return (operation * 31 + uri.hashCode()) * 31 + uid;
+		}
+	}
+
+	private static final class Stats {
+		long count;
+		long totalMicros;
+		long maxMicros;
+		final long[] histogram = new long[BUCKETS];
+	}
+
+	private final Map<Key, Stats> mStats = new HashMap<Key, Stats>();
+
+	// looked up with rather than allocating a key per call
+	private final Key mProbe = new Key();
+
+	private long mSlowMicros;
+
+	// ring buffers of slow calls, the slow call numbered n is at index
+	// n % SLOW_CAPACITY
+	private final long[] mSlowTimes = new long[SLOW_CAPACITY];
+	private final int[] mSlowOperations = new int[SLOW_CAPACITY];
+	private final String[] mSlowUris = new String[SLOW_CAPACITY];
+	private final int[] mSlowUids = new int[SLOW_CAPACITY];
+	private final long[] mSlowDurations = new long[SLOW_CAPACITY];
+	private long mSlowCount;
+
+	NoteMetrics(long slowMillis) {
+		mSlowMicros = slowMillis * 1000;
+	}
+
+	/**
+	 * @return the start time to pass to {@link #record}
+	 */
+	static long start() {
+		return System.nanoTime();
+	}
+
+	/**
+	 * Records a call made on the current binder thread, or in-process.
+	 *
+	 * @param uri
+	 *            the kind of Uri, or the call() method
+	 */
+	void record(int operation, String uri, long start) {
+		final long micros = (System.nanoTime() - start) / 1000;
+		final int uid = Binder.getCallingUid();
+		final int bucket = Math.min(
+				64 - Long.numberOfLeadingZeros(micros), BUCKETS - 1);
+		final boolean slow;
+		synchronized (this) {
+			mProbe.set(operation, uri, uid);
+			Stats stats = mStats.get(mProbe);
+			if (stats == null) {
+				Key key = new Key();
+				key.set(operation, uri, uid);
+				stats = new Stats();
+				mStats.put(key, stats);
+			}
+			stats.count++;
+			stats.totalMicros += micros;
+			stats.maxMicros = Math.max(stats.maxMicros, micros);
+			stats.histogram[bucket]++;
+
+			slow = micros >= mSlowMicros;
+			if (slow) {
+				final int index = (int) (mSlowCount++ % SLOW_CAPACITY);
+				mSlowTimes[index] = System.currentTimeMillis();
+				mSlowOperations[index] = operation;
+				mSlowUris[index] = uri;
+				mSlowUids[index] = uid;
+				mSlowDurations[index] = micros;
+			}
+		}
+		if (slow) {
+			Log.w(TAG, OPERATIONS[operation] + " " + uri + " for uid " + uid
+					+ " took " + micros / 1000 + "ms");
+		}
+	}
+
+	/**
+	 * Sets how long a call takes before it's logged as slow.
+	 */
+	synchronized void setSlowMillis(long slowMillis) {
+		mSlowMicros = slowMillis * 1000;
+	}
+
+	/**
+	 * @return a row of {@link #COLUMNS} for every combination seen
+	 */
+	synchronized Cursor metrics() {
+		MatrixCursor metrics = new MatrixCursor(COLUMNS, mStats.size());
+		for (Map.Entry<Key, Stats> entry : mStats.entrySet()) {
+			final Key key = entry.getKey();
+			final Stats stats = entry.getValue();
+			metrics.addRow(new Object[] { OPERATIONS[key.operation],
+					key.uri, key.uid, stats.count,
+					stats.totalMicros / stats.count, stats.maxMicros,
+					percentile(stats, 50), percentile(stats, 90),
+					percentile(stats, 99) });
+		}
+		return metrics;
+	}
+
+	/**
+	 * @return the slow calls still held, newest first
+	 */
+	synchronized Cursor slowCalls() {
+		final int count = (int) Math.min(mSlowCount, SLOW_CAPACITY);
+		MatrixCursor slow = new MatrixCursor(SLOW_COLUMNS, count);
+		for (long n = mSlowCount - 1; n >= mSlowCount - count; n--) {
+			final int index = (int) (n % SLOW_CAPACITY);
+			slow.addRow(new Object[] { mSlowTimes[index],
+					OPERATIONS[mSlowOperations[index]], mSlowUris[index],
+					mSlowUids[index], mSlowDurations[index] });
+		}
+		return slow;
+	}
+
+	/**
+	 * @return the upper bound of the bucket the percentile falls in, or the
+	 *         slowest call if that's sooner
+	 */
+	private static long percentile(Stats stats, int percent) {
+		final long rank = (stats.count * percent + 99) / 100;
+		long seen = 0;
+		for (int i = 0; i < BUCKETS - 1; i++) {
+			seen += stats.histogram[i];
+			if (seen >= rank) {
+				return Math.min(1L << i, stats.maxMicros);
+			}
+		}
+		return stats.maxMicros;
+	}
+}
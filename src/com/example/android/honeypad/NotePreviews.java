@@ -0,0 +1,36 @@
+package com.example.android.honeypad;
+
+import android.text.SpannableStringBuilder;
+import android.text.Spanned;
+import android.text.TextUtils;
+import android.text.style.RelativeSizeSpan;
+
+/**
+ * Shows a note's title with the preview of its body, as kept in
+ * {@link NotesProvider#KEY_PREVIEW}, on the line below.
+ */
+public final class NotePreviews {
+
+	private NotePreviews() {
+	}
+
+	/**
+	 * @param preview
+	 *            the preview, or null or empty to show just the title
+	 * @param previewSize
+	 *            the size of the preview's text relative to the title's
+	 */
+	public static CharSequence withPreview(String title, String preview,
+			float previewSize) {
+		if (TextUtils.isEmpty(preview)) {
+			return title;
+		}
+		SpannableStringBuilder text = new SpannableStringBuilder(title);
+		text.append('\n');
+		final int start = text.length();
+		text.append(preview);
+		text.setSpan(new RelativeSizeSpan(previewSize), start, text.length(),
+				Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+		return text;
+	}
+}
@@ -0,0 +1,231 @@
+package com.example.android.honeypad;
+
+import java.util.Arrays;
+
+/**
+ * The SQL {@link NotesProvider} runs against the notes table, built here as
+ * plain strings with no Android classes so the benchmarks under benchmarks/
+ * time exactly the statements the provider runs. The same arguments always
+ * build the same string, so a statement the database has compiled once is
+ * found in its cache after that.
+ */
+final class NoteQueries {
+
+	private NoteQueries() {
+	}
+
+	static final String TABLE = "notes";
+
+	// columns the queries below are built from
+	static final String KEY_ID = "_id";
+	static final String KEY_SORT_KEY = "sort_key";
+	static final String KEY_INITIAL = "initial";
+
+	/**
+	 * The order of the list, by the collation keys of the titles
+	 */
+	static final String SORT_ORDER = KEY_SORT_KEY + " ASC, " + KEY_ID
+			+ " ASC";
+
+	/**
+	 * The list in reverse, for paging back from a note
+	 */
+	static final String REVERSE_SORT_ORDER = KEY_SORT_KEY + " DESC, "
+			+ KEY_ID + " DESC";
+
+	/**
+	 * Narrows a query to the notes matching a title filter, bound as made by
+	 * NotesProvider.toTitleMatchExpression
+	 */
+	static final String FILTER_WHERE = KEY_ID
+			+ " IN (SELECT docid FROM titles_fts WHERE titles_fts MATCH ?)";
+
+	/**
+	 * Notes read per query when exporting, & inserted per transaction when
+	 * importing
+	 */
+	static final int ARCHIVE_BATCH = 100;
+
+	/**
+	 * The next batch of notes to export, in id order after the id bound
+	 */
+	static final String EXPORT_BATCH = select(TABLE, new String[] { KEY_ID,
+			"title", "modified" }, KEY_ID + ">?", KEY_ID, String
+			.valueOf(ARCHIVE_BATCH));
+
+	private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+	/**
+	 * @return a collation key as an SQL blob literal, as selection arguments
+	 *         can only be bound as strings
+	 */
+	static String literalOf(byte[] key) {
+		StringBuilder literal = new StringBuilder(key.length * 2 + 3);
+		literal.append("X'");
+		for (byte b : key) {
+			literal.append(HEX_DIGITS[(b >> 4) & 0xf]).append(
+					HEX_DIGITS[b & 0xf]);
+		}
+		return literal.append('\'').toString();
+	}
+
+	/**
+	 * The notes with no sort key yet, which sort before all the others, in
+	 * id order, until the keys are made in the background
+	 */
+	static final String UNKEYED_WHERE = KEY_SORT_KEY + " IS NULL";
+
+	/**
+	 * @param keyLiteral
+	 *            the sort key literal of a note, or null if it has no key
+	 * @return the condition for the notes after that note, with its id
+	 *         bound, seeking through the sort key index rather than
+	 *         skipping an OFFSET worth of rows
+	 */
+	static String afterWhere(String keyLiteral) {
+		if (keyLiteral == null) {
+			return KEY_SORT_KEY + " IS NOT NULL OR " + KEY_ID + " > ?";
+		}
+		return KEY_SORT_KEY + " >= " + keyLiteral + " AND (" + KEY_SORT_KEY
+				+ " > " + keyLiteral + " OR " + KEY_ID + " > ?)";
+	}
+
+	/**
+	 * @param keyLiteral
+	 *            the sort key literal of a note, or null if it has no key
+	 * @param anyUnkeyed
+	 *            whether any note may have no key
+	 * @return the condition for the notes before that note, with its id
+	 *         bound
+	 */
+	static String beforeWhere(String keyLiteral, boolean anyUnkeyed) {
+		if (keyLiteral == null) {
+			return UNKEYED_WHERE + " AND " + KEY_ID + " < ?";
+		}
+		final String before = KEY_SORT_KEY + " <= " + keyLiteral + " AND ("
+				+ KEY_SORT_KEY + " < " + keyLiteral + " OR " + KEY_ID + " < ?)";
+		// only when there are any, as the OR stops the index seek
+		return anyUnkeyed ? UNKEYED_WHERE + " OR (" + before + ")" : before;
+	}
+
+	/**
+	 * @return the conditions that are given, each in brackets, joined by
+	 *         AND, or null if there are none
+	 */
+	static String and(String... conditions) {
+		StringBuilder where = null;
+		for (String condition : conditions) {
+			if (condition == null || condition.length() == 0) {
+				continue;
+			}
+			if (where == null) {
+				where = new StringBuilder();
+			} else {
+				where.append(" AND ");
+			}
+			where.append('(').append(condition).append(')');
+		}
+		return where != null ? where.toString() : null;
+	}
+
+	/**
+	 * @param columns
+	 *            the columns to read, or null for all of them
+	 * @param where
+	 *            the condition, or null for every row
+	 * @param orderBy
+	 *            the order, or null for any
+	 * @param limit
+	 *            the most rows, with any offset before a comma, or null for
+	 *            all of them
+	 * @return a query of a table
+	 */
+	static String select(String table, String[] columns, String where,
+			String orderBy, String limit) {
+		StringBuilder sql = new StringBuilder("SELECT ");
+		if (columns == null) {
+			sql.append('*');
+		}
+		for (int i = 0; columns != null && i < columns.length; i++) {
+			if (i > 0) {
+				sql.append(", ");
+			}
+			sql.append(columns[i]);
+		}
+		sql.append(" FROM ").append(table);
+		if (where != null) {
+			sql.append(" WHERE ").append(where);
+		}
+		if (orderBy != null) {
+			sql.append(" ORDER BY ").append(orderBy);
+		}
+		if (limit != null) {
+			sql.append(" LIMIT ").append(limit);
+		}
+		return sql.toString();
+	}
+
+	/**
+	 * @return the count of notes under each initial, read from the counts
+	 *         the triggers keep, or counted from the notes matching
+	 *         {@link #FILTER_WHERE} if it's filtered
+	 */
+	static String sections(boolean filtered) {
+		if (!filtered) {
+			return "SELECT " + KEY_INITIAL + ", count FROM initial_counts";
+		}
+		return "SELECT " + KEY_INITIAL + ", count(*) FROM " + TABLE
+				+ " WHERE " + FILTER_WHERE + " GROUP BY " + KEY_INITIAL;
+	}
+
+	/**
+	 * @return an insert of a row with the given columns, bound in order
+	 */
+	static String insert(String table, String[] columns) {
+		StringBuilder sql = new StringBuilder("INSERT INTO ").append(table)
+				.append(" (");
+		StringBuilder params = new StringBuilder();
+		for (int i = 0; i < columns.length; i++) {
+			if (i > 0) {
+				sql.append(',');
+				params.append(',');
+			}
+			sql.append(columns[i]);
+			params.append('?');
+		}
+		return sql.append(") VALUES (").append(params).append(')').toString();
+	}
+
+	/**
+	 * @return an update of the given columns of one row, bound in order &
+	 *         then the row's id
+	 */
+	static String updateById(String table, String idColumn, String[] columns) {
+		StringBuilder sql = new StringBuilder("UPDATE ").append(table).append(
+				" SET ");
+		for (int i = 0; i < columns.length; i++) {
+			if (i > 0) {
+				sql.append(',');
+			}
+			sql.append(columns[i]).append("=?");
+		}
+		return sql.append(" WHERE ").append(idColumn).append("=?").toString();
+	}
+
+	/**
+	 * @return a delete of one row, by its id
+	 */
+	static String deleteById(String table, String idColumn) {
+		return "DELETE FROM " + table + " WHERE " + idColumn + "=?";
+	}
+
+	/**
+	 * @return the columns of a write, in the order {@link NoteStatements}
+	 *         binds them
+	 */
+	static String[] sortedColumns(String... columns) {
+		String[] sorted = columns.clone();
+		Arrays.sort(sorted);
+		return sorted;
+	}
+}
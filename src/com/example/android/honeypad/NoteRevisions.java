@@ -0,0 +1,464 @@
+package com.example.android.honeypad;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.os.ParcelFileDescriptor;
+import android.util.LruCache;
+
+/**
+ * Note bodies, kept as an append-only log of revisions rather than in the
+ * notes table. Each save adds a delta replacing a range of the body, so a
+ * small edit to a long note writes about as much as was typed. Once a note
+ * has {@link #MAX_DELTAS} deltas since its last snapshot a new snapshot of
+ * the whole body is added, so reading any revision means applying at most
+ * that many deltas to a snapshot. Only the last {@link #KEEP_SNAPSHOTS}
+ * snapshots & the deltas after them are kept, older revisions are dropped.
+ *
+ * Positions in deltas count characters as SQLite's substr() does (code
+ * points), from 0. Text longer than {@link NoteText#COMPRESS_CHARS} is stored
+ * deflated, as a blob, when that makes it smaller; text written before that
+ * is deflated in the background, see {@link #deflateOld}. The notes table
+ * holds each note's latest revision & the revision of its latest snapshot;
+ * callers write those columns, as they're updating the note anyway.
+ */
+final class NoteRevisions {
+
+	static final String TABLE = "revisions";
+
+	// columns of the revisions table
+	static final String KEY_NOTE_ID = "note_id";
+	static final String KEY_SNAPSHOT = "snapshot";
+	static final String KEY_START = "start";
+	static final String KEY_DELETED = "deleted";
+	static final String KEY_TEXT = "text";
+	static final String KEY_COMPRESSED = "compressed";
+
+	// column of the notes table, the latest revision is in
+	// NotesProvider.KEY_REVISION
+	static final String KEY_SNAPSHOT_REVISION = "snapshot_revision";
+
+	// most deltas applied to a snapshot to read a body
+	private static final int MAX_DELTAS = 32;
+
+	// snapshots kept of each note, with their deltas that's at least
+	// (KEEP_SNAPSHOTS - 1) * MAX_DELTAS revisions of history. The app only
+	// reads the latest revision, older ones are just there for the
+	// provider's revisions Uri, so a note keeps no more than two copies of
+	// its body, one of them possibly deflated, plus MAX_DELTAS deltas.
+	private static final int KEEP_SNAPSHOTS = 2;
+
+	// the queue of revisions written before compression that are still to
+	// be deflated, by row id
+	private static final String DEFLATE_TABLE = "revisions_to_deflate";
+	private static final String KEY_REVISION_ID = "revision_id";
+
+	// most chars of saved bodies kept to compare the next save with
+	private static final int LATEST_BODY_CHARS = 512 * 1024;
+
+	private static final String[] LIST_COLUMNS = new String[] {
+			NotesProvider.KEY_REVISION, NotesProvider.KEY_MODIFIED };
+
+	// finds a note's snapshot at a revision
+	private static final String SNAPSHOT_WHERE = KEY_NOTE_ID + "=? AND "
+			+ KEY_SNAPSHOT + "=1 AND " + NotesProvider.KEY_REVISION + "=?";
+
+	private final SQLiteDatabase mDb;
+	private final String mNotesTable;
+	private final NoteStatements mStatements;
+
+	/**
+	 * A note's body as of a revision.
+	 */
+	private static final class LatestBody {
+		final long revision;
+		final String body;
+
+		LatestBody(long revision, String body) {
+			this.revision = revision;
+			this.body = body;
+		}
+	}
+
+	// the body last saved of each of the notes saved most recently. A body
+	// is only used while its revision is still the note's latest, so one
+	// left behind by a rolled back save is never used.
+	private final LruCache<Long, LatestBody> mLatestBodies = new LruCache<Long, LatestBody>(
+			LATEST_BODY_CHARS) {
+		@Override
+		protected int sizeOf(Long id, LatestBody latest) {
+			return latest.body.length();
+		}
+	};
+
+	NoteRevisions(SQLiteDatabase db, String notesTable) {
+		mDb = db;
+		mNotesTable = notesTable;
+		mStatements = new NoteStatements(db, TABLE, NotesProvider.KEY_ID);
+	}
+
+	/**
+	 * Starts the log for a new note, with its body as revision 0.
+	 */
+	void addNote(long id, String body, long modified) {
+		addSnapshot(id, 0, body, modified);
+	}
+
+	/**
+	 * @return the current body of a note, or null if there's no such note
+	 */
+	String readBody(long id) {
+		long[] revisions = revisions(id);
+		if (revisions == null) {
+			return null;
+		}
+		return build(id, revisions[1], revisions[0]);
+	}
+
+	/**
+	 * @return the body of a note as of the given revision, or null if there
+	 *         is no such note or revision
+	 */
+	String readBody(long id, long revision) {
+		long[] revisions = revisions(id);
+		if (revisions == null || revision < 0 || revision > revisions[0]) {
+			return null;
+		}
+		if (revision >= revisions[1]) {
+			return build(id, revisions[1], revision);
+		}
+		Cursor c = mDb.query(TABLE, LIST_COLUMNS, KEY_NOTE_ID + "=? AND "
+				+ KEY_SNAPSHOT + "=1 AND " + NotesProvider.KEY_REVISION
+				+ "<=?", new String[] { String.valueOf(id),
+				String.valueOf(revision) }, null, null,
+				NotesProvider.KEY_REVISION + " DESC", "1");
+		try {
+			return c.moveToFirst() ? build(id, c.getLong(0), revision) : null;
+		} finally {
+			c.close();
+		}
+	}
+
+	/**
+	 * Lists a note's revisions, newest first.
+	 */
+	Cursor listRevisions(long id) {
+		return mDb.query(TABLE, LIST_COLUMNS, KEY_NOTE_ID + "=? AND ("
+				+ KEY_SNAPSHOT + "=0 OR " + NotesProvider.KEY_REVISION
+				+ "=0)", new String[] { String.valueOf(id) }, null, null,
+				NotesProvider.KEY_REVISION + " DESC");
+	}
+
+	/**
+	 * Logs a new body for a note as a single delta from its current body,
+	 * adding the note's new revision columns to {@code noteValues}. Nothing
+	 * is logged if the body hasn't changed. The current body is the one last
+	 * saved, if it's still the latest revision, so a note saved over & over
+	 * isn't rebuilt from its revisions on every save.
+	 *
+	 * @return false if there's no such note
+	 */
+	boolean replaceBody(long id, String body, ContentValues noteValues) {
+		final long[] revisions = revisions(id);
+		if (revisions == null) {
+			return false;
+		}
+		final LatestBody latest = mLatestBodies.get(id);
+		final String current = latest != null
+				&& latest.revision == revisions[0] ? latest.body : build(id,
+				revisions[1], revisions[0]);
+		if (current == null) {
+			return false;
+		}
+
+		// the changed range is whatever lies between the common prefix &
+		// suffix, kept clear of the middle of any surrogate pair
+		final int limit = Math.min(current.length(), body.length());
+		int prefix = 0;
+		while (prefix < limit && current.charAt(prefix) == body.charAt(prefix)) {
+			prefix++;
+		}
+		if (prefix > 0 && Character.isHighSurrogate(current.charAt(prefix - 1))) {
+			prefix--;
+		}
+		int suffix = 0;
+		while (suffix < limit - prefix
+				&& current.charAt(current.length() - 1 - suffix) == body
+						.charAt(body.length() - 1 - suffix)) {
+			suffix++;
+		}
+		if (suffix > 0
+				&& Character.isLowSurrogate(current.charAt(current.length()
+						- suffix))) {
+			suffix--;
+		}
+		if (prefix == current.length() && prefix == body.length()) {
+			mLatestBodies.put(id, new LatestBody(revisions[0], current));
+			return true;
+		}
+
+		final int start = current.codePointCount(0, prefix);
+		final int deleted = current.codePointCount(prefix, current.length()
+				- suffix);
+		appendEdits(id, revisions, new int[] { start }, new int[] { deleted },
+				new String[] { body.substring(prefix, body.length() - suffix) },
+				noteValues);
+		mLatestBodies.put(id, new LatestBody(noteValues
+				.getAsLong(NotesProvider.KEY_REVISION), body));
+		return true;
+	}
+
+	/**
+	 * Logs edits to a note's body, each as a new revision, adding the note's
+	 * new revision columns to {@code noteValues}. A snapshot is added after
+	 * every {@link #MAX_DELTAS} of them, however many there are.
+	 *
+	 * @return false if there's no such note
+	 */
+	boolean appendEdits(long id, int[] starts, int[] lengths, String[] texts,
+			ContentValues noteValues) {
+		// the body last saved is no longer the latest
+		mLatestBodies.remove(id);
+		long[] revisions = revisions(id);
+		if (revisions == null) {
+			return false;
+		}
+		appendEdits(id, revisions, starts, lengths, texts, noteValues);
+		return true;
+	}
+
+	/**
+	 * Logs edits to a note's body after its given latest revision & latest
+	 * snapshot revision.
+	 */
+	private void appendEdits(long id, long[] revisions, int[] starts,
+			int[] lengths, String[] texts, ContentValues noteValues) {
+		final Long stamp = noteValues.getAsLong(NotesProvider.KEY_MODIFIED);
+		final long modified = stamp != null ? stamp : System
+				.currentTimeMillis();
+
+		long revision = revisions[0];
+		long snapshotRevision = revisions[1];
+		ContentValues delta = new ContentValues(7);
+		for (int i = 0; i < starts.length; i++) {
+			delta.put(KEY_NOTE_ID, id);
+			delta.put(NotesProvider.KEY_REVISION, ++revision);
+			delta.put(KEY_SNAPSHOT, 0);
+			delta.put(KEY_START, starts[i]);
+			delta.put(KEY_DELETED, lengths[i]);
+			putText(delta, texts[i]);
+			delta.put(NotesProvider.KEY_MODIFIED, modified);
+			mStatements.insert(delta);
+
+			if (revision - snapshotRevision >= MAX_DELTAS) {
+				// compact the deltas into a new snapshot, the old ones are
+				// kept for reading earlier revisions until dropOldRevisions()
+				addSnapshot(id, revision, build(id, snapshotRevision,
+						revision), modified);
+				snapshotRevision = revision;
+			}
+		}
+		noteValues.put(NotesProvider.KEY_REVISION, revision);
+		if (snapshotRevision != revisions[1]) {
+			noteValues.put(KEY_SNAPSHOT_REVISION, snapshotRevision);
+			dropOldRevisions(id);
+		}
+	}
+
+	/**
+	 * Deflates, in one transaction, a batch of the revisions queued by
+	 * NoteSchema's step 12: those written before compression that are long
+	 * enough to be worth it. Each one's text is read on its own, as it may be
+	 * too large for a cursor window.
+	 * 
+	 * @return the number of revisions taken off the queue, 0 once it's empty
+	 */
+	int deflateOld(int count) {
+		mDb.beginTransaction();
+		try {
+			Cursor c = mDb.query(DEFLATE_TABLE,
+					new String[] { KEY_REVISION_ID }, null, null, null, null,
+					null, String.valueOf(count));
+			try {
+				ContentValues values = new ContentValues(2);
+				while (c.moveToNext()) {
+					final long revisionId = c.getLong(0);
+					final String text = mStatements.stringById(KEY_TEXT,
+							revisionId);
+					// gone if it was dropped meanwhile, & left plain if
+					// deflating doesn't make it smaller
+					if (text != null) {
+						putText(values, text);
+						mStatements.updateById(revisionId, values);
+					}
+					mDb.delete(DEFLATE_TABLE, KEY_REVISION_ID + "=" + revisionId,
+							null);
+				}
+				mDb.setTransactionSuccessful();
+				return c.getCount();
+			} finally {
+				c.close();
+			}
+		} finally {
+			mDb.endTransaction();
+		}
+	}
+
+	/**
+	 * Drops the revisions before a note's {@link #KEEP_SNAPSHOTS}th latest
+	 * snapshot.
+	 */
+	private void dropOldRevisions(long id) {
+		final String[] args = new String[] { String.valueOf(id) };
+		Cursor c = mDb.query(TABLE, new String[] { NotesProvider.KEY_REVISION },
+				KEY_NOTE_ID + "=? AND " + KEY_SNAPSHOT + "=1", args, null, null,
+				NotesProvider.KEY_REVISION + " DESC", (KEEP_SNAPSHOTS - 1)
+						+ ",1");
+		try {
+			if (c.moveToFirst()) {
+				mDb.delete(TABLE, KEY_NOTE_ID + "=? AND "
+						+ NotesProvider.KEY_REVISION + "<?", new String[] {
+						args[0], String.valueOf(c.getLong(0)) });
+			}
+		} finally {
+			c.close();
+		}
+	}
+
+	private void addSnapshot(long id, long revision, String body,
+			long modified) {
+		ContentValues snapshot = new ContentValues(5);
+		snapshot.put(KEY_NOTE_ID, id);
+		snapshot.put(NotesProvider.KEY_REVISION, revision);
+		snapshot.put(KEY_SNAPSHOT, 1);
+		putText(snapshot, body);
+		snapshot.put(NotesProvider.KEY_MODIFIED, modified);
+		mStatements.insert(snapshot);
+	}
+
+	/**
+	 * Puts text into a revision, deflated if it's long & that saves space.
+	 */
+	private static void putText(ContentValues values, String text) {
+		final byte[] deflated = NoteText.deflate(text);
+		if (deflated != null) {
+			values.put(KEY_TEXT, deflated);
+			values.put(KEY_COMPRESSED, 1);
+		} else {
+			values.put(KEY_TEXT, text);
+			values.put(KEY_COMPRESSED, 0);
+		}
+	}
+
+	/**
+	 * Inflates the text of a compressed revision.
+	 */
+	private static String readText(InputStream deflated) {
+		try {
+			return NoteText.inflate(deflated);
+		} catch (IOException e) {
+			throw new SQLiteException("Couldn't read revision text: " + e);
+		}
+	}
+
+	/**
+	 * @return the latest revision & latest snapshot revision of a note, or
+	 *         null if there's no such note
+	 */
+	private long[] revisions(long id) {
+		Cursor c = mDb.query(mNotesTable, new String[] {
+				NotesProvider.KEY_REVISION, KEY_SNAPSHOT_REVISION },
+				NotesProvider.KEY_ID + "=?",
+				new String[] { String.valueOf(id) }, null, null, null);
+		try {
+			return c.moveToFirst() ? new long[] { c.getLong(0), c.getLong(1) }
+					: null;
+		} finally {
+			c.close();
+		}
+	}
+
+	/**
+	 * Applies the deltas after a snapshot up to the given revision.
+	 */
+	private String build(long id, long snapshot, long revision) {
+		final String base = readSnapshot(id, snapshot);
+		if (base == null || revision == snapshot) {
+			return base;
+		}
+
+		StringBuilder body = new StringBuilder(base);
+		// until a surrogate pair turns up chars & code points line up
+		boolean plain = !hasSurrogates(base);
+		Cursor c = mDb.query(TABLE, new String[] { KEY_START, KEY_DELETED,
+				KEY_TEXT, KEY_COMPRESSED }, KEY_NOTE_ID + "=? AND "
+				+ KEY_SNAPSHOT + "=0 AND " + NotesProvider.KEY_REVISION + ">? AND "
+				+ NotesProvider.KEY_REVISION + "<=?", new String[] {
+				String.valueOf(id), String.valueOf(snapshot),
+				String.valueOf(revision) }, null, null,
+				NotesProvider.KEY_REVISION);
+		try {
+			while (c.moveToNext()) {
+				final String text = c.getInt(3) != 0 ? readText(new ByteArrayInputStream(
+						c.getBlob(2))) : c.getString(2);
+				final int from = offsetOf(body, 0, c.getInt(0), plain);
+				final int to = offsetOf(body, from, c.getInt(1), plain);
+				body.replace(from, to, text);
+				plain = plain && !hasSurrogates(text);
+			}
+		} finally {
+			c.close();
+		}
+		return body.toString();
+	}
+
+	/**
+	 * Reads a snapshot's text directly rather than through a cursor, as it
+	 * may be too large for a cursor window.
+	 * 
+	 * @return the text, or null if there's no such snapshot
+	 */
+	private String readSnapshot(long id, long snapshot) {
+		final long compressed = mStatements.longWhere(KEY_COMPRESSED, -1,
+				SNAPSHOT_WHERE, id, snapshot);
+		if (compressed == 0) {
+			return mStatements.stringWhere(KEY_TEXT, SNAPSHOT_WHERE, id,
+					snapshot);
+		}
+		// the blob is handed over in shared memory & inflated as it's read
+		final ParcelFileDescriptor text = compressed > 0 ? mStatements
+				.blobWhere(KEY_TEXT, SNAPSHOT_WHERE, id, snapshot) : null;
+		return text != null ? readText(new ParcelFileDescriptor.AutoCloseInputStream(
+				text)) : null;
+	}
+
+	/**
+	 * @return the char offset the given number of code points after
+	 *         {@code from}, stopping at the end as substr() does
+	 */
+	private static int offsetOf(StringBuilder text, int from, int codePoints,
+			boolean plain) {
+		if (plain) {
+			return (int) Math.min((long) from + codePoints, text.length());
+		}
+		int offset = from;
+		for (int i = 0; i < codePoints && offset < text.length(); i++) {
+			offset += Character.charCount(Character.codePointAt(text, offset));
+		}
+		return offset;
+	}
+
+	private static boolean hasSurrogates(String text) {
+		for (int i = 0; i < text.length(); i++) {
+			if (Character.isHighSurrogate(text.charAt(i))) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
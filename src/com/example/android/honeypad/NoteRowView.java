@@ -0,0 +1,69 @@
+package com.example.android.honeypad;
+
+import android.content.Context;
+import android.util.AttributeSet;
+import android.view.View;
+import android.widget.Checkable;
+import android.widget.CheckedTextView;
+import android.widget.LinearLayout;
+import android.widget.TextView;
+
+/**
+ * A row of the note list, showing a note's title with the preview of its
+ * body below. The text is set straight from the list's chars, which the
+ * views wrap rather than copy, so binding a row makes no objects. The list
+ * checks the row, which passes that on to the title's check mark.
+ */
+public class NoteRowView extends LinearLayout implements Checkable {
+
+	private CheckedTextView mTitle;
+	private TextView mPreview;
+
+	public NoteRowView(Context context, AttributeSet attrs) {
+		super(context, attrs);
+	}
+
+	@Override
+	protected void onFinishInflate() {
+		super.onFinishInflate();
+		mTitle = (CheckedTextView) findViewById(android.R.id.text1);
+		mPreview = (TextView) findViewById(R.id.preview);
+	}
+
+	/**
+	 * Shows the note at a position of the list.
+	 */
+	void bind(NoteList notes, int position) {
+		final char[] chars = notes.chars();
+		mTitle.setText(chars, notes.titleStart(position),
+				notes.titleLength(position));
+		final int previewLength = notes.previewLength(position);
+		if (previewLength > 0) {
+			mPreview.setText(chars, notes.previewStart(position),
+					previewLength);
+			mPreview.setVisibility(View.VISIBLE);
+		} else {
+			mPreview.setVisibility(View.GONE);
+		}
+	}
+
+	/**
+	 * Shows nothing, for a note that hasn't been loaded yet.
+	 */
+	void clear() {
+		mTitle.setText(null);
+		mPreview.setVisibility(View.GONE);
+	}
+
+	public void setChecked(boolean checked) {
+		mTitle.setChecked(checked);
+	}
+
+	public boolean isChecked() {
+		return mTitle.isChecked();
+	}
+
+	public void toggle() {
+		mTitle.toggle();
+	}
+}
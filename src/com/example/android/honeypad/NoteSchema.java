@@ -0,0 +1,178 @@
+package com.example.android.honeypad;
+
+/**
+ * The schema of the notes database as plain SQL: the version 1 table every
+ * database starts from, & the steps that bring it up to date. It uses no
+ * Android classes, so the same steps can be run against a desktop SQLite by
+ * the tests & benchmarks under benchmarks/.
+ */
+final class NoteSchema {
+
+	private NoteSchema() {
+	}
+
+	/**
+	 * The version 1 schema, which {@link #MIGRATIONS} then bring up to date
+	 */
+	static final String CREATE = "create table notes (_id integer primary key autoincrement, "
+			+ "title text not null, body text not null);";
+
+	/**
+	 * Every schema change since the first release, in order, as the
+	 * statements taking the schema from version {@code i + 1} to
+	 * {@code i + 2} while keeping all existing notes. A new database is
+	 * created at version 1 and then taken through all of these, so a fresh
+	 * install always ends up with the same schema as an upgraded one. Steps
+	 * must never be changed once released, add a new one instead.
+	 */
+	static final String[][] MIGRATIONS = {
+
+	// 2: full-text index over the notes, the docid of each row is the _id of
+	// the note it indexes & the triggers keep it in sync with the notes table
+	new String[] {
+			"create virtual table notes_fts using fts3(title, body);",
+			"create trigger notes_fts_ai after insert on notes begin "
+					+ "insert into notes_fts (docid, title, body) values (new._id, new.title, new.body); end;",
+			"create trigger notes_fts_au after update on notes begin "
+					+ "update notes_fts set title = new.title, body = new.body where docid = old._id; end;",
+			"create trigger notes_fts_ad after delete on notes begin "
+					+ "delete from notes_fts where docid = old._id; end;",
+			"insert into notes_fts (docid, title, body) select _id, title, body from notes;" },
+
+	// 3: modified timestamp, plus indexes for the title sort order & the
+	// modified time. Only re-index a note when its text changes, the old
+	// trigger is dropped first so stamping every note doesn't re-index it.
+	new String[] {
+			"drop trigger notes_fts_au;",
+			"alter table notes add column modified integer not null default 0;",
+			"update notes set modified = strftime('%s', 'now') * 1000;",
+			"create index notes_title on notes (title collate localized, _id);",
+			"create index notes_modified on notes (modified);",
+			"create trigger notes_fts_au after update of title, body on notes begin "
+					+ "update notes_fts set title = new.title, body = new.body where docid = old._id; end;" },
+
+	// 4: bodies move to an append-only log of revisions, each note starting
+	// with a snapshot of its body as revision 0. The search index is kept up
+	// to date by the provider rather than triggers, as the body is no longer
+	// in the notes table.
+	new String[] {
+			"create table revisions (_id integer primary key autoincrement, "
+					+ "note_id integer not null, revision integer not null, snapshot integer not null, "
+					+ "start integer not null default 0, deleted integer not null default 0, "
+					+ "text text not null, modified integer not null);",
+			"create index revisions_note on revisions (note_id, snapshot, revision);",
+			"alter table notes add column revision integer not null default 0;",
+			"alter table notes add column snapshot_revision integer not null default 0;",
+			"alter table notes add column search_indexed integer not null default 1;",
+			"drop trigger notes_fts_ai;",
+			"drop trigger notes_fts_au;",
+			"create trigger notes_revisions_ad after delete on notes begin "
+					+ "delete from revisions where note_id = old._id; end;",
+			"insert into revisions (note_id, revision, snapshot, text, modified) "
+					+ "select _id, 0, 1, body, modified from notes;",
+			"update notes set body = '';" },
+
+	// 5: long revision text may be stored deflated, as a blob. Existing
+	// revisions are left as they are, new snapshots replace them over time.
+	new String[] { "alter table revisions add column compressed integer not null default 0;" },
+
+	// 6: notes are sorted by a collation key of the title, made for the
+	// locale recorded in the collation table. The keys are filled in the
+	// background once the database is opened, as the table starts out empty.
+	new String[] { "alter table notes add column sort_key blob;",
+			"create table collation (locale text not null);",
+			"drop index notes_title;",
+			"create index notes_sort_key on notes (sort_key, _id);" },
+
+	// 7: a preview of each note's body, left null here to be filled in the
+	// background once the database is open
+	new String[] { "alter table notes add column preview text;" },
+
+	// 8: finds the notes waiting to be re-indexed without a scan of the table
+	new String[] { "create index notes_search_indexed on notes (search_indexed);" },
+
+	// 9: keys for a new locale are made here in the background, while the
+	// old ones in sort_key keep the notes in order
+	new String[] { "alter table notes add column next_sort_key blob;" },
+
+	// 10: an index of the titles alone for the list's filter, kept up to date
+	// by triggers as titles are short, so a filter always finds a note the
+	// moment it's saved without waiting on the search index
+	new String[] {
+			"create virtual table titles_fts using fts3(title);",
+			"create trigger titles_fts_ai after insert on notes begin "
+					+ "insert into titles_fts (docid, title) values (new._id, new.title); end;",
+			"create trigger titles_fts_au after update of title on notes begin "
+					+ "update titles_fts set title = new.title where docid = old._id; end;",
+			"create trigger titles_fts_ad after delete on notes begin "
+					+ "delete from titles_fts where docid = old._id; end;",
+			"insert into titles_fts (docid, title) select _id, title from notes;" },
+
+	// 11: the first character of each title, indexed so the notes can be
+	// counted by it for the list's sections from the index alone
+	new String[] {
+			"alter table notes add column initial text not null default '';",
+			"update notes set initial = substr(title, 1, 1);",
+			"create index notes_initial on notes (initial);" },
+
+	// 12: revisions written before step 5 are never deflated by saves, as
+	// only new text is. Those long enough to be worth it (COMPRESS_CHARS in
+	// NoteText) are queued here, as SQL can't deflate, & deflated in
+	// batches in the background once the database is open.
+	new String[] {
+			"create table revisions_to_deflate (revision_id integer primary key);",
+			"insert into revisions_to_deflate select _id from revisions "
+					+ "where compressed = 0 and length(text) >= 4096;" },
+
+	// 13: the initial becomes the first letter the collator sorts by, so a
+	// contraction such as Czech "ch" has its own section, & is made with
+	// the sort key, beside next_sort_key for the next locale. The notes are
+	// counted by initial in a table kept up to date by triggers, so the
+	// list's sections are read without counting every note. Keys recorded
+	// before this have their initials made again, with the keys, in the
+	// background.
+	new String[] {
+			"alter table notes add column next_initial text;",
+			"alter table collation add column initials_made integer not null default 0;",
+			"create table initial_counts (initial text primary key, count integer not null);",
+			"create trigger initial_counts_ai after insert on notes begin "
+					+ "insert or ignore into initial_counts values (new.initial, 0); "
+					+ "update initial_counts set count = count + 1 where initial = new.initial; end;",
+			"create trigger initial_counts_au after update of initial on notes "
+					+ "when old.initial != new.initial begin "
+					+ "update initial_counts set count = count - 1 where initial = old.initial; "
+					+ "delete from initial_counts where initial = old.initial and count = 0; "
+					+ "insert or ignore into initial_counts values (new.initial, 0); "
+					+ "update initial_counts set count = count + 1 where initial = new.initial; end;",
+			"create trigger initial_counts_ad after delete on notes begin "
+					+ "update initial_counts set count = count - 1 where initial = old.initial; "
+					+ "delete from initial_counts where initial = old.initial and count = 0; end;",
+			"insert into initial_counts select initial, count(*) from notes group by initial;",
+			"drop index notes_initial;" } };
+
+	// the version the steps above bring a database up to
+	static final int VERSION = MIGRATIONS.length + 1;
+
+	/**
+	 * Sets the collation key & initial of one note's title, see
+	 * {@link TitleSortKeys}
+	 */
+	static final String UPDATE_SORT_KEY = "UPDATE notes SET sort_key=?, initial=? WHERE _id=?";
+
+	/**
+	 * Sets the collation key & initial of one note's title for the next
+	 * locale
+	 */
+	static final String UPDATE_NEXT_SORT_KEY = "UPDATE notes SET next_sort_key=?, next_initial=? WHERE _id=?";
+
+	/**
+	 * Puts the keys & initials made for the next locale in place of the
+	 * current ones. Rebuilding the index afterwards is quicker than
+	 * updating it a row at a time.
+	 */
+	static final String[] SWAP_SORT_KEYS = {
+			"drop index notes_sort_key;",
+			"update notes set sort_key = next_sort_key, next_sort_key = null, "
+					+ "initial = next_initial, next_initial = null;",
+			"create index notes_sort_key on notes (sort_key, _id);" };
+}
@@ -0,0 +1,148 @@
+package com.example.android.honeypad;
+
+import java.text.CollationElementIterator;
+import java.text.Collator;
+import java.text.RuleBasedCollator;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Locale;
+
+/**
+ * Turns counts of notes by the first letter of their titles into the
+ * sections of the list, in the order the notes are sorted. A letter is what
+ * the collator sorts as one, so a contraction such as Czech "ch", which
+ * sorts after "h", is a letter of its own. Letters that only differ by case
+ * or accent, which sort together, share a section. The list uses the same
+ * comparison to move its counts along as notes change. It uses no Android
+ * classes, so the tests & benchmarks under benchmarks/ run it too.
+ */
+final class NoteSections {
+
+	// column of the notes table, the first letter of the title in the
+	// locale of its sort key, & of the next locale's beside next_sort_key
+	static final String KEY_INITIAL = NoteQueries.KEY_INITIAL;
+	static final String KEY_NEXT_INITIAL = "next_initial";
+
+	// the label of the section of notes with empty titles
+	private static final String EMPTY_LABEL = "#";
+
+	private final Locale mLocale;
+	private final Collator mCollator;
+
+	// compares in full, as the notes are sorted
+	private final Collator mOrder;
+
+	// steps through the collation elements of a title, reused for each
+	private final CollationElementIterator mLetters;
+
+	NoteSections(Locale locale) {
+		mLocale = locale;
+		mCollator = Collator.getInstance(locale);
+		mCollator.setStrength(Collator.PRIMARY);
+		mOrder = Collator.getInstance(locale);
+		mLetters = lettersOf(mOrder);
+	}
+
+	/**
+	 * @return an iterator over the collation elements of the collator's
+	 *         titles, for {@link #initialOf(CollationElementIterator, String)}
+	 */
+	static CollationElementIterator lettersOf(Collator collator) {
+		return ((RuleBasedCollator) collator).getCollationElementIterator("");
+	}
+
+	/**
+	 * @return the first letter of a title, in this locale
+	 */
+	String initialOf(String title) {
+		return initialOf(mLetters, title);
+	}
+
+	/**
+	 * @param letters
+	 *            the elements of the locale's collator, from
+	 *            {@link #lettersOf}
+	 * @return the start of a title up to the end of its first letter, the
+	 *         first collation element that sorts by more than accent or
+	 *         case, or "" if it has none. A title never sorts before its
+	 *         initial, so the notes can be sought from it.
+	 */
+	static String initialOf(CollationElementIterator letters, String title) {
+		letters.setText(title);
+		int element;
+		while ((element = letters.next()) != CollationElementIterator.NULLORDER) {
+			if (CollationElementIterator.primaryOrder(element) != 0) {
+				// a char expanding to several elements may not move the
+				// offset on
+				return title.substring(0, Math.max(letters.getOffset(),
+						Character.charCount(title.codePointAt(0))));
+			}
+		}
+		return "";
+	}
+
+	/**
+	 * @return the label of the section of notes with titles starting with
+	 *         an initial, its letter without anything ignored before it
+	 */
+	String labelOf(String initial) {
+		mLetters.setText(initial);
+		int start = 0;
+		int element;
+		while ((element = mLetters.next()) != CollationElementIterator.NULLORDER
+				&& CollationElementIterator.primaryOrder(element) == 0) {
+			start = mLetters.getOffset();
+		}
+		return start < initial.length() ? initial.substring(start)
+				.toUpperCase(mLocale) : EMPTY_LABEL;
+	}
+
+	/**
+	 * @param initials
+	 *            one initial from each section, in order
+	 * @return the section an initial falls in, or
+	 *         {@code -(insertion point) - 1} if none of them
+	 */
+	int indexOf(String[] initials, String initial) {
+		return Arrays.binarySearch(initials, initial, mCollator);
+	}
+
+	/**
+	 * @param firsts
+	 *            the initials of the titles, in any order
+	 * @param counts
+	 *            the number of notes starting with each
+	 * @return a row for each section, in order, of its label, its number of
+	 *         notes & the initial none of its notes sort before
+	 */
+	Object[][] sections(final String[] firsts, int[] counts) {
+		Integer[] order = new Integer[firsts.length];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return mCollator.compare(firsts[a], firsts[b]);
+			}
+		});
+
+		Object[][] sections = new Object[order.length][];
+		int size = 0;
+		for (int i = 0; i < order.length;) {
+			final String first = firsts[order[i]];
+			// the initial sorting first, which none of the section's notes
+			// sort before, so the list can seek to the section from it
+			String from = first;
+			int count = 0;
+			do {
+				if (mOrder.compare(firsts[order[i]], from) < 0) {
+					from = firsts[order[i]];
+				}
+				count += counts[order[i++]];
+			} while (i < order.length
+					&& mCollator.compare(first, firsts[order[i]]) == 0);
+			sections[size++] = new Object[] { labelOf(first), count, from };
+		}
+		return Arrays.copyOf(sections, size);
+	}
+}
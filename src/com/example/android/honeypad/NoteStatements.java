@@ -0,0 +1,315 @@
+package com.example.android.honeypad;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteStatement;
+import android.os.ParcelFileDescriptor;
+
+/**
+ * Cache of compiled statements for the fixed-shape writes made by
+ * {@link NotesProvider}: inserts, and updates & deletes of a single note by
+ * id, along with reads of one column of a row made alongside them, with
+ * the SQL built by {@link NoteQueries}. Each
+ * distinct set of columns is compiled once and from then on only has its
+ * parameters bound, so SQLite doesn't have to parse the SQL again. Queries
+ * of a note by id need a cursor, which a compiled statement can't give, so
+ * their SQL is built once for each set of columns instead & the same string
+ * passed every time, finding it compiled in the database's own cache.
+ * 
+ * A statement can only be bound & run by one thread at a time. SQLite only
+ * allows one writer at a time anyway, so every write holds the lock on this
+ * cache while it runs. That lock is always taken inside a transaction, so
+ * the database is locked first & a batch already holding it can't deadlock
+ * against another writer.
+ */
+final class NoteStatements {
+
+	// the most column sets we keep statements for, each of insert & update
+	private static final int MAX_SHAPES = 8;
+
+	private final SQLiteDatabase mDb;
+	private final String mTable;
+	private final String mIdColumn;
+
+	private final Map<String, SQLiteStatement> mInserts = new StatementMap();
+	private final Map<String, SQLiteStatement> mUpdates = new StatementMap();
+	private final Map<String, SQLiteStatement> mSelects = new StatementMap();
+	private final Map<String, String> mQueries = new QueryMap();
+	private SQLiteStatement mDelete;
+
+	NoteStatements(SQLiteDatabase db, String table, String idColumn) {
+		mDb = db;
+		mTable = table;
+		mIdColumn = idColumn;
+	}
+
+	/**
+	 * Inserts a row.
+	 * 
+	 * @return the row id of the new row
+	 */
+	long insert(ContentValues values) {
+		String[] columns = sortedColumns(values);
+		mDb.beginTransaction();
+		try {
+			long rowId;
+			synchronized (this) {
+				SQLiteStatement insert = insertStatement(columns);
+				bindAll(insert, values, columns);
+				rowId = insert.executeInsert();
+			}
+			mDb.setTransactionSuccessful();
+			return rowId;
+		} finally {
+			mDb.endTransaction();
+		}
+	}
+
+	/**
+	 * Updates the given columns of a single row.
+	 * 
+	 * @return the number of rows updated
+	 */
+	int updateById(long id, ContentValues values) {
+		String[] columns = sortedColumns(values);
+		if (columns.length == 0) {
+			throw new IllegalArgumentException("Empty values");
+		}
+		mDb.beginTransaction();
+		try {
+			int count;
+			synchronized (this) {
+				SQLiteStatement update = updateStatement(columns);
+				bindAll(update, values, columns);
+				update.bindLong(columns.length + 1, id);
+				count = update.executeUpdateDelete();
+			}
+			mDb.setTransactionSuccessful();
+			return count;
+		} finally {
+			mDb.endTransaction();
+		}
+	}
+
+	/**
+	 * Deletes a single row.
+	 * 
+	 * @return the number of rows deleted
+	 */
+	int deleteById(long id) {
+		mDb.beginTransaction();
+		try {
+			int count;
+			synchronized (this) {
+				if (mDelete == null) {
+					mDelete = mDb.compileStatement(NoteQueries.deleteById(
+							mTable, mIdColumn));
+				}
+				mDelete.bindLong(1, id);
+				count = mDelete.executeUpdateDelete();
+			}
+			mDb.setTransactionSuccessful();
+			return count;
+		} finally {
+			mDb.endTransaction();
+		}
+	}
+
+	/**
+	 * Reads a text column of a single row.
+	 * 
+	 * @return the column's value, or null if there's no such row
+	 */
+	String stringById(String column, long id) {
+		return stringWhere(column, mIdColumn + "=?", id);
+	}
+
+	/**
+	 * Reads a text column of the first row matching a condition.
+	 * 
+	 * @param where
+	 *            the condition, the same few conditions should be used
+	 *            over & over as each is compiled once
+	 * @param args
+	 *            the condition's parameters
+	 * @return the column's value, or null if no row matches
+	 */
+	String stringWhere(String column, String where, long... args) {
+		synchronized (this) {
+			try {
+				return select(column, where, args).simpleQueryForString();
+			} catch (SQLiteDoneException e) {
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * Reads an integer column of the first row matching a condition, see
+	 * {@link #stringWhere}.
+	 * 
+	 * @return the column's value, or {@code missing} if no row matches
+	 */
+	long longWhere(String column, long missing, String where, long... args) {
+		synchronized (this) {
+			try {
+				return select(column, where, args).simpleQueryForLong();
+			} catch (SQLiteDoneException e) {
+				return missing;
+			}
+		}
+	}
+
+	/**
+	 * Reads a blob column of the first row matching a condition, see
+	 * {@link #stringWhere}, handed over in shared memory as it may be too
+	 * large for a cursor window.
+	 * 
+	 * @return the column's value, or null if no row matches
+	 */
+	ParcelFileDescriptor blobWhere(String column, String where, long... args) {
+		synchronized (this) {
+			try {
+				return select(column, where, args)
+						.simpleQueryForBlobFileDescriptor();
+			} catch (SQLiteDoneException e) {
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * @return the compiled select of a column, with the parameters bound.
+	 *         Call holding the lock on this cache.
+	 */
+	private SQLiteStatement select(String column, String where, long[] args) {
+		final String key = column + " WHERE " + where;
+		SQLiteStatement select = mSelects.get(key);
+		if (select == null) {
+			select = mDb.compileStatement(NoteQueries.select(mTable,
+					new String[] { column }, where, null, null));
+			mSelects.put(key, select);
+		}
+		for (int i = 0; i < args.length; i++) {
+			select.bindLong(i + 1, args[i]);
+		}
+		return select;
+	}
+
+	/**
+	 * Queries the given columns of a single row.
+	 * 
+	 * @param columns
+	 *            the columns to read, or null for all of them
+	 */
+	Cursor queryById(String[] columns, long id) {
+		final String key = columns != null ? Arrays.toString(columns) : "*";
+		String sql;
+		synchronized (mQueries) {
+			sql = mQueries.get(key);
+			if (sql == null) {
+				sql = NoteQueries.select(mTable, columns, mIdColumn + "=?",
+						null, null);
+				mQueries.put(key, sql);
+			}
+		}
+		return mDb.rawQuery(sql, new String[] { String.valueOf(id) });
+	}
+
+	private SQLiteStatement insertStatement(String[] columns) {
+		String key = Arrays.toString(columns);
+		SQLiteStatement insert = mInserts.get(key);
+		if (insert == null) {
+			insert = mDb.compileStatement(NoteQueries.insert(mTable, columns));
+			mInserts.put(key, insert);
+		}
+		return insert;
+	}
+
+	private SQLiteStatement updateStatement(String[] columns) {
+		String key = Arrays.toString(columns);
+		SQLiteStatement update = mUpdates.get(key);
+		if (update == null) {
+			update = mDb.compileStatement(NoteQueries.updateById(mTable,
+					mIdColumn, columns));
+			mUpdates.put(key, update);
+		}
+		return update;
+	}
+
+	private static String[] sortedColumns(ContentValues values) {
+		return NoteQueries.sortedColumns(values.keySet().toArray(
+				new String[values.size()]));
+	}
+
+	private static void bindAll(SQLiteStatement statement,
+			ContentValues values, String[] columns) {
+		for (int i = 0; i < columns.length; i++) {
+			bind(statement, i + 1, values.get(columns[i]));
+		}
+	}
+
+	private static void bind(SQLiteStatement statement, int index, Object value) {
+		if (value == null) {
+			statement.bindNull(index);
+		} else if (value instanceof String) {
+			statement.bindString(index, (String) value);
+		} else if (value instanceof Float || value instanceof Double) {
+			statement.bindDouble(index, ((Number) value).doubleValue());
+		} else if (value instanceof Number) {
+			statement.bindLong(index, ((Number) value).longValue());
+		} else if (value instanceof Boolean) {
+			statement.bindLong(index, ((Boolean) value) ? 1 : 0);
+		} else if (value instanceof byte[]) {
+			statement.bindBlob(index, (byte[]) value);
+		} else {
+			statement.bindString(index, value.toString());
+		}
+	}
+
+	/**
+	 * Keeps the most recently used statements, closing any that fall out.
+	 */
+	private static class StatementMap extends
+			LinkedHashMap<String, SQLiteStatement> {
+
+		private static final long serialVersionUID = 1L;
+
+		StatementMap() {
+			super(MAX_SHAPES, 0.75f, true);
+		}
+
+		@Override
+		protected boolean removeEldestEntry(
+				Map.Entry<String, SQLiteStatement> eldest) {
+			if (size() > MAX_SHAPES) {
+				eldest.getValue().close();
+				return true;
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * Keeps the SQL of the most recently used queries.
+	 */
+	private static class QueryMap extends LinkedHashMap<String, String> {
+
+		private static final long serialVersionUID = 1L;
+
+		QueryMap() {
+			super(MAX_SHAPES, 0.75f, true);
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+			return size() > MAX_SHAPES;
+		}
+	}
+}
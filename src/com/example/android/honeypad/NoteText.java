@@ -0,0 +1,73 @@
+package com.example.android.honeypad;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * How {@link NoteRevisions} stores long text: deflated UTF-8, when that's
+ * smaller. It uses no Android classes, so the benchmarks under benchmarks/
+ * measure the same compression.
+ */
+final class NoteText {
+
+	private NoteText() {
+	}
+
+	/**
+	 * Shortest text worth compressing, also in NoteSchema's step 12
+	 */
+	static final int COMPRESS_CHARS = 4 * 1024;
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	/**
+	 * @return the text deflated, or null if it's too short to be worth it
+	 *         or deflating doesn't make it smaller
+	 */
+	static byte[] deflate(String text) {
+		if (text.length() < COMPRESS_CHARS) {
+			return null;
+		}
+		byte[] raw = text.getBytes(UTF_8);
+		ByteArrayOutputStream deflated = new ByteArrayOutputStream(
+				raw.length / 2);
+		try {
+			OutputStream out = new DeflaterOutputStream(deflated);
+			out.write(raw);
+			out.close();
+		} catch (IOException e) {
+			// can't happen writing to memory
+			throw new IllegalStateException(e);
+		}
+		return deflated.size() < raw.length ? deflated.toByteArray() : null;
+	}
+
+	/**
+	 * Inflates text made by {@link #deflate}, closing the stream.
+	 */
+	static String inflate(InputStream deflated) throws IOException {
+		Reader reader = new InputStreamReader(new InflaterInputStream(
+				deflated), UTF_8);
+		try {
+			StringBuilder text = new StringBuilder();
+			char[] buffer = new char[8 * 1024];
+			for (int count; (count = reader.read(buffer)) != -1;) {
+				text.append(buffer, 0, count);
+			}
+			return text.toString();
+		} finally {
+			try {
+				reader.close();
+			} catch (IOException e) {
+				// nothing more to read anyway
+			}
+		}
+	}
+}
@@ -6,9 +6,11 @@ import android.animation.ObjectAnimator;
 import android.app.Activity;
 import android.app.FragmentManager;
 import android.app.FragmentTransaction;
+import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.Intent;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.view.Menu;
 import android.view.MenuItem;
@@ -33,12 +35,29 @@ public class NotepadActivity extends Activity implements NoteListEventsCallback
 	@Override
 	public void onCreate(Bundle savedInstanceState) {
 		super.onCreate(savedInstanceState);
+		if (savedInstanceState == null) {
+			warmUpNotes();
+		}
 		setContentView(R.layout.notepad);
 		if (ACTION_VIEW_NOTE.equals(getIntent().getAction())) {
 			viewNote(getIntent());
 		}
 	}
 
+	/**
+	 * Has the provider open its database in the background, so it's ready by
+	 * the time the list loads rather than opened by the first query.
+	 */
+	private void warmUpNotes() {
+		final ContentResolver resolver = getContentResolver();
+		AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+			public void run() {
+				resolver.call(NotesProvider.CONTENT_URI,
+						NotesProvider.METHOD_WARM_UP, null, null);
+			}
+		});
+	}
+
 	@Override
 	protected void onNewIntent(Intent intent) {
 		super.onNewIntent(intent);
@@ -1,19 +1,44 @@
 package com.example.android.honeypad;
 
+import java.io.BufferedWriter;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.MatrixCursor;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
-import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteTransactionListener;
 import android.net.Uri;
+import android.os.AsyncTask;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.ParcelFileDescriptor;
+import android.os.SystemClock;
 import android.text.TextUtils;
 import android.util.Log;
 
+import com.example.android.honeypad.widget.WidgetRefreshDispatcher;
+
 public class NotesProvider extends ContentProvider {
 
 	public static final String AUTHORITY = "com.example.android.honeypad.notesprovider";
@@ -23,131 +48,1783 @@ public class NotesProvider extends ContentProvider {
 	public static final Uri CONTENT_URI = Uri.parse("content://" + AUTHORITY
 			+ "/notes");
 
-	// The underlying database
-	private SQLiteDatabase notesDB;
+	// full-text search over title & body, pass the search terms in the
+	// PARAM_QUERY query parameter. Saved notes are re-indexed a couple of
+	// seconds later, observers are notified when that changes the results.
+	public static final Uri SEARCH_URI = Uri.withAppendedPath(CONTENT_URI,
+			"search");
+	public static final String PARAM_QUERY = "q";
+
+	// the order notes are listed in, by title then by id to break ties. The
+	// titles are compared by collation keys made for the current locale.
+	public static final String DEFAULT_SORT_ORDER = NoteQueries.SORT_ORDER;
+
+	// paged listing of CONTENT_URI: PARAM_LIMIT caps the number of rows, and
+	// PARAM_AFTER_TITLE & PARAM_AFTER_ID give the last row of the previous
+	// page. Paged queries are always in DEFAULT_SORT_ORDER, except that
+	// PARAM_BEFORE_TITLE & PARAM_BEFORE_ID give the first row of the next
+	// page instead & the rows come in reverse. PARAM_OFFSET skips rows at
+	// the start of a page, to seek into the middle of a run of notes from
+	// its first, the skipped rows are still read so keep it small.
+	public static final String PARAM_LIMIT = "limit";
+	public static final String PARAM_AFTER_TITLE = "after_title";
+	public static final String PARAM_AFTER_ID = "after_id";
+	public static final String PARAM_BEFORE_TITLE = "before_title";
+	public static final String PARAM_BEFORE_ID = "before_id";
+	public static final String PARAM_OFFSET = "offset";
+
+	// narrows a listing of CONTENT_URI to the notes with a word in their
+	// title starting with each word of PARAM_FILTER, using a full-text
+	// index of the titles
+	public static final String PARAM_FILTER = "filter";
+
+	// the sections of the list for fast scrolling, each a label & the
+	// number of notes in it, in DEFAULT_SORT_ORDER. Takes PARAM_FILTER too.
+	// The cursor's extras hold the EXTRA_CHANGE_SEQ of the last change the
+	// counts include, or -1 if the notes kept changing while counted, & the
+	// EXTRA_LOCALE the notes' KEY_SORT_KEYs were made for, as written by
+	// Locale.toString().
+	public static final Uri SECTIONS_URI = Uri.withAppendedPath(CONTENT_URI,
+			"sections");
+	public static final String EXTRA_LOCALE = "locale";
+
+	// row level changes: query CHANGES_URI with the PARAM_SINCE parameter set
+	// to the last change seen (as returned by METHOD_GET_CHANGE_SEQ when
+	// loading) to get the id & kind of each change made since, & the
+	// note's title before any delete or change of title
+	public static final Uri CHANGES_URI = Uri.withAppendedPath(CONTENT_URI,
+			"changes");
+	public static final String PARAM_SINCE = "since";
+	public static final String METHOD_GET_CHANGE_SEQ = "getChangeSeq";
+	public static final String EXTRA_CHANGE_SEQ = "changeSeq";
+
+	// kinds of change, CHANGE_RESET means any note may have changed
+	public static final int CHANGE_INSERT = 1;
+	public static final int CHANGE_UPDATE = 2;
+	public static final int CHANGE_DELETE = 3;
+	public static final int CHANGE_RESET = 4;
+
+	// provider call() to delete a set of notes in one go, pass the ids in a
+	// long[] extra EXTRA_NOTE_IDS, the result holds the number deleted in
+	// EXTRA_COUNT
+	public static final String METHOD_DELETE_NOTES = "deleteNotes";
+	public static final String EXTRA_NOTE_IDS = "noteIds";
+	public static final String EXTRA_COUNT = "count";
+
+	// provider call() to edit ranges of a note's body, each edit
+	// replaces EXTRA_EDIT_LENGTHS characters from EXTRA_EDIT_STARTS (counting
+	// characters as SQLite does, from 0) with EXTRA_EDIT_TEXTS & is applied
+	// in order, returning EXTRA_COUNT
+	public static final String METHOD_EDIT_BODY = "editBody";
+	public static final String EXTRA_NOTE_ID = "noteId";
+	public static final String EXTRA_EDIT_STARTS = "editStarts";
+	public static final String EXTRA_EDIT_LENGTHS = "editLengths";
+	public static final String EXTRA_EDIT_TEXTS = "editTexts";
+
+	// provider call() to read the whole of a note's body as EXTRA_BODY, for
+	// bodies too large to fit in a cursor window, only for use in-process
+	// as the body is too large to send between processes. Pass a revision
+	// listed by the note's REVISIONS_PATH in EXTRA_REVISION to read the body
+	// as of that revision.
+	public static final String METHOD_READ_BODY = "readBody";
+	public static final String EXTRA_BODY = "body";
+	public static final String EXTRA_REVISION = "revision";
+
+	// appended to a note's Uri to list its revisions, newest first
+	public static final String REVISIONS_PATH = "revisions";
+
+	// every note as a stream: open ARCHIVE_URI for reading to export the
+	// notes, or for writing to import notes from an earlier export. Imports
+	// are committed a batch of notes at a time, so a failed import keeps the
+	// batches before the failure.
+	public static final Uri ARCHIVE_URI = Uri.withAppendedPath(CONTENT_URI,
+			"archive");
+
+	// read-only counts & latencies of every provider operation, by
+	// operation, kind of Uri & calling uid. Calls slower than the threshold
+	// are logged & listed by SLOW_CALLS_URI, newest first. Change the
+	// threshold with the METHOD_SET_SLOW_THRESHOLD provider call(), passing
+	// EXTRA_SLOW_MILLIS.
+	public static final Uri METRICS_URI = Uri.withAppendedPath(CONTENT_URI,
+			"_metrics");
+	public static final Uri SLOW_CALLS_URI = Uri.withAppendedPath(
+			METRICS_URI, "slow");
+	public static final String METHOD_SET_SLOW_THRESHOLD = "setSlowThreshold";
+	public static final String EXTRA_SLOW_MILLIS = "slowMillis";
+	private static final long DEFAULT_SLOW_MILLIS = 100;
+
+	// provider call() that just opens the database, made from a background
+	// thread to have it ready before it's first needed
+	public static final String METHOD_WARM_UP = "warmUp";
+
+	// The underlying database, opened on first use by openDatabase() & set
+	// only once everything below that depends on it is ready
+	private NotesDatabaseHelper mHelper;
+	private volatile SQLiteDatabase notesDB;
+
+	// the collation keys titles are sorted by, & the keys for a new locale
+	// while they're being made to replace them
+	private volatile TitleSortKeys mSortKeys;
+	private volatile TitleSortKeys mNextSortKeys;
+
+	// whether some notes have no key yet, as on the first open after the
+	// upgrade to keys, those notes sorting first in id order until they do
+	private volatile boolean mSortKeysMissing;
+
+	// held while keys are made for a new locale, so keys for another one
+	// aren't started until those are done or given up
+	private final Object mSortKeysRebuild = new Object();
+
+	// notes given keys for a new locale per transaction
+	private static final int SORT_KEY_BATCH = 500;
+
+	// revisions written before compression deflated per transaction
+	private static final int DEFLATE_BATCH = 16;
+
+	// compiled statements for inserts & writes to a single note
+	private NoteStatements mStatements;
+
+	// the log of revisions the note bodies are kept in
+	private NoteRevisions mRevisions;
+
+	// notes whose previews need remaking, & whether that's been scheduled.
+	// The first refresh also looks for any left stale by an earlier process.
+	private final Set<Long> mStalePreviews = new HashSet<Long>();
+	private boolean mPreviewRefreshScheduled;
+	private boolean mScanForStalePreviews = true;
+
+	// whether the notes saved since the last re-index are to be re-indexed
+	private boolean mSearchIndexRefreshScheduled;
+
+	// notes saved within this many ms of each other are re-indexed together,
+	// so a note saved many times while it's edited is only re-indexed once
+	private static final long SEARCH_INDEX_DELAY = 2000;
+
+	private Handler mHandler;
+
+	// characters of the body the preview is made from
+	private static final int PREVIEW_CHARS = 120;
+
+	// told about every change so it can decide if the widgets need updating
+	private WidgetRefreshDispatcher mWidgetRefresher;
+
+	// recent changes, for observers to update incrementally
+	private final NoteChangeLog mChangeLog = new NoteChangeLog();
+
+	// how long each operation takes
+	private final NoteMetrics mMetrics = new NoteMetrics(DEFAULT_SLOW_MILLIS);
+
+	// set while a batch is applied on the calling thread, the individual
+	// operations then leave notifying observers to the end of the batch
+	private final ThreadLocal<Boolean> mApplyingBatch = new ThreadLocal<Boolean>();
+
+	// changes made in the calling thread's open transaction, only logged once
+	// it commits so observers never read back a change that isn't there yet
+	private final ThreadLocal<ArrayList<HeldChange>> mUncommittedChanges = new ThreadLocal<ArrayList<HeldChange>>();
+
+	// drops the changes held back by a transaction that's rolled back
+	private final SQLiteTransactionListener mChangesRollback = new SQLiteTransactionListener() {
+		public void onBegin() {
+		}
+
+		public void onCommit() {
+		}
+
+		public void onRollback() {
+			mUncommittedChanges.remove();
+		}
+	};
 
 	// Create the constants used to differentiate between the different URI
 	// requests.
 	private static final int ALL_NOTES = 1;
 	private static final int NOTE_ID = 2;
+	private static final int SEARCH = 3;
+	private static final int CHANGES = 4;
+	private static final int NOTE_REVISIONS = 5;
+	private static final int ARCHIVE = 6;
+	private static final int METRICS = 7;
+	private static final int SLOW_CALLS = 8;
+	private static final int SECTIONS = 9;
+
+	// names of the above, for the metrics
+	private static final String[] URI_KINDS = new String[] { "unknown",
+			"notes", "note", "search", "changes", "revisions", "archive",
+			"metrics", "slow", "sections" };
+
+	// the call() methods metrics are kept for by name, any other method is
+	// kept under "unknown" so callers can't grow the metrics without bound
+	private static final Set<String> CALL_KINDS = new HashSet<String>(
+			Arrays.asList(METHOD_GET_CHANGE_SEQ, METHOD_WARM_UP,
+					METHOD_SET_SLOW_THRESHOLD, METHOD_DELETE_NOTES,
+					METHOD_READ_BODY, METHOD_EDIT_BODY));
 
 	private static final UriMatcher uriMatcher;
 
 	// Allocate the UriMatcher object, where a URI ending in 'notes' will
 	// correspond to a request for all notes, and 'notes' with a trailing
-	// '/[rowID]' will represent a single note row.
+	// '/[rowID]' will represent a single note row. 'notes/search' is a
+	// ranked full-text search, 'notes/changes' the recent row level
+	// changes, 'notes/[rowID]/revisions' the revisions of a note &
+	// 'notes/archive' the export & import stream. 'notes/_metrics' &
+	// 'notes/_metrics/slow' report how the provider is performing, &
+	// 'notes/sections' gives the sections of the list.
 	static {
 		uriMatcher = new UriMatcher(UriMatcher.NO_MATCH);
 		uriMatcher.addURI(AUTHORITY, "notes", ALL_NOTES);
 		uriMatcher.addURI(AUTHORITY, "notes/#", NOTE_ID);
+		uriMatcher.addURI(AUTHORITY, "notes/search", SEARCH);
+		uriMatcher.addURI(AUTHORITY, "notes/changes", CHANGES);
+		uriMatcher.addURI(AUTHORITY, "notes/#/" + REVISIONS_PATH,
+				NOTE_REVISIONS);
+		uriMatcher.addURI(AUTHORITY, "notes/archive", ARCHIVE);
+		uriMatcher.addURI(AUTHORITY, "notes/_metrics", METRICS);
+		uriMatcher.addURI(AUTHORITY, "notes/_metrics/slow", SLOW_CALLS);
+		uriMatcher.addURI(AUTHORITY, "notes/sections", SECTIONS);
 	}
 
+	/**
+	 * Leaves opening the database to the first operation, as this runs on
+	 * the main thread while the process starts, & a process woken only to
+	 * check for changes may never need the database.
+	 */
 	@Override
 	public boolean onCreate() {
-		NotesDatabaseHelper helper = new NotesDatabaseHelper(getContext());
-		notesDB = helper.getWritableDatabase();
-		return notesDB != null;
+		mHelper = new NotesDatabaseHelper(getContext());
+		mHandler = new Handler(Looper.getMainLooper());
+		mWidgetRefresher = WidgetRefreshDispatcher.getInstance(getContext());
+		return true;
+	}
+
+	/**
+	 * Opens the database, upgrading it if need be, unless that's been done
+	 * already. The title sort keys are rebuilt in the background if the
+	 * locale has changed since they were made, or their initials weren't
+	 * made with them, or made if there are none yet, so the first open
+	 * after the upgrade to keys isn't held up by making one for every note.
+	 */
+	private void openDatabase() {
+		final Locale locale = Locale.getDefault();
+		if (notesDB != null && wantedSortKeys().getLocale().equals(locale)) {
+			return;
+		}
+		SQLiteDatabase db;
+		boolean opened = false;
+		synchronized (this) {
+			db = notesDB;
+			if (db == null) {
+				final long start = SystemClock.uptimeMillis();
+				db = mHelper.getWritableDatabase();
+				mStatements = new NoteStatements(db, DATABASE_TABLE, KEY_ID);
+				mRevisions = new NoteRevisions(db, DATABASE_TABLE);
+				Log.i(TAG, "Opened database in "
+						+ (SystemClock.uptimeMillis() - start) + "ms");
+
+				mSortKeys = TitleSortKeys.recorded(db);
+				if (mSortKeys == null) {
+					// a new database, or one just upgraded to sort keys, so
+					// there's no order to keep while they're made
+					mSortKeys = new TitleSortKeys(locale);
+					mSortKeys.record(db);
+				}
+				mSortKeysMissing = TitleSortKeys.anyMissing(db);
+				opened = true;
+			}
+			if (!wantedSortKeys().getLocale().equals(locale)) {
+				if (mSortKeys.getLocale().equals(locale)) {
+					// back to the locale the notes are sorted for, before
+					// the keys for another were done
+					mNextSortKeys = null;
+				} else {
+					rebuildSortKeys(db, new TitleSortKeys(locale));
+				}
+			} else if (opened && TitleSortKeys.initialsMissing(db)) {
+				// the keys are made again with the initials, keeping the
+				// notes in order & counted by their old initials till then
+				rebuildSortKeys(db, new TitleSortKeys(locale));
+			}
+			notesDB = db;
+		}
+		if (opened) {
+			// all left to the background, once the database is set for it
+			if (mSortKeysMissing) {
+				makeMissingSortKeys(db, mSortKeys);
+			}
+			schedulePreviewRefresh();
+			scheduleSearchIndexRefresh();
+			deflateOldRevisions();
+		}
+	}
+
+	/**
+	 * @return the keys for the locale the notes are sorted for, or are being
+	 *         re-sorted for
+	 */
+	private TitleSortKeys wantedSortKeys() {
+		final TitleSortKeys next = mNextSortKeys;
+		return next != null ? next : mSortKeys;
+	}
+
+	/**
+	 * Makes the keys for a new locale in the background, a batch of notes
+	 * per transaction, then puts them in use in one more. Until then the
+	 * notes are kept in the order of the old locale, & titles written
+	 * meanwhile are given keys for it. Given up if the locale changes again
+	 * before the keys are done.
+	 */
+	private void rebuildSortKeys(final SQLiteDatabase db,
+			final TitleSortKeys keys) {
+		mNextSortKeys = keys;
+		AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+			public void run() {
+				synchronized (mSortKeysRebuild) {
+					if (makeSortKeys(db, keys)) {
+						// the notes may now be in a different order
+						notesChanged(true);
+						notifyChange(CONTENT_URI);
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Makes the keys of the notes that have none in the background, a batch
+	 * per transaction. Stops early if keys for another locale are put in
+	 * use meanwhile, as every note has one then.
+	 */
+	private void makeMissingSortKeys(final SQLiteDatabase db,
+			final TitleSortKeys keys) {
+		AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+			public void run() {
+				synchronized (mSortKeysRebuild) {
+					final long start = SystemClock.uptimeMillis();
+					long after = 0;
+					while (after >= 0) {
+						if (mSortKeys != keys) {
+							return;
+						}
+						after = keys.makeMissingKeys(db, after, SORT_KEY_BATCH);
+					}
+					mSortKeysMissing = false;
+					Log.i(TAG, "Made sort keys for " + keys.getLocale()
+							+ " in " + (SystemClock.uptimeMillis() - start)
+							+ "ms");
+					// the notes are now in title order
+					notesChanged(true);
+					notifyChange(CONTENT_URI);
+				}
+			}
+		});
+	}
+
+	/**
+	 * @return true if the keys were made & are now in use, false if they
+	 *         were given up
+	 */
+	private boolean makeSortKeys(SQLiteDatabase db, TitleSortKeys keys) {
+		final long start = SystemClock.uptimeMillis();
+		if (mNextSortKeys != keys) {
+			return false;
+		}
+		TitleSortKeys.clearNextKeys(db);
+		for (long after = 0; after >= 0; after = keys.makeNextKeys(db,
+				after, SORT_KEY_BATCH)) {
+			if (mNextSortKeys != keys) {
+				Log.i(TAG, "Gave up sort keys for " + keys.getLocale());
+				return false;
+			}
+		}
+
+		// titles are only written in transactions, so none can be written
+		// with the old keys once the new ones are in place
+		db.beginTransaction();
+		try {
+			keys.swapIn(db);
+			synchronized (this) {
+				if (mNextSortKeys != keys) {
+					return false;
+				}
+				mSortKeys = keys;
+				mNextSortKeys = null;
+				mSortKeysMissing = false;
+			}
+			db.setTransactionSuccessful();
+		} finally {
+			db.endTransaction();
+		}
+		Log.i(TAG, "Rebuilt sort keys for " + keys.getLocale() + " in "
+				+ (SystemClock.uptimeMillis() - start) + "ms");
+		return true;
 	}
 
+	/**
+	 * Deflates the long revisions written before compression in the
+	 * background, a batch per transaction so saves aren't held up long.
+	 */
+	private void deflateOldRevisions() {
+		AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+			public void run() {
+				final long start = SystemClock.uptimeMillis();
+				int total = 0;
+				for (int count; (count = mRevisions.deflateOld(DEFLATE_BATCH)) > 0;) {
+					total += count;
+				}
+				if (total > 0) {
+					Log.i(TAG, "Deflated " + total + " old revisions in "
+							+ (SystemClock.uptimeMillis() - start) + "ms");
+				}
+			}
+		});
+	}
+
+	/*
+	 * Every operation opens the database if need be, & is timed into
+	 * mMetrics by the kind of Uri or method.
+	 */
+
 	@Override
 	public Cursor query(Uri uri, String[] projection, String selection,
 			String[] selectionArgs, String sort) {
-		SQLiteQueryBuilder qb = new SQLiteQueryBuilder();
-		qb.setTables(DATABASE_TABLE);
+		final long start = NoteMetrics.start();
+		try {
+			openDatabase();
+			return doQuery(uri, projection, selection, selectionArgs, sort);
+		} finally {
+			mMetrics.record(NoteMetrics.QUERY, uriKind(uri), start);
+		}
+	}
+
+	@Override
+	public Uri insert(Uri uri, ContentValues initialValues) {
+		final long start = NoteMetrics.start();
+		try {
+			openDatabase();
+			return doInsert(uri, initialValues);
+		} finally {
+			mMetrics.record(NoteMetrics.INSERT, uriKind(uri), start);
+		}
+	}
+
+	@Override
+	public int bulkInsert(Uri uri, ContentValues[] values) {
+		final long start = NoteMetrics.start();
+		try {
+			openDatabase();
+			return doBulkInsert(uri, values);
+		} finally {
+			mMetrics.record(NoteMetrics.BULK_INSERT, uriKind(uri), start);
+		}
+	}
+
+	@Override
+	public ContentProviderResult[] applyBatch(
+			ArrayList<ContentProviderOperation> operations)
+			throws OperationApplicationException {
+		final long start = NoteMetrics.start();
+		try {
+			openDatabase();
+			return doApplyBatch(operations);
+		} finally {
+			mMetrics.record(NoteMetrics.APPLY_BATCH, "batch", start);
+		}
+	}
+
+	@Override
+	public int update(Uri uri, ContentValues values, String where,
+			String[] whereArgs) {
+		final long start = NoteMetrics.start();
+		try {
+			openDatabase();
+			return doUpdate(uri, values, where, whereArgs);
+		} finally {
+			mMetrics.record(NoteMetrics.UPDATE, uriKind(uri), start);
+		}
+	}
+
+	@Override
+	public int delete(Uri uri, String where, String[] whereArgs) {
+		final long start = NoteMetrics.start();
+		try {
+			openDatabase();
+			return doDelete(uri, where, whereArgs);
+		} finally {
+			mMetrics.record(NoteMetrics.DELETE, uriKind(uri), start);
+		}
+	}
+
+	@Override
+	public Bundle call(String method, String arg, Bundle extras) {
+		final long start = NoteMetrics.start();
+		try {
+			openDatabase();
+			return doCall(method, arg, extras);
+		} finally {
+			mMetrics.record(NoteMetrics.CALL, callKind(method), start);
+		}
+	}
+
+	@Override
+	public ParcelFileDescriptor openFile(Uri uri, String mode)
+			throws FileNotFoundException {
+		final long start = NoteMetrics.start();
+		try {
+			openDatabase();
+			return doOpenFile(uri, mode);
+		} finally {
+			mMetrics.record(NoteMetrics.OPEN_FILE, uriKind(uri), start);
+		}
+	}
+
+	/**
+	 * @return the name metrics are kept under for a kind of Uri
+	 */
+	private static String uriKind(Uri uri) {
+		final int match = uriMatcher.match(uri);
+		return match >= 0 && match < URI_KINDS.length ? URI_KINDS[match]
+				: "unknown";
+	}
+
+	/**
+	 * @return the name metrics are kept under for a call() method
+	 */
+	private static String callKind(String method) {
+		return CALL_KINDS.contains(method) ? method : "unknown";
+	}
+
+	private Cursor doQuery(Uri uri, String[] projection, String selection,
+			String[] selectionArgs, String sort) {
+		switch (uriMatcher.match(uri)) {
+		case SEARCH:
+			return search(uri, selectionArgs);
+		case CHANGES:
+			String since = uri.getQueryParameter(PARAM_SINCE);
+			return mChangeLog.changesSince(since != null ? Long
+					.parseLong(since) : -1);
+		case SECTIONS:
+			return sections(uri);
+		case METRICS:
+			return mMetrics.metrics();
+		case SLOW_CALLS:
+			return mMetrics.slowCalls();
+		case NOTE_REVISIONS:
+			Cursor revisions = mRevisions.listRevisions(Long.parseLong(uri
+					.getPathSegments().get(1)));
+			revisions.setNotificationUri(getContext().getContentResolver(),
+					uri);
+			return revisions;
+		}
+
+		// bodies are filled in from the revision log by id afterwards, so
+		// make sure the id is read. That's a read per row with every body
+		// held at once, so the app's own lists leave the body out & read it
+		// a note at a time, but other callers still get the bodies they ask
+		// for.
+		final boolean readsBody = projection == null
+				|| Arrays.asList(projection).contains(KEY_BODY);
+		String[] columns = projection;
+		if (readsBody && projection != null
+				&& !Arrays.asList(projection).contains(KEY_ID)) {
+			columns = new String[projection.length + 1];
+			System.arraycopy(projection, 0, columns, 0, projection.length);
+			columns[projection.length] = KEY_ID;
+		}
+
+		Cursor c;
+		if (uriMatcher.match(uri) == NOTE_ID && TextUtils.isEmpty(selection)) {
+			// the same SQL for every query of a note's columns, so it stays
+			// compiled, & the id bound
+			c = mStatements.queryById(columns, Long.parseLong(uri
+					.getPathSegments().get(1)));
+		} else {
+			c = queryNotes(uri, columns, selection, selectionArgs, sort);
+		}
+		if (readsBody) {
+			c = withBodies(c, projection != null ? projection.length : c
+					.getColumnCount());
+		}
+
+		// Register the contexts ContentResolver to be notified if
+		// the cursor result set changes.
+		c.setNotificationUri(getContext().getContentResolver(), uri);
+
+		// Return a cursor to the query result.
+		return c;
+	}
+
+	/**
+	 * Queries the notes table, for lists of notes & queries of a single note
+	 * with a selection.
+	 */
+	private Cursor queryNotes(Uri uri, String[] columns, String selection,
+			String[] selectionArgs, String sort) {
+		String where = selection;
+		String limit = null;
 
 		// If this is a row query, limit the result set to the passed in row.
 		switch (uriMatcher.match(uri)) {
 		case NOTE_ID:
-			qb.appendWhere(KEY_ID + "=" + uri.getPathSegments().get(1));
+			// bind the id rather than building it into the SQL, so every
+			// by-id query shares one compiled statement
+			where = NoteQueries.and(KEY_ID + "=?", selection);
+			selectionArgs = prependArgs(selectionArgs, uri.getPathSegments()
+					.get(1));
+			break;
+		case ALL_NOTES:
+			limit = uri.getQueryParameter(PARAM_LIMIT);
+			String afterTitle = uri.getQueryParameter(PARAM_AFTER_TITLE);
+			String afterId = uri.getQueryParameter(PARAM_AFTER_ID);
+			String beforeTitle = uri.getQueryParameter(PARAM_BEFORE_TITLE);
+			String beforeId = uri.getQueryParameter(PARAM_BEFORE_ID);
+			final String filter = toTitleMatchExpression(uri
+					.getQueryParameter(PARAM_FILTER));
+			String seek = null;
+			if (afterTitle != null && afterId != null) {
+				// seek straight past the previous page using the sort key
+				// index rather than reading & skipping an OFFSET worth of
+				// rows. The key is a hex literal, so it's safe to build in.
+				seek = NoteQueries.afterWhere(seekKey(afterTitle, afterId));
+				selectionArgs = prependArgs(selectionArgs, afterId);
+			} else if (beforeTitle != null && beforeId != null) {
+				// the same seek, back from the next page
+				seek = NoteQueries.beforeWhere(seekKey(beforeTitle, beforeId),
+						mSortKeysMissing);
+				selectionArgs = prependArgs(selectionArgs, beforeId);
+			}
+			if (filter != null) {
+				// the filter comes first in the where clause
+				selectionArgs = prependArgs(selectionArgs, filter);
+			}
+			where = NoteQueries.and(filter != null ? NoteQueries.FILTER_WHERE
+					: null, seek, selection);
+			if (limit != null || afterTitle != null) {
+				sort = NoteQueries.SORT_ORDER;
+			}
+			if (beforeTitle != null && afterTitle == null) {
+				sort = NoteQueries.REVERSE_SORT_ORDER;
+			}
+			final String offset = uri.getQueryParameter(PARAM_OFFSET);
+			if (limit != null && offset != null) {
+				limit = Integer.parseInt(offset) + "," + limit;
+			}
 			break;
 		default:
 			break;
 		}
 
 		// Apply the query to the underlying database.
-		Cursor c = qb.query(notesDB, projection, selection, selectionArgs,
-				null, null, sort);
+		return notesDB.rawQuery(NoteQueries.select(DATABASE_TABLE, columns,
+				where, TextUtils.isEmpty(sort) ? null : sort, limit),
+				selectionArgs);
+	}
 
-		// Register the contexts ContentResolver to be notified if
-		// the cursor result set changes.
-		c.setNotificationUri(getContext().getContentResolver(), uri);
+	/**
+	 * @return the sort key literal to seek from a note by, made from its
+	 *         title, or read from the note itself while some notes have no
+	 *         key, null if it has none
+	 */
+	private String seekKey(String title, String id) {
+		if (!mSortKeysMissing) {
+			return mSortKeys.literalOf(title);
+		}
+		final byte[] key = TitleSortKeys.storedKey(notesDB, Long.parseLong(id));
+		return key != null ? NoteQueries.literalOf(key) : null;
+	}
 
-		// Return a cursor to the query result.
+	/**
+	 * Copies query results, filling in the body of each note from the
+	 * revision log.
+	 * 
+	 * @param columnCount
+	 *            the number of leading columns to copy, leaving out any id
+	 *            column added to find the bodies by
+	 */
+	private Cursor withBodies(Cursor c, int columnCount) {
+		try {
+			final int bodyColumn = c.getColumnIndexOrThrow(KEY_BODY);
+			final int idColumn = c.getColumnIndexOrThrow(KEY_ID);
+			String[] names = new String[columnCount];
+			System.arraycopy(c.getColumnNames(), 0, names, 0, columnCount);
+			MatrixCursor bodies = new MatrixCursor(names, c.getCount());
+			Object[] row = new Object[columnCount];
+			while (c.moveToNext()) {
+				for (int i = 0; i < columnCount; i++) {
+					if (i == bodyColumn) {
+						row[i] = mRevisions.readBody(c.getLong(idColumn));
+						continue;
+					}
+					switch (c.getType(i)) {
+					case Cursor.FIELD_TYPE_INTEGER:
+						row[i] = c.getLong(i);
+						break;
+					case Cursor.FIELD_TYPE_FLOAT:
+						row[i] = c.getDouble(i);
+						break;
+					case Cursor.FIELD_TYPE_BLOB:
+						row[i] = c.getBlob(i);
+						break;
+					case Cursor.FIELD_TYPE_NULL:
+						row[i] = null;
+						break;
+					default:
+						row[i] = c.getString(i);
+					}
+				}
+				bodies.addRow(row);
+			}
+			return bodies;
+		} finally {
+			c.close();
+		}
+	}
+
+	/**
+	 * Puts the given arguments in front of any existing selection arguments,
+	 * to match clauses put in front of the selection.
+	 */
+	private static String[] prependArgs(String[] selectionArgs,
+			String... args) {
+		if (selectionArgs == null || selectionArgs.length == 0) {
+			return args;
+		}
+		String[] combined = new String[args.length + selectionArgs.length];
+		System.arraycopy(args, 0, combined, 0, args.length);
+		System.arraycopy(selectionArgs, 0, combined, args.length,
+				selectionArgs.length);
+		return combined;
+	}
+
+	/**
+	 * Runs a full-text search against the FTS index. The search terms are
+	 * taken from the {@link #PARAM_QUERY} parameter of the Uri, or failing
+	 * that from the first selection argument. Results are ordered by the
+	 * number of matches in each note, so a term repeated often counts for
+	 * more than one that appears once.
+	 */
+	private Cursor search(Uri uri, String[] selectionArgs) {
+		String terms = uri.getQueryParameter(PARAM_QUERY);
+		if (terms == null && selectionArgs != null && selectionArgs.length > 0) {
+			terms = selectionArgs[0];
+		}
+		String match = toMatchExpression(terms);
+		if (match == null) {
+			throw new IllegalArgumentException("No search terms given: " + uri);
+		}
+
+		Cursor c = notesDB.rawQuery(SEARCH_QUERY, new String[] { match });
+		c.setNotificationUri(getContext().getContentResolver(), CONTENT_URI);
 		return c;
 	}
 
-	@Override
-	public Uri insert(Uri uri, ContentValues initialValues) {
+	/**
+	 * Reads the count of notes by the first letter of their titles, kept by
+	 * triggers, or counts those matching a filter, & groups the counts into
+	 * the list's sections.
+	 */
+	private Cursor sections(Uri uri) {
+		final String filter = toTitleMatchExpression(uri
+				.getQueryParameter(PARAM_FILTER));
+		final String sql = NoteQueries.sections(filter != null);
+		final String[] args = filter != null ? new String[] { filter } : null;
+
+		// changes are logged as they commit, so if none is logged while the
+		// notes are counted the counts include exactly the changes up to
+		// that point, which lets the list move them along change by change
+		long seq = -1;
+		Cursor letters = null;
+		for (int tries = 0; seq < 0 && tries < SECTIONS_TRIES; tries++) {
+			if (letters != null) {
+				letters.close();
+			}
+			final long before = mChangeLog.currentSeq();
+			letters = notesDB.rawQuery(sql, args);
+			letters.getCount();
+			if (mChangeLog.currentSeq() == before) {
+				seq = before;
+			}
+		}
+		final String[] firsts;
+		final int[] counts;
+		try {
+			firsts = new String[letters.getCount()];
+			counts = new int[firsts.length];
+			for (int i = 0; letters.moveToNext(); i++) {
+				firsts[i] = letters.isNull(0) ? "" : letters.getString(0);
+				counts[i] = letters.getInt(1);
+			}
+		} finally {
+			letters.close();
+		}
+
+		final TitleSortKeys keys = mSortKeys;
+		final Bundle extras = new Bundle(2);
+		extras.putLong(EXTRA_CHANGE_SEQ, seq);
+		extras.putString(EXTRA_LOCALE, keys.getLocale().toString());
+		MatrixCursor c = new MatrixCursor(SECTIONS_COLUMNS) {
+			@Override
+			public Bundle getExtras() {
+				return extras;
+			}
+		};
+		for (Object[] section : new NoteSections(keys.getLocale())
+				.sections(firsts, counts)) {
+			c.addRow(section);
+		}
+		c.setNotificationUri(getContext().getContentResolver(), CONTENT_URI);
+		return c;
+	}
+
+	// times the sections are counted again if notes change meanwhile
+	private static final int SECTIONS_TRIES = 3;
+
+	/**
+	 * Has the notes saved from now on re-indexed in the background, a little
+	 * later. This is done then rather than on every save, so a note that's
+	 * saved many times while being edited is only re-indexed once, & saves
+	 * don't rewrite its whole body into the index.
+	 */
+	private void scheduleSearchIndexRefresh() {
+		synchronized (mRefreshSearchIndex) {
+			if (mSearchIndexRefreshScheduled) {
+				return;
+			}
+			mSearchIndexRefreshScheduled = true;
+		}
+		mHandler.postDelayed(mRefreshSearchIndex, SEARCH_INDEX_DELAY);
+	}
+
+	private final Runnable mRefreshSearchIndex = new Runnable() {
+		public void run() {
+			AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+				public void run() {
+					refreshSearchIndex();
+				}
+			});
+		}
+	};
+
+	/**
+	 * Re-indexes the notes saved since the last time, a note per transaction
+	 * so searches & saves aren't held up for long.
+	 */
+	private void refreshSearchIndex() {
+		synchronized (mRefreshSearchIndex) {
+			mSearchIndexRefreshScheduled = false;
+		}
+		int count = 0;
+		ContentValues entry = new ContentValues(3);
+		ContentValues indexed = new ContentValues(1);
+		indexed.put(KEY_SEARCH_INDEXED, 1);
+		for (long id : noteIds(KEY_SEARCH_INDEXED + "=0", null)) {
+			notesDB.beginTransaction();
+			try {
+				// skip the note if it's gone, or been indexed, meanwhile
+				Cursor c = notesDB.query(DATABASE_TABLE,
+						new String[] { KEY_TITLE }, KEY_ID + "=? AND "
+								+ KEY_SEARCH_INDEXED + "=0",
+						new String[] { String.valueOf(id) }, null, null, null);
+				try {
+					if (c.moveToFirst()) {
+						notesDB.delete(SEARCH_TABLE, "docid=?",
+								new String[] { String.valueOf(id) });
+						entry.put("docid", id);
+						entry.put(KEY_TITLE, c.getString(0));
+						entry.put(KEY_BODY, mRevisions.readBody(id));
+						notesDB.insert(SEARCH_TABLE, null, entry);
+						mStatements.updateById(id, indexed);
+						count++;
+					}
+				} finally {
+					c.close();
+				}
+				notesDB.setTransactionSuccessful();
+			} finally {
+				notesDB.endTransaction();
+			}
+		}
+		if (count > 0) {
+			notifyChange(SEARCH_URI);
+		}
+	}
+
+	/**
+	 * Turns free text typed by the user into an FTS MATCH expression, where
+	 * every word is treated as a prefix term. Returns null if there is
+	 * nothing to search for.
+	 */
+	static String toMatchExpression(String terms) {
+		if (terms == null) {
+			return null;
+		}
+		StringBuilder match = new StringBuilder();
+		for (String term : terms.replace('"', ' ').trim().split("\\s+")) {
+			if (term.length() > 0) {
+				if (match.length() > 0) {
+					match.append(' ');
+				}
+				match.append('"').append(term).append("*\"");
+			}
+		}
+		return match.length() > 0 ? match.toString() : null;
+	}
+
+	// the characters FTS3's simple tokenizer splits words at, any ASCII
+	// other than letters & digits
+	private static final String TOKEN_SEPARATORS = "[\\x00-\\x2f\\x3a-\\x40\\x5b-\\x60\\x7b-\\x7f]+";
+
+	/**
+	 * Turns a filter typed by the user into an FTS MATCH expression, where
+	 * every word is a prefix of a word in the title. The words are split as
+	 * the index's tokenizer splits them, so nothing in the filter is taken
+	 * as FTS syntax. Returns null if there is nothing to filter by.
+	 */
+	static String toTitleMatchExpression(String filter) {
+		if (filter == null) {
+			return null;
+		}
+		StringBuilder match = new StringBuilder();
+		for (String word : filter.split(TOKEN_SEPARATORS)) {
+			if (word.length() > 0) {
+				if (match.length() > 0) {
+					match.append(' ');
+				}
+				match.append(KEY_TITLE).append(':').append(word).append('*');
+			}
+		}
+		return match.length() > 0 ? match.toString() : null;
+	}
+
+	/**
+	 * @return true if a title has a word starting with each word of a
+	 *         filter, which is whether the expression made by
+	 *         {@link #toTitleMatchExpression(String)} matches it. Words are
+	 *         split & compared as the index's tokenizer does, folding the
+	 *         case of ASCII letters only.
+	 */
+	static boolean titleMatches(String title, String filter) {
+		if (filter == null) {
+			return true;
+		}
+		String[] titleWords = asciiLowerCase(title).split(TOKEN_SEPARATORS);
+		for (String word : asciiLowerCase(filter).split(TOKEN_SEPARATORS)) {
+			if (word.length() == 0) {
+				continue;
+			}
+			boolean found = false;
+			for (int i = 0; !found && i < titleWords.length; i++) {
+				found = titleWords[i].startsWith(word);
+			}
+			if (!found) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static String asciiLowerCase(String s) {
+		char[] chars = s.toCharArray();
+		for (int i = 0; i < chars.length; i++) {
+			if (chars[i] >= 'A' && chars[i] <= 'Z') {
+				chars[i] += 'a' - 'A';
+			}
+		}
+		return new String(chars);
+	}
+
+	private Uri doInsert(Uri uri, ContentValues initialValues) {
+		if (uriMatcher.match(uri) != ALL_NOTES) {
+			throw new IllegalArgumentException("Unsupported URI: " + uri);
+		}
+		ContentValues values = initialValues != null ? new ContentValues(
+				initialValues) : new ContentValues();
+		if (!values.containsKey(KEY_MODIFIED)) {
+			values.put(KEY_MODIFIED, System.currentTimeMillis());
+		}
+
+		// the body goes in the revision log, leaving an empty one in the
+		// notes table
+		final String body = values.getAsString(KEY_BODY);
+		if (body != null) {
+			values.put(KEY_BODY, "");
+		}
+		values.put(KEY_SEARCH_INDEXED, 0);
+		values.put(KEY_PREVIEW, previewOf(body != null ? body : ""));
+
 		// Insert the new row, will return the row number if
 		// successful.
-		long rowID = notesDB.insert(DATABASE_TABLE, "note", initialValues);
+		long rowID;
+		beginTransaction();
+		try {
+			putTitleColumns(values);
+			rowID = mStatements.insert(values);
+			if (rowID > 0) {
+				mRevisions.addNote(rowID, body, values
+						.getAsLong(KEY_MODIFIED));
+				noteInserted(rowID, values);
+			}
+			notesDB.setTransactionSuccessful();
+		} finally {
+			endTransaction();
+		}
 
 		// Return a URI to the newly inserted row on success.
 		if (rowID > 0) {
 			Uri newUri = ContentUris.withAppendedId(CONTENT_URI, rowID);
-			getContext().getContentResolver().notifyChange(newUri, null);
+			scheduleSearchIndexRefresh();
+			notifyChange(newUri);
 			return newUri;
 		}
 		throw new SQLException("Failed to insert row into " + uri);
 	}
 
-	@Override
-	public int delete(Uri uri, String where, String[] whereArgs) {
+	/**
+	 * Inserts all of the given notes in a single transaction, observers are
+	 * notified once the whole batch has been committed. If any row fails to
+	 * insert none of the rows are kept.
+	 */
+	private int doBulkInsert(Uri uri, ContentValues[] values) {
+		if (uriMatcher.match(uri) != ALL_NOTES) {
+			throw new IllegalArgumentException("Unsupported URI: " + uri);
+		}
+
+		mApplyingBatch.set(Boolean.TRUE);
+		beginTransaction();
+		try {
+			// straight to doInsert, the batch as a whole is timed once
+			for (ContentValues noteValues : values) {
+				doInsert(uri, noteValues);
+			}
+			notesDB.setTransactionSuccessful();
+		} finally {
+			endTransaction();
+			mApplyingBatch.set(Boolean.FALSE);
+		}
+
+		if (values.length > 0) {
+			notifyChange(CONTENT_URI);
+		}
+		return values.length;
+	}
+
+	/**
+	 * Applies the operations in a single transaction, with one change
+	 * notification for the whole batch. If any operation fails none of them
+	 * are kept. Yield points are ignored, as yielding would commit the batch
+	 * in parts.
+	 */
+	private ContentProviderResult[] doApplyBatch(
+			ArrayList<ContentProviderOperation> operations)
+			throws OperationApplicationException {
+		final int numOperations = operations.size();
+		final ContentProviderResult[] results = new ContentProviderResult[numOperations];
+
+		mApplyingBatch.set(Boolean.TRUE);
+		beginTransaction();
+		try {
+			for (int i = 0; i < numOperations; i++) {
+				results[i] = operations.get(i).apply(this, results, i);
+			}
+			notesDB.setTransactionSuccessful();
+		} finally {
+			endTransaction();
+			mApplyingBatch.set(Boolean.FALSE);
+		}
+
+		if (numOperations > 0) {
+			notifyChange(CONTENT_URI);
+		}
+		return results;
+	}
+
+	/**
+	 * Notifies observers of a change to the given Uri, unless we're part way
+	 * through a batch in which case the batch notifies once it's done.
+	 */
+	private void notifyChange(Uri uri) {
+		if (!Boolean.TRUE.equals(mApplyingBatch.get())) {
+			getContext().getContentResolver().notifyChange(uri, null);
+		}
+	}
+
+	/**
+	 * Begins a transaction on the calling thread, dropping any changes left
+	 * over from an outermost one that failed to commit. End it with
+	 * {@link #endTransaction()}.
+	 */
+	private void beginTransaction() {
+		if (!notesDB.inTransaction()) {
+			mUncommittedChanges.remove();
+			notesDB.beginTransactionWithListener(mChangesRollback);
+		} else {
+			notesDB.beginTransaction();
+		}
+	}
+
+	/**
+	 * Ends a transaction begun with {@link #beginTransaction()}, logging the
+	 * changes held back in it once the outermost one commits. The commit &
+	 * the logging happen under the change log's lock, so changes are logged
+	 * in the order they're made, & anything reading the log sees a change
+	 * logged by the time it can read the change itself.
+	 */
+	private void endTransaction() {
+		synchronized (mChangeLog) {
+			notesDB.endTransaction();
+			ArrayList<HeldChange> changes = mUncommittedChanges.get();
+			if (changes != null && !notesDB.inTransaction()) {
+				mUncommittedChanges.remove();
+				for (HeldChange change : changes) {
+					uncache(change.change, change.id);
+					mChangeLog.record(change.change, change.id,
+							change.previousTitle);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Logs a change to a note, or holds it back until the calling thread's
+	 * transaction commits.
+	 * 
+	 * @param change
+	 *            one of the CHANGE_ constants
+	 * @param previousTitle
+	 *            the note's title before a delete or a change of title,
+	 *            otherwise null
+	 */
+	private void logChange(int change, long id, String previousTitle) {
+		if (notesDB.inTransaction()) {
+			ArrayList<HeldChange> changes = mUncommittedChanges.get();
+			if (changes == null) {
+				changes = new ArrayList<HeldChange>();
+				mUncommittedChanges.set(changes);
+			}
+			changes.add(new HeldChange(change, id, previousTitle));
+		} else {
+			uncache(change, id);
+			mChangeLog.record(change, id, previousTitle);
+		}
+	}
+
+	/**
+	 * Drops what a committed change leaves stale from the NoteCache. Doing
+	 * so only after the commit means a note read meanwhile is turned away
+	 * from the cache, rather than put back after being dropped.
+	 */
+	private static void uncache(int change, long id) {
+		if (change == CHANGE_RESET) {
+			NoteCache.clear();
+		} else if (change != CHANGE_INSERT) {
+			NoteCache.remove(id);
+		}
+	}
+
+	/**
+	 * A change held back until its transaction commits.
+	 */
+	private static class HeldChange {
+		final int change;
+		final long id;
+		final String previousTitle;
+
+		HeldChange(int change, long id, String previousTitle) {
+			this.change = change;
+			this.id = id;
+			this.previousTitle = previousTitle;
+		}
+	}
+
+	/*
+	 * Bookkeeping after each write: tell the widgets, and log the change for
+	 * incremental observers. Logging it also drops the note from the
+	 * NoteCache, once the write has committed.
+	 */
+
+	private void noteInserted(long id, ContentValues values) {
+		mWidgetRefresher.onNoteInserted(id, values.getAsString(KEY_TITLE));
+		logChange(CHANGE_INSERT, id, null);
+	}
+
+	/**
+	 * @param title
+	 *            the note's new title, or null if it wasn't written
+	 * @param previousTitle
+	 *            the title it had before, or null if that's unchanged
+	 */
+	private void noteUpdated(long id, String title, String previousTitle,
+			boolean previewChanged) {
+		mWidgetRefresher.onNoteUpdated(id, title);
+		if (previewChanged) {
+			mWidgetRefresher.onPreviewChanged(id);
+		}
+		logChange(CHANGE_UPDATE, id, previousTitle);
+	}
+
+	private void noteDeleted(long id, String title) {
+		mWidgetRefresher.onNoteDeleted(id);
+		logChange(CHANGE_DELETE, id, title);
+	}
+
+	/**
+	 * Any number of notes may have changed.
+	 * 
+	 * @param titlesChanged
+	 *            {@code false} if the titles are known to be untouched
+	 */
+	private void notesChanged(boolean titlesChanged) {
+		if (titlesChanged) {
+			mWidgetRefresher.onNotesChanged();
+		}
+		logChange(CHANGE_RESET, -1, null);
+	}
+
+	private int doDelete(Uri uri, String where, String[] whereArgs) {
 		int count;
 
 		switch (uriMatcher.match(uri)) {
 		case ALL_NOTES:
 			count = notesDB.delete(DATABASE_TABLE, where, whereArgs);
+			notesChanged(true);
 			break;
 
 		case NOTE_ID:
 			String segment = uri.getPathSegments().get(1);
-			StringBuilder whereClause = new StringBuilder(KEY_ID).append("=")
-					.append(segment);
-			if (!TextUtils.isEmpty(where)) {
-				whereClause.append(" AND (").append(where).append(")");
+			long id = Long.parseLong(segment);
+			beginTransaction();
+			try {
+				final String title = mStatements.stringById(KEY_TITLE, id);
+				if (TextUtils.isEmpty(where)) {
+					count = mStatements.deleteById(id);
+				} else {
+					count = notesDB.delete(DATABASE_TABLE, KEY_ID
+							+ "=? AND (" + where + ")", prependArgs(
+							whereArgs, segment));
+				}
+				if (count > 0) {
+					noteDeleted(id, title);
+				}
+				notesDB.setTransactionSuccessful();
+			} finally {
+				endTransaction();
 			}
-
-			count = notesDB.delete(DATABASE_TABLE, whereClause.toString(),
-					whereArgs);
 			break;
 
 		default:
 			throw new IllegalArgumentException("Unsupported URI: " + uri);
 		}
 
-		getContext().getContentResolver().notifyChange(uri, null);
+		notifyChange(uri);
 		return count;
 	}
 
-	@Override
-	public int update(Uri uri, ContentValues values, String where,
+	private Bundle doCall(String method, String arg, Bundle extras) {
+		if (METHOD_GET_CHANGE_SEQ.equals(method)) {
+			Bundle result = new Bundle(1);
+			result.putLong(EXTRA_CHANGE_SEQ, mChangeLog.currentSeq());
+			return result;
+		} else if (METHOD_WARM_UP.equals(method)) {
+			// the database is opened before any call
+			return null;
+		} else if (METHOD_SET_SLOW_THRESHOLD.equals(method)) {
+			if (extras == null || !extras.containsKey(EXTRA_SLOW_MILLIS)) {
+				throw new IllegalArgumentException("No threshold given to "
+						+ method);
+			}
+			mMetrics.setSlowMillis(extras.getLong(EXTRA_SLOW_MILLIS));
+			return null;
+		} else if (METHOD_DELETE_NOTES.equals(method)) {
+			long[] ids = extras != null ? extras
+					.getLongArray(EXTRA_NOTE_IDS) : null;
+			if (ids == null) {
+				throw new IllegalArgumentException("No note ids given to "
+						+ method);
+			}
+			Bundle result = new Bundle(1);
+			result.putInt(EXTRA_COUNT, deleteNotes(ids));
+			return result;
+		} else if (METHOD_READ_BODY.equals(method)) {
+			if (extras == null || !extras.containsKey(EXTRA_NOTE_ID)) {
+				throw new IllegalArgumentException("No note id given to "
+						+ method);
+			}
+			final long id = extras.getLong(EXTRA_NOTE_ID);
+			Bundle result = new Bundle(1);
+			result.putString(EXTRA_BODY, extras.containsKey(EXTRA_REVISION)
+					? mRevisions.readBody(id, extras.getLong(EXTRA_REVISION))
+					: mRevisions.readBody(id));
+			return result;
+		} else if (METHOD_EDIT_BODY.equals(method)) {
+			int[] starts = extras != null ? extras.getIntArray(EXTRA_EDIT_STARTS)
+					: null;
+			int[] lengths = extras != null ? extras
+					.getIntArray(EXTRA_EDIT_LENGTHS) : null;
+			String[] texts = extras != null ? extras
+					.getStringArray(EXTRA_EDIT_TEXTS) : null;
+			if (starts == null || lengths == null || texts == null
+					|| starts.length != lengths.length
+					|| starts.length != texts.length
+					|| !extras.containsKey(EXTRA_NOTE_ID)) {
+				throw new IllegalArgumentException("Incomplete edits given to "
+						+ method);
+			}
+			Bundle result = new Bundle(1);
+			result.putInt(EXTRA_COUNT, editBody(extras.getLong(EXTRA_NOTE_ID),
+					starts, lengths, texts));
+			return result;
+		}
+		return super.call(method, arg, extras);
+	}
+
+	/**
+	 * Deletes the notes with the given ids in a single transaction, reusing
+	 * the compiled by-id delete for every row. Observers are notified once.
+	 * 
+	 * @param ids
+	 *            ids of the notes to delete
+	 * @return the number of notes deleted
+	 */
+	private int deleteNotes(long[] ids) {
+		int count = 0;
+		beginTransaction();
+		try {
+			for (long id : ids) {
+				final String title = mStatements.stringById(KEY_TITLE, id);
+				if (title != null && mStatements.deleteById(id) > 0) {
+					noteDeleted(id, title);
+					count++;
+				}
+			}
+			notesDB.setTransactionSuccessful();
+		} finally {
+			endTransaction();
+		}
+
+		if (count > 0) {
+			notifyChange(CONTENT_URI);
+		}
+		return count;
+	}
+
+	/**
+	 * Logs a series of range edits to a note's body in a single transaction,
+	 * so a small change to a large note doesn't mean sending & rewriting the
+	 * whole body.
+	 * 
+	 * @return the number of notes updated
+	 */
+	private int editBody(long id, int[] starts, int[] lengths, String[] texts) {
+		// the preview is only remade if an edit reaches into it, & then in the
+		// background as it means reading the whole body
+		final boolean previewChanged = editsPreview(starts);
+		int count = 0;
+		beginTransaction();
+		try {
+			ContentValues values = new ContentValues(5);
+			values.put(KEY_MODIFIED, System.currentTimeMillis());
+			values.put(KEY_SEARCH_INDEXED, 0);
+			if (previewChanged) {
+				values.putNull(KEY_PREVIEW);
+			}
+			if (mRevisions.appendEdits(id, starts, lengths, texts, values)) {
+				count = mStatements.updateById(id, values);
+				noteUpdated(id, null, null, false);
+				if (previewChanged) {
+					synchronized (mStalePreviews) {
+						mStalePreviews.add(id);
+					}
+				}
+			}
+			notesDB.setTransactionSuccessful();
+		} finally {
+			endTransaction();
+		}
+		if (count > 0) {
+			scheduleSearchIndexRefresh();
+			if (previewChanged) {
+				schedulePreviewRefresh();
+			}
+			notifyChange(ContentUris.withAppendedId(CONTENT_URI, id));
+		}
+		return count;
+	}
+
+	/**
+	 * @return the preview of a body
+	 */
+	static String previewOf(String body) {
+		int end = Math.min(body.length(), PREVIEW_CHARS);
+		if (end < body.length()
+				&& Character.isHighSurrogate(body.charAt(end - 1))) {
+			end--;
+		}
+		StringBuilder preview = new StringBuilder(end);
+		boolean space = false;
+		for (int i = 0; i < end; i++) {
+			final char c = body.charAt(i);
+			if (Character.isWhitespace(c)) {
+				space = preview.length() > 0;
+			} else {
+				if (space) {
+					preview.append(' ');
+					space = false;
+				}
+				preview.append(c);
+			}
+		}
+		return preview.toString();
+	}
+
+	/**
+	 * @return true if any of a series of edits, starting at the given code
+	 *         points, may change a note's preview
+	 */
+	private static boolean editsPreview(int[] starts) {
+		for (int start : starts) {
+			// a code point is at least a char, so edits from PREVIEW_CHARS
+			// code points on are past the preview
+			if (start < PREVIEW_CHARS) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void schedulePreviewRefresh() {
+		synchronized (mStalePreviews) {
+			if (mPreviewRefreshScheduled
+					|| (mStalePreviews.isEmpty() && !mScanForStalePreviews)) {
+				return;
+			}
+			mPreviewRefreshScheduled = true;
+		}
+		AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+			public void run() {
+				refreshPreviews();
+			}
+		});
+	}
+
+	/**
+	 * Remakes the previews of the notes edited near the start, a note at a
+	 * time so no more than one body is held at once. Each preview is only
+	 * written if it's still stale, & a note edited again meanwhile is queued
+	 * again.
+	 */
+	private void refreshPreviews() {
+		final boolean scan;
+		final Long[] ids;
+		synchronized (mStalePreviews) {
+			mPreviewRefreshScheduled = false;
+			scan = mScanForStalePreviews;
+			mScanForStalePreviews = false;
+			ids = mStalePreviews.toArray(new Long[mStalePreviews.size()]);
+			mStalePreviews.clear();
+		}
+
+		Set<Long> stale = new HashSet<Long>(Arrays.asList(ids));
+		if (scan) {
+			Cursor c = notesDB.query(DATABASE_TABLE, new String[] { KEY_ID },
+					KEY_PREVIEW + " IS NULL", null, null, null, null);
+			try {
+				while (c.moveToNext()) {
+					stale.add(c.getLong(0));
+				}
+			} finally {
+				c.close();
+			}
+		}
+
+		int count = 0;
+		ContentValues values = new ContentValues(1);
+		for (long id : stale) {
+			beginTransaction();
+			try {
+				final String body = mRevisions.readBody(id);
+				if (body != null) {
+					values.put(KEY_PREVIEW, previewOf(body));
+					if (notesDB.update(DATABASE_TABLE, values, KEY_ID
+							+ "=? AND " + KEY_PREVIEW + " IS NULL",
+							new String[] { String.valueOf(id) }) > 0) {
+						noteUpdated(id, null, null, true);
+						count++;
+					}
+				}
+				notesDB.setTransactionSuccessful();
+			} finally {
+				endTransaction();
+			}
+		}
+		if (count > 0) {
+			notifyChange(CONTENT_URI);
+		}
+	}
+
+	/**
+	 * Opens {@link #ARCHIVE_URI}, streaming notes out as they're read for
+	 * mode "r" or in as they're written for mode "w". Either way only a
+	 * batch of notes is held in memory at a time.
+	 */
+	private ParcelFileDescriptor doOpenFile(Uri uri, String mode)
+			throws FileNotFoundException {
+		if (uriMatcher.match(uri) != ARCHIVE) {
+			throw new FileNotFoundException("No file at " + uri);
+		}
+		if ("r".equals(mode)) {
+			return openPipeHelper(uri, NoteArchive.MIME_TYPE, null, null,
+					new PipeDataWriter<Object>() {
+						public void writeDataToPipe(ParcelFileDescriptor output,
+								Uri uri, String mimeType, Bundle opts,
+								Object args) {
+							exportNotes(output);
+						}
+					});
+		} else if ("w".equals(mode) || "wt".equals(mode)) {
+			final ParcelFileDescriptor[] pipe;
+			try {
+				pipe = ParcelFileDescriptor.createPipe();
+			} catch (IOException e) {
+				throw new FileNotFoundException("Couldn't open " + uri + ": "
+						+ e);
+			}
+			AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+				public void run() {
+					importNotes(pipe[0]);
+				}
+			});
+			return pipe[1];
+		}
+		throw new FileNotFoundException("Unsupported mode " + mode + " for "
+				+ uri);
+	}
+
+	/**
+	 * Writes every note to the archive, a page of notes at a time in id
+	 * order. Stops early if the reader closes the stream.
+	 */
+	private void exportNotes(ParcelFileDescriptor output) {
+		// openPipeHelper closes the pipe once this returns
+		Writer out = new BufferedWriter(new OutputStreamWriter(
+				new FileOutputStream(output.getFileDescriptor()),
+				NoteArchive.UTF_8));
+		long lastId = 0;
+		int count = 0;
+		try {
+			boolean more = true;
+			while (more) {
+				Cursor c = notesDB.rawQuery(NoteQueries.EXPORT_BATCH,
+						new String[] { String.valueOf(lastId) });
+				try {
+					more = c.getCount() == NoteQueries.ARCHIVE_BATCH;
+					while (c.moveToNext()) {
+						lastId = c.getLong(0);
+						String body = mRevisions.readBody(lastId);
+						if (body != null) {
+							NoteArchive.write(out, c.getString(1), body, c
+									.getLong(2));
+							count++;
+						}
+					}
+				} finally {
+					c.close();
+				}
+			}
+			out.flush();
+			Log.i(TAG, "Exported " + count + " notes");
+		} catch (IOException e) {
+			Log.w(TAG, "Export stopped after " + count + " notes", e);
+		}
+	}
+
+	/**
+	 * Reads notes from an archive, inserting each batch in its own
+	 * transaction. The batch is read before the transaction starts, so a
+	 * slow writer doesn't hold up other writes to the database.
+	 */
+	private void importNotes(ParcelFileDescriptor input) {
+		NoteArchive archive = new NoteArchive(
+				new ParcelFileDescriptor.AutoCloseInputStream(input));
+		ContentValues[] batch = new ContentValues[NoteQueries.ARCHIVE_BATCH];
+		int count = 0;
+		try {
+			boolean more = true;
+			while (more) {
+				int size = 0;
+				while (size < NoteQueries.ARCHIVE_BATCH) {
+					ContentValues note = new ContentValues(3);
+					if (!archive.read(note)) {
+						more = false;
+						break;
+					}
+					batch[size++] = note;
+				}
+				if (size > 0) {
+					count += bulkInsert(CONTENT_URI,
+							size == NoteQueries.ARCHIVE_BATCH ? batch : Arrays
+									.copyOf(batch, size));
+				}
+			}
+			Log.i(TAG, "Imported " + count + " notes");
+		} catch (IOException e) {
+			Log.w(TAG, "Import stopped after " + count + " notes", e);
+		} catch (RuntimeException e) {
+			// a malformed note, or the database refusing it
+			Log.w(TAG, "Import stopped after " + count + " notes", e);
+		} finally {
+			try {
+				archive.close();
+			} catch (IOException e) {
+				// nothing more to read anyway
+			}
+		}
+	}
+
+	private int doUpdate(Uri uri, ContentValues values, String where,
 			String[] whereArgs) {
+		// stamp the modified time whenever the text of a note changes, & have
+		// it re-indexed
+		final boolean textChanged = values.containsKey(KEY_TITLE)
+				|| values.containsKey(KEY_BODY);
+		if (textChanged) {
+			values = new ContentValues(values);
+			if (!values.containsKey(KEY_MODIFIED)) {
+				values.put(KEY_MODIFIED, System.currentTimeMillis());
+			}
+			values.put(KEY_SEARCH_INDEXED, 0);
+		}
+
+		// a new body is logged as the edit from the current one
+		final String body = values.getAsString(KEY_BODY);
+		if (body != null) {
+			values.remove(KEY_BODY);
+			values.put(KEY_PREVIEW, previewOf(body));
+		}
+
 		int count;
 		switch (uriMatcher.match(uri)) {
 		case ALL_NOTES:
-			count = notesDB.update(DATABASE_TABLE, values, where, whereArgs);
+			if (body != null) {
+				count = 0;
+				for (long id : noteIds(where, whereArgs)) {
+					count += updateNote(id, values, body);
+				}
+			} else {
+				notesDB.beginTransaction();
+				try {
+					putTitleColumns(values);
+					count = notesDB.update(DATABASE_TABLE, values, where,
+							whereArgs);
+					notesDB.setTransactionSuccessful();
+				} finally {
+					notesDB.endTransaction();
+				}
+			}
+			// new bodies mean new previews, which the widgets show
+			notesChanged(values.containsKey(KEY_TITLE) || body != null);
 			break;
 
 		case NOTE_ID:
 			String segment = uri.getPathSegments().get(1);
-			StringBuilder whereClause = new StringBuilder(KEY_ID).append("=")
-					.append(segment);
-			if (!TextUtils.isEmpty(where)) {
-				whereClause.append(" AND (").append(where).append(")");
+			long id = Long.parseLong(segment);
+			boolean previewChanged = false;
+			if (!TextUtils.isEmpty(where)
+					&& DatabaseUtils.queryNumEntries(notesDB, DATABASE_TABLE,
+							KEY_ID + "=? AND (" + where + ")", prependArgs(
+									whereArgs, segment)) == 0) {
+				count = 0;
+			} else {
+				final String title = values.getAsString(KEY_TITLE);
+				beginTransaction();
+				try {
+					// most saves are past the start of the body, & leave the
+					// preview the widgets show as it was
+					final String preview = body != null ? mStatements
+							.stringById(KEY_PREVIEW, id) : null;
+					final String previousTitle = title != null ? mStatements
+							.stringById(KEY_TITLE, id) : null;
+					count = updateNote(id, values, body);
+					previewChanged = body != null
+							&& !TextUtils.equals(preview, values
+									.getAsString(KEY_PREVIEW));
+					if (count > 0) {
+						noteUpdated(id, title, TextUtils.equals(title,
+								previousTitle) ? null : previousTitle,
+								previewChanged);
+					}
+					notesDB.setTransactionSuccessful();
+				} finally {
+					endTransaction();
+				}
 			}
-			count = notesDB.update(DATABASE_TABLE, values,
-					whereClause.toString(), whereArgs);
 			break;
 
 		default:
 			throw new IllegalArgumentException("Unknown URI " + uri);
 		}
 
-		getContext().getContentResolver().notifyChange(uri, null);
+		if (textChanged && count > 0) {
+			scheduleSearchIndexRefresh();
+		}
+		notifyChange(uri);
 		return count;
 	}
 
+	/**
+	 * Puts the columns made from a new title into a note's values: its
+	 * initial & its sort key, clearing any made for the next locale so
+	 * they're made again. Called in the write's transaction, as the keys in
+	 * use only change between transactions.
+	 */
+	private void putTitleColumns(ContentValues values) {
+		final String title = values.getAsString(KEY_TITLE);
+		if (title != null) {
+			final TitleSortKeys keys = mSortKeys;
+			values.put(NoteSections.KEY_INITIAL, keys.initialOf(title));
+			values.put(TitleSortKeys.KEY_SORT_KEY, keys.keyOf(title));
+			values.putNull(NoteSections.KEY_NEXT_INITIAL);
+			values.putNull(TitleSortKeys.KEY_NEXT_SORT_KEY);
+		}
+	}
+
+	/**
+	 * Updates a single note, logging any new body.
+	 * 
+	 * @param body
+	 *            the new body, or null to leave it
+	 * @return the number of notes updated
+	 */
+	private int updateNote(long id, ContentValues values, String body) {
+		notesDB.beginTransaction();
+		try {
+			ContentValues noteValues = new ContentValues(values);
+			putTitleColumns(noteValues);
+			if (body != null && !mRevisions.replaceBody(id, body, noteValues)) {
+				return 0;
+			}
+			final int count = mStatements.updateById(id, noteValues);
+			notesDB.setTransactionSuccessful();
+			return count;
+		} finally {
+			notesDB.endTransaction();
+		}
+	}
+
+	/**
+	 * @return the ids of the notes matching a selection
+	 */
+	private long[] noteIds(String where, String[] whereArgs) {
+		Cursor c = notesDB.query(DATABASE_TABLE, new String[] { KEY_ID },
+				where, whereArgs, null, null, null);
+		try {
+			long[] ids = new long[c.getCount()];
+			for (int i = 0; c.moveToNext(); i++) {
+				ids[i] = c.getLong(0);
+			}
+			return ids;
+		} finally {
+			c.close();
+		}
+	}
+
 	@Override
 	public String getType(Uri uri) {
 		switch (uriMatcher.match(uri)) {
@@ -155,6 +1832,20 @@ public class NotesProvider extends ContentProvider {
 			return "vnd.android.cursor.dir/vnd.honeypad.notes";
 		case NOTE_ID:
 			return NOTE_MIME_TYPE;
+		case SEARCH:
+			return "vnd.android.cursor.dir/vnd.honeypad.notes";
+		case CHANGES:
+			return "vnd.android.cursor.dir/vnd.honeypad.changes";
+		case NOTE_REVISIONS:
+			return "vnd.android.cursor.dir/vnd.honeypad.revisions";
+		case ARCHIVE:
+			return NoteArchive.MIME_TYPE;
+		case SECTIONS:
+			return "vnd.android.cursor.dir/vnd.honeypad.sections";
+		case METRICS:
+			return "vnd.android.cursor.dir/vnd.honeypad.metrics";
+		case SLOW_CALLS:
+			return "vnd.android.cursor.dir/vnd.honeypad.slowcalls";
 		default:
 			throw new IllegalArgumentException("Unsupported URI: " + uri);
 		}
@@ -164,7 +1855,36 @@ public class NotesProvider extends ContentProvider {
 	public static final String KEY_ID = "_id";
 	public static final String KEY_TITLE = "title";
 	public static final String KEY_BODY = "body";
-	
+	public static final String KEY_MODIFIED = "modified";
+	public static final String KEY_SNIPPET = "snippet";
+	public static final String KEY_CHANGE_SEQ = "seq";
+	public static final String KEY_CHANGE = "change";
+	public static final String KEY_PREVIOUS_TITLE = "previous_title";
+	public static final String KEY_REVISION = "revision";
+
+	// the start of a note's body, with line breaks & runs of spaces
+	// collapsed, for showing beside the title. It's kept in the notes table
+	// so lists can show it without reading bodies, & is null for a moment
+	// after an edit near the start of a large note, until it's refreshed.
+	public static final String KEY_PREVIEW = "preview";
+
+	// the collation key of the title the notes are sorted by, in the locale
+	// of SECTIONS_URI's EXTRA_LOCALE, & null for a moment after the upgrade
+	// to keys, until it's made. Notes with none sort first, in _id order.
+	public static final String KEY_SORT_KEY = TitleSortKeys.KEY_SORT_KEY;
+
+	// columns of SECTIONS_URI, KEY_SECTION_INITIAL is a title the
+	// section's notes all sort from, for paging from its start
+	public static final String KEY_SECTION = "section";
+	public static final String KEY_SECTION_COUNT = "count";
+	public static final String KEY_SECTION_INITIAL = "initial";
+
+	private static final String[] SECTIONS_COLUMNS = new String[] {
+			KEY_SECTION, KEY_SECTION_COUNT, KEY_SECTION_INITIAL };
+
+	// set once a note's current text is in the search index
+	private static final String KEY_SEARCH_INDEXED = "search_indexed";
+
 	// column indexes
 	public static final int ID_COLUMN = 0;
 	public static final int TITLE_COLUMN = 1;
@@ -174,13 +1894,25 @@ public class NotesProvider extends ContentProvider {
 
 	private static final String DATABASE_NAME = "notepadtablet.db";
 	private static final String DATABASE_TABLE = "notes";
-	private static final int DATABASE_VERSION = 1;
+	private static final String SEARCH_TABLE = "notes_fts";
+	private static final int DATABASE_VERSION = NoteSchema.VERSION;
+
+	// markers placed around matched terms in search snippets
+	public static final String SNIPPET_MATCH_START = "<b>";
+	public static final String SNIPPET_MATCH_END = "</b>";
 
 	/**
-	 * Database creation sql statement
+	 * Search query, ranks each hit by the number of matches in it, counting
+	 * every occurrence of every term across title & body. That's the number
+	 * of entries in offsets(), 4 space separated values per entry.
 	 */
-	private static final String DATABASE_CREATE = String.format("create table %s (%s integer primary key autoincrement, %s text not null, %s text not null);",
-			DATABASE_TABLE, KEY_ID, KEY_TITLE, KEY_BODY);
+	private static final String SEARCH_QUERY = String.format("select n.%1$s, n.%2$s, "
+			+ "snippet(%3$s, '%5$s', '%6$s', '...', -1, 16) as %4$s "
+			+ "from %3$s join %7$s n on n.%1$s = %3$s.docid "
+			+ "where %3$s match ? "
+			+ "order by (length(offsets(%3$s)) - length(replace(offsets(%3$s), ' ', ''))) desc, n.%1$s asc",
+			KEY_ID, KEY_TITLE, SEARCH_TABLE, KEY_SNIPPET,
+			SNIPPET_MATCH_START, SNIPPET_MATCH_END, DATABASE_TABLE);
 
 	private static class NotesDatabaseHelper extends SQLiteOpenHelper {
 
@@ -191,15 +1923,34 @@ public class NotesProvider extends ContentProvider {
 		@Override
 		public void onCreate(SQLiteDatabase db) {
 
-			db.execSQL(DATABASE_CREATE);
+			db.execSQL(NoteSchema.CREATE);
+			onUpgrade(db, 1, DATABASE_VERSION);
 		}
 
 		@Override
 		public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-			Log.w(TAG, "Upgrading database from version " + oldVersion + " to "
-					+ newVersion + ", which will destroy all old data");
-			db.execSQL("DROP TABLE IF EXISTS notes");
-			onCreate(db);
+			// SQLiteOpenHelper runs this in a transaction, so if any step
+			// fails the database is left as it was
+			for (int version = oldVersion + 1; version <= newVersion; version++) {
+				long start = SystemClock.uptimeMillis();
+				for (String sql : NoteSchema.MIGRATIONS[version - 2]) {
+					db.execSQL(sql);
+				}
+				Log.i(TAG, "Upgraded database to version " + version + " in "
+						+ (SystemClock.uptimeMillis() - start) + "ms");
+			}
+		}
+
+		@Override
+		public void onOpen(SQLiteDatabase db) {
+			super.onOpen(db);
+			// write-ahead logging lets the widget & the list loaders read
+			// while a note is being saved, rather than queueing behind the
+			// writer. Queries made outside a transaction are then spread
+			// over a pool of read connections.
+			if (!db.isReadOnly() && !db.enableWriteAheadLogging()) {
+				Log.w(TAG, "Could not enable write-ahead logging");
+			}
 		}
 	}
 
@@ -0,0 +1,296 @@
+package com.example.android.honeypad;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Text held as a sequence of pieces, each a range of either the original text
+ * or of a buffer that typed text is appended to. Editing only adds to that
+ * buffer & splits pieces, so nothing is copied however large the text is.
+ *
+ * The edits themselves are also kept, in the order they were made, so they
+ * can be written as ranges rather than writing out the whole text. Their
+ * positions are in characters as SQLite counts them (code points), not Java
+ * chars.
+ */
+final class PieceTable implements CharSequence {
+
+	// where a piece's text comes from
+	private static final int ORIGINAL = 0;
+	private static final int ADDED = 1;
+
+	// the text as loaded, & text added since
+	private final String mOriginal;
+	private final StringBuilder mAdded = new StringBuilder();
+
+	// each piece is a source, an offset into it & a length
+	private int[] mSources = new int[16];
+	private int[] mOffsets = new int[16];
+	private int[] mLengths = new int[16];
+	private int mPieceCount;
+	private int mLength;
+
+	// set once the text has any surrogate pairs, until then chars & code
+	// points line up
+	private boolean mSupplementary;
+
+	private final List<Edit> mEdits = new ArrayList<Edit>();
+
+	/**
+	 * A replacement of a range of code points.
+	 */
+	private static final class Edit {
+		final int start;
+		final int deleted;
+		final StringBuilder inserted = new StringBuilder();
+
+		// where the edit was made, in chars, to spot typing that follows on
+		final int charStart;
+
+		Edit(int charStart, int start, int deleted) {
+			this.charStart = charStart;
+			this.start = start;
+			this.deleted = deleted;
+		}
+	}
+
+	PieceTable(String original) {
+		mOriginal = original;
+		if (original.length() > 0) {
+			addPiece(0, ORIGINAL, 0, original.length());
+			mLength = original.length();
+			mSupplementary = hasSurrogates(original);
+		}
+	}
+
+	public int length() {
+		return mLength;
+	}
+
+	public char charAt(int index) {
+		if (index < 0 || index >= mLength) {
+			throw new IndexOutOfBoundsException("index " + index
+					+ ", length " + mLength);
+		}
+		int pieceStart = 0;
+		for (int i = 0; i < mPieceCount; i++) {
+			if (index < pieceStart + mLengths[i]) {
+				return source(mSources[i]).charAt(
+						mOffsets[i] + index - pieceStart);
+			}
+			pieceStart += mLengths[i];
+		}
+		throw new IllegalStateException();
+	}
+
+	public CharSequence subSequence(int start, int end) {
+		checkRange(start, end);
+		StringBuilder text = new StringBuilder(end - start);
+		int pieceStart = 0;
+		for (int i = 0; i < mPieceCount && pieceStart < end; i++) {
+			final int pieceEnd = pieceStart + mLengths[i];
+			if (pieceEnd > start) {
+				final int from = Math.max(start, pieceStart) - pieceStart;
+				final int to = Math.min(end, pieceEnd) - pieceStart;
+				text.append(source(mSources[i]), mOffsets[i] + from,
+						mOffsets[i] + to);
+			}
+			pieceStart = pieceEnd;
+		}
+		return text.toString();
+	}
+
+	@Override
+	public String toString() {
+		return subSequence(0, mLength).toString();
+	}
+
+	/**
+	 * Replaces the chars from {@code start} to {@code end} with
+	 * {@code text}, recording the edit.
+	 */
+	void replace(int start, int end, CharSequence text) {
+		checkRange(start, end);
+		recordEdit(start, end, text);
+		if (end > start) {
+			final int first = split(start);
+			final int last = split(end);
+			removePieces(first, last - first);
+			mLength -= end - start;
+		}
+		if (text.length() > 0) {
+			insert(start, text);
+		}
+	}
+
+	private void insert(int position, CharSequence text) {
+		if (!mSupplementary && hasSurrogates(text)) {
+			mSupplementary = true;
+		}
+		final int offset = mAdded.length();
+		mAdded.append(text);
+		final int index = split(position);
+		if (index > 0 && mSources[index - 1] == ADDED
+				&& mOffsets[index - 1] + mLengths[index - 1] == offset) {
+			// typing on from the last text added, grow its piece
+			mLengths[index - 1] += text.length();
+		} else {
+			addPiece(index, ADDED, offset, text.length());
+		}
+		mLength += text.length();
+	}
+
+	/**
+	 * Folds an edit into the last one where it carries on typing or deleting
+	 * what was just typed, otherwise records a new edit.
+	 */
+	private void recordEdit(int start, int end, CharSequence text) {
+		final Edit last = mEdits.isEmpty() ? null : mEdits
+				.get(mEdits.size() - 1);
+		if (last != null) {
+			final int lastEnd = last.charStart + last.inserted.length();
+			if (start == end && start == lastEnd) {
+				last.inserted.append(text);
+				return;
+			} else if (text.length() == 0 && end == lastEnd
+					&& start >= last.charStart) {
+				last.inserted.setLength(start - last.charStart);
+				return;
+			}
+		}
+		Edit edit = new Edit(start, codePointCount(0, start), codePointCount(
+				start, end));
+		edit.inserted.append(text);
+		mEdits.add(edit);
+	}
+
+	int editCount() {
+		return mEdits.size();
+	}
+
+	/**
+	 * @return the code point the edit starts at
+	 */
+	int editStart(int edit) {
+		return mEdits.get(edit).start;
+	}
+
+	/**
+	 * @return the number of code points the edit removed
+	 */
+	int editDeleted(int edit) {
+		return mEdits.get(edit).deleted;
+	}
+
+	/**
+	 * @return the text the edit inserted
+	 */
+	String editText(int edit) {
+		return mEdits.get(edit).inserted.toString();
+	}
+
+	/**
+	 * Forgets the recorded edits, once they have been written.
+	 */
+	void clearEdits() {
+		mEdits.clear();
+	}
+
+	/**
+	 * @return the number of code points between two char positions
+	 */
+	private int codePointCount(int start, int end) {
+		if (!mSupplementary) {
+			return end - start;
+		}
+		int count = 0;
+		int pieceStart = 0;
+		for (int i = 0; i < mPieceCount && pieceStart < end; i++) {
+			final int pieceEnd = pieceStart + mLengths[i];
+			if (pieceEnd > start) {
+				final int from = Math.max(start, pieceStart) - pieceStart;
+				final int to = Math.min(end, pieceEnd) - pieceStart;
+				count += Character.codePointCount(source(mSources[i]),
+						mOffsets[i] + from, mOffsets[i] + to);
+			}
+			pieceStart = pieceEnd;
+		}
+		return count;
+	}
+
+	/**
+	 * Makes sure a piece starts at the given position.
+	 *
+	 * @return the index of the piece starting there, or the piece count if
+	 *         the position is the end
+	 */
+	private int split(int position) {
+		int pieceStart = 0;
+		for (int i = 0; i < mPieceCount; i++) {
+			if (position == pieceStart) {
+				return i;
+			}
+			final int pieceEnd = pieceStart + mLengths[i];
+			if (position < pieceEnd) {
+				final int head = position - pieceStart;
+				addPiece(i + 1, mSources[i], mOffsets[i] + head, mLengths[i]
+						- head);
+				mLengths[i] = head;
+				return i + 1;
+			}
+			pieceStart = pieceEnd;
+		}
+		return mPieceCount;
+	}
+
+	private void addPiece(int index, int source, int offset, int length) {
+		if (mPieceCount == mSources.length) {
+			final int capacity = mPieceCount * 2;
+			mSources = copyOf(mSources, capacity);
+			mOffsets = copyOf(mOffsets, capacity);
+			mLengths = copyOf(mLengths, capacity);
+		}
+		final int moved = mPieceCount - index;
+		System.arraycopy(mSources, index, mSources, index + 1, moved);
+		System.arraycopy(mOffsets, index, mOffsets, index + 1, moved);
+		System.arraycopy(mLengths, index, mLengths, index + 1, moved);
+		mSources[index] = source;
+		mOffsets[index] = offset;
+		mLengths[index] = length;
+		mPieceCount++;
+	}
+
+	private void removePieces(int index, int count) {
+		final int moved = mPieceCount - index - count;
+		System.arraycopy(mSources, index + count, mSources, index, moved);
+		System.arraycopy(mOffsets, index + count, mOffsets, index, moved);
+		System.arraycopy(mLengths, index + count, mLengths, index, moved);
+		mPieceCount -= count;
+	}
+
+	private CharSequence source(int source) {
+		return source == ADDED ? mAdded : mOriginal;
+	}
+
+	private void checkRange(int start, int end) {
+		if (start < 0 || end > mLength || start > end) {
+			throw new IndexOutOfBoundsException("range " + start + "-" + end
+					+ ", length " + mLength);
+		}
+	}
+
+	private static int[] copyOf(int[] array, int length) {
+		int[] copy = new int[length];
+		System.arraycopy(array, 0, copy, 0, array.length);
+		return copy;
+	}
+
+	private static boolean hasSurrogates(CharSequence text) {
+		for (int i = 0; i < text.length(); i++) {
+			if (Character.isHighSurrogate(text.charAt(i))) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,266 @@
+package com.example.android.honeypad;
+
+import java.text.CollationElementIterator;
+import java.text.Collator;
+import java.util.Locale;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+/**
+ * Collation keys for note titles, stored beside each title so the notes can
+ * be sorted & paged through by comparing bytes, rather than running the
+ * collator on every comparison, along with the first letter of the title the
+ * list's sections count it under. The keys only hold for the locale they were
+ * made in, which is recorded with them, so they're rebuilt whenever the
+ * locale changes. That's done beside the current keys, in next_sort_key, so
+ * the notes stay in the old order until every key for the new one is made.
+ * A database with no keys yet has them made in place, in the background,
+ * the notes without one sorting first meanwhile.
+ */
+final class TitleSortKeys {
+
+	// columns of the notes table
+	static final String KEY_SORT_KEY = NoteQueries.KEY_SORT_KEY;
+	static final String KEY_NEXT_SORT_KEY = "next_sort_key";
+
+	private static final String NOTES_TABLE = "notes";
+
+	// the single row table recording the locale of the keys
+	private static final String LOCALE_TABLE = "collation";
+	private static final String KEY_LOCALE = "locale";
+
+	// set once the initials are made with the keys, as they weren't before
+	private static final String KEY_INITIALS_MADE = "initials_made";
+
+	private final Locale mLocale;
+	private final Collator mCollator;
+	private final CollationElementIterator mLetters;
+
+	TitleSortKeys(Locale locale) {
+		mLocale = locale;
+		mCollator = Collator.getInstance(locale);
+		mLetters = NoteSections.lettersOf(mCollator);
+	}
+
+	Locale getLocale() {
+		return mLocale;
+	}
+
+	/**
+	 * @return the bytes to sort a title by
+	 */
+	byte[] keyOf(String title) {
+		// the collator isn't safe to share between threads
+		synchronized (mCollator) {
+			return mCollator.getCollationKey(title).toByteArray();
+		}
+	}
+
+	/**
+	 * @return the first letter of a title, which its note is counted under
+	 *         in the list's sections
+	 */
+	String initialOf(String title) {
+		synchronized (mCollator) {
+			return NoteSections.initialOf(mLetters, title);
+		}
+	}
+
+	/**
+	 * @return the key of a title as an SQL blob literal, as selection
+	 *         arguments can only be bound as strings
+	 */
+	String literalOf(String title) {
+		return NoteQueries.literalOf(keyOf(title));
+	}
+
+	/**
+	 * @return the keys for the locale recorded in the database, or null if
+	 *         no keys have been made yet
+	 */
+	static TitleSortKeys recorded(SQLiteDatabase db) {
+		Cursor c = db.query(LOCALE_TABLE, new String[] { KEY_LOCALE }, null,
+				null, null, null, null);
+		try {
+			return c.moveToFirst() ? new TitleSortKeys(localeOf(c
+					.getString(0))) : null;
+		} finally {
+			c.close();
+		}
+	}
+
+	/**
+	 * @return the locale named as written by Locale.toString()
+	 */
+	static Locale localeOf(String name) {
+		String[] parts = name.split("_", 3);
+		return new Locale(parts[0], parts.length > 1 ? parts[1] : "",
+				parts.length > 2 ? parts[2] : "");
+	}
+
+	/**
+	 * Records this as the locale of the keys, for a database with none yet.
+	 * Notes without a key are then given one by {@link #makeMissingKeys}.
+	 */
+	void record(SQLiteDatabase db) {
+		db.beginTransaction();
+		try {
+			recordLocale(db);
+			db.setTransactionSuccessful();
+		} finally {
+			db.endTransaction();
+		}
+	}
+
+	/**
+	 * @return true if the recorded keys were made before their initials
+	 *         were, so both have to be made again
+	 */
+	static boolean initialsMissing(SQLiteDatabase db) {
+		Cursor c = db.query(LOCALE_TABLE, new String[] { KEY_LOCALE },
+				KEY_INITIALS_MADE + "=0", null, null, null, null);
+		try {
+			return c.moveToFirst();
+		} finally {
+			c.close();
+		}
+	}
+
+	/**
+	 * @return true if any note has no key, found from the start of the
+	 *         sort key index as missing keys sort first
+	 */
+	static boolean anyMissing(SQLiteDatabase db) {
+		Cursor c = db.query(NOTES_TABLE,
+				new String[] { NotesProvider.KEY_ID },
+				NoteQueries.UNKEYED_WHERE, null, null, null, null, "1");
+		try {
+			return c.moveToFirst();
+		} finally {
+			c.close();
+		}
+	}
+
+	/**
+	 * @return the key stored for a note, null if it has none yet or there's
+	 *         no such note
+	 */
+	static byte[] storedKey(SQLiteDatabase db, long id) {
+		Cursor c = db.query(NOTES_TABLE, new String[] { KEY_SORT_KEY },
+				NotesProvider.KEY_ID + "=?",
+				new String[] { String.valueOf(id) }, null, null, null);
+		try {
+			return c.moveToFirst() ? c.getBlob(0) : null;
+		} finally {
+			c.close();
+		}
+	}
+
+	/**
+	 * Makes this locale's keys, in one transaction, for a batch of the notes
+	 * with no key at all, as a database has once it's first upgraded to
+	 * keys.
+	 * 
+	 * @param afterId
+	 *            the batch starts with the first note after this one
+	 * @return the id of the last note in the batch, or -1 if there were none
+	 */
+	long makeMissingKeys(SQLiteDatabase db, long afterId, int count) {
+		db.beginTransaction();
+		try {
+			final long lastId = makeKeys(db, NoteSchema.UPDATE_SORT_KEY,
+					NoteQueries.and(NotesProvider.KEY_ID + ">" + afterId,
+							NoteQueries.UNKEYED_WHERE), String.valueOf(count));
+			db.setTransactionSuccessful();
+			return lastId;
+		} finally {
+			db.endTransaction();
+		}
+	}
+
+	/**
+	 * Drops any keys made for another locale, before this one's are made.
+	 */
+	static void clearNextKeys(SQLiteDatabase db) {
+		ContentValues values = new ContentValues(2);
+		values.putNull(KEY_NEXT_SORT_KEY);
+		values.putNull(NoteSections.KEY_NEXT_INITIAL);
+		db.update(NOTES_TABLE, values, null, null);
+	}
+
+	/**
+	 * Makes this locale's keys, in one transaction, for a batch of the notes
+	 * that don't have them yet.
+	 * 
+	 * @param afterId
+	 *            the batch starts with the first note after this one
+	 * @return the id of the last note in the batch, or -1 if there were none
+	 */
+	long makeNextKeys(SQLiteDatabase db, long afterId, int count) {
+		db.beginTransaction();
+		try {
+			final long lastId = makeKeys(db, NoteSchema.UPDATE_NEXT_SORT_KEY,
+					NotesProvider.KEY_ID + ">" + afterId + " AND "
+							+ KEY_NEXT_SORT_KEY + " IS NULL", String
+							.valueOf(count));
+			db.setTransactionSuccessful();
+			return lastId;
+		} finally {
+			db.endTransaction();
+		}
+	}
+
+	/**
+	 * Puts the keys made by {@link #makeNextKeys} in place of the current
+	 * ones, making any still missing first. To be called in a transaction,
+	 * with nothing else writing titles until this locale's keys are in use.
+	 */
+	void swapIn(SQLiteDatabase db) {
+		makeKeys(db, NoteSchema.UPDATE_NEXT_SORT_KEY, KEY_NEXT_SORT_KEY
+				+ " IS NULL", null);
+		for (String sql : NoteSchema.SWAP_SORT_KEYS) {
+			db.execSQL(sql);
+		}
+		recordLocale(db);
+	}
+
+	/**
+	 * Writes the keys & initials of the notes matching a selection, in _id
+	 * order.
+	 * 
+	 * @return the id of the last note written, or -1 if there were none
+	 */
+	private long makeKeys(SQLiteDatabase db, String updateSql,
+			String selection, String limit) {
+		SQLiteStatement update = db.compileStatement(updateSql);
+		Cursor c = db.query(NOTES_TABLE, new String[] { NotesProvider.KEY_ID,
+				NotesProvider.KEY_TITLE }, selection, null, null, null,
+				NotesProvider.KEY_ID, limit);
+		try {
+			long id = -1;
+			while (c.moveToNext()) {
+				id = c.getLong(0);
+				final String title = c.getString(1);
+				update.bindBlob(1, keyOf(title));
+				update.bindString(2, initialOf(title));
+				update.bindLong(3, id);
+				update.execute();
+			}
+			return id;
+		} finally {
+			c.close();
+			update.close();
+		}
+	}
+
+	private void recordLocale(SQLiteDatabase db) {
+		db.delete(LOCALE_TABLE, null, null);
+		ContentValues locale = new ContentValues(2);
+		locale.put(KEY_LOCALE, mLocale.toString());
+		locale.put(KEY_INITIALS_MADE, 1);
+		db.insert(LOCALE_TABLE, null, locale);
+	}
+}
@@ -1,13 +1,18 @@
 
 package com.example.android.honeypad.widget;
 
+import android.widget.RemoteViews;
+
 public class WidgetItem {
     public long id;
     public String title;
-    public int position;
+    public String preview;
+    // built on first display & reused while the note is unchanged
+    public RemoteViews views;
 
-    public WidgetItem(long id, String title) {
+    public WidgetItem(long id, String title, String preview) {
         this.id = id;
     	this.title = title;
+    	this.preview = preview;
     }
 }
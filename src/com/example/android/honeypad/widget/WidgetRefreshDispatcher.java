@@ -0,0 +1,169 @@
+package com.example.android.honeypad.widget;
+
+import java.text.Collator;
+import java.util.List;
+
+import android.appwidget.AppWidgetManager;
+import android.content.ComponentName;
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.example.android.honeypad.R;
+
+/**
+ * Single place that tells the widgets to reload their notes. NotesProvider
+ * reports every change to it, changes that can't affect the notes the widgets
+ * show are dropped, and the rest are coalesced into at most one refresh per
+ * {@link #REFRESH_WINDOW}.
+ */
+public class WidgetRefreshDispatcher {
+
+	// a burst of changes within this many ms causes a single refresh
+	private static final long REFRESH_WINDOW = 500;
+
+	private static WidgetRefreshDispatcher sInstance;
+
+	public static synchronized WidgetRefreshDispatcher getInstance(
+			Context context) {
+		if (sInstance == null) {
+			sInstance = new WidgetRefreshDispatcher(
+					context.getApplicationContext());
+		}
+		return sInstance;
+	}
+
+	private final Context mContext;
+	private final Handler mHandler;
+
+	// compares titles the way the notes are sorted for the widget, at
+	// primary strength so that in doubt a title counts as in view
+	private final Collator mCollator;
+
+	// the notes the widgets show, as published by WidgetService. Until the
+	// widgets have loaded we don't know, so every change counts.
+	private long[] mShownIds;
+	private String mLastShownTitle;
+	private boolean mShowingAllNotes;
+
+	private boolean mRefreshPending;
+
+	private WidgetRefreshDispatcher(Context context) {
+		mContext = context;
+		mHandler = new Handler(Looper.getMainLooper());
+		mCollator = Collator.getInstance();
+		mCollator.setStrength(Collator.PRIMARY);
+	}
+
+	/**
+	 * A note has been created.
+	 */
+	public synchronized void onNoteInserted(long id, String title) {
+		if (sortsIntoView(title)) {
+			scheduleRefresh();
+		}
+	}
+
+	/**
+	 * A note has been updated.
+	 * 
+	 * @param title
+	 *            the note's new title, or {@code null} if the title wasn't
+	 *            changed
+	 */
+	public synchronized void onNoteUpdated(long id, String title) {
+		if (title != null && (isShown(id) || sortsIntoView(title))) {
+			scheduleRefresh();
+		}
+	}
+
+	/**
+	 * The preview of a note's body has changed.
+	 */
+	public synchronized void onPreviewChanged(long id) {
+		if (isShown(id)) {
+			scheduleRefresh();
+		}
+	}
+
+	/**
+	 * A note has been deleted.
+	 */
+	public synchronized void onNoteDeleted(long id) {
+		if (isShown(id)) {
+			scheduleRefresh();
+		}
+	}
+
+	/**
+	 * Notes have changed in a way we can't narrow down, e.g. an update or
+	 * delete with an arbitrary where clause.
+	 */
+	public synchronized void onNotesChanged() {
+		scheduleRefresh();
+	}
+
+	/**
+	 * Called by the widgets with the notes they now show.
+	 * 
+	 * @param items
+	 *            the notes shown, in order
+	 * @param showingAllNotes
+	 *            {@code true} if there are no more notes than these
+	 */
+	synchronized void setShownNotes(List<WidgetItem> items,
+			boolean showingAllNotes) {
+		mShownIds = new long[items.size()];
+		for (int i = 0; i < mShownIds.length; i++) {
+			mShownIds[i] = items.get(i).id;
+		}
+		mLastShownTitle = items.isEmpty() ? null : items
+				.get(items.size() - 1).title;
+		mShowingAllNotes = showingAllNotes;
+	}
+
+	private boolean isShown(long id) {
+		if (mShownIds == null) {
+			return true;
+		}
+		for (long shownId : mShownIds) {
+			if (shownId == id) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Works out if a note with the given title would be among those shown.
+	 */
+	private boolean sortsIntoView(String title) {
+		if (mShownIds == null || mShowingAllNotes || title == null) {
+			return true;
+		}
+		return mLastShownTitle == null
+				|| mCollator.compare(title, mLastShownTitle) <= 0;
+	}
+
+	private void scheduleRefresh() {
+		if (!mRefreshPending) {
+			mRefreshPending = true;
+			mHandler.postDelayed(mRefresh, REFRESH_WINDOW);
+		}
+	}
+
+	private final Runnable mRefresh = new Runnable() {
+		public void run() {
+			synchronized (WidgetRefreshDispatcher.this) {
+				mRefreshPending = false;
+			}
+			AppWidgetManager awm = AppWidgetManager.getInstance(mContext);
+			int[] appWidgetIds = awm.getAppWidgetIds(new ComponentName(
+					mContext, WidgetProvider.class));
+			if (appWidgetIds.length > 0) {
+				awm.notifyAppWidgetViewDataChanged(appWidgetIds,
+						R.id.stack_view);
+			}
+		}
+	};
+}
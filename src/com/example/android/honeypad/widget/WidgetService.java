@@ -7,10 +7,13 @@ import android.appwidget.AppWidgetManager;
 import android.content.Context;
 import android.content.Intent;
 import android.database.Cursor;
+import android.net.Uri;
 import android.os.Bundle;
+import android.text.TextUtils;
 import android.widget.RemoteViews;
 import android.widget.RemoteViewsService;
 
+import com.example.android.honeypad.NotePreviews;
 import com.example.android.honeypad.NotepadActivity;
 import com.example.android.honeypad.NotesProvider;
 import com.example.android.honeypad.R;
@@ -20,6 +23,18 @@ public class WidgetService extends RemoteViewsService {
 	private class StackRemoteViewsFactory implements
 			RemoteViewsService.RemoteViewsFactory {
 		private static final int COUNT = 10;
+
+		// where the preview is in our query, & its size beside the title
+		private static final int PREVIEW_COLUMN = 2;
+		private static final float PREVIEW_SIZE = 0.5f;
+
+		// just the first COUNT notes, the limit lets the provider walk the
+		// sort key index rather than sorting every note
+		private final Uri mTopNotesUri = NotesProvider.CONTENT_URI
+				.buildUpon()
+				.appendQueryParameter(NotesProvider.PARAM_LIMIT,
+						String.valueOf(COUNT)).build();
+
 		private List<WidgetItem> mWidgetItems = new ArrayList<WidgetItem>();
 		private Context mContext;
 		private int mAppWidgetId;
@@ -44,26 +59,47 @@ public class WidgetService extends RemoteViewsService {
 
 		private void update() {
 			Cursor c = null;
-			mWidgetItems.clear();
+			List<WidgetItem> widgetItems = new ArrayList<WidgetItem>(COUNT);
 			try {
 				c = getContentResolver().query(
-						NotesProvider.CONTENT_URI,
+						mTopNotesUri,
 						new String[] { NotesProvider.KEY_ID,
-								NotesProvider.KEY_TITLE }, null, null,
-						NotesProvider.KEY_TITLE + " COLLATE LOCALIZED ASC");
-				if (c.moveToFirst()) {
-					do {
-						WidgetItem note = new WidgetItem(
-								c.getLong(NotesProvider.ID_COLUMN),
-								c.getString(NotesProvider.TITLE_COLUMN));
-						mWidgetItems.add(note);
-					} while (c.moveToNext() && mWidgetItems.size() < COUNT);
+								NotesProvider.KEY_TITLE,
+								NotesProvider.KEY_PREVIEW }, null, null, null);
+				while (c.moveToNext() && widgetItems.size() < COUNT) {
+					final long id = c.getLong(NotesProvider.ID_COLUMN);
+					final String title = c
+							.getString(NotesProvider.TITLE_COLUMN);
+					final String preview = c.getString(PREVIEW_COLUMN);
+
+					// keep the existing item, & its views, if the note is
+					// unchanged
+					WidgetItem note = findItem(id);
+					if (note == null || !note.title.equals(title)
+							|| !TextUtils.equals(note.preview, preview)) {
+						note = new WidgetItem(id, title, preview);
+					}
+					widgetItems.add(note);
 				}
 			} finally {
 				if (c != null) {
 					c.close();
 				}
 			}
+			mWidgetItems = widgetItems;
+
+			// let the dispatcher know which changes we need to hear about
+			WidgetRefreshDispatcher.getInstance(mContext).setShownNotes(
+					widgetItems, widgetItems.size() < COUNT);
+		}
+
+		private WidgetItem findItem(long id) {
+			for (WidgetItem item : mWidgetItems) {
+				if (item.id == id) {
+					return item;
+				}
+			}
+			return null;
 		}
 
 		public void onDestroy() {
@@ -81,18 +117,24 @@ public class WidgetService extends RemoteViewsService {
 		public RemoteViews getViewAt(int position) {
 
 			// position will always range from 0 to getCount() - 1.
-			if (position < 0 || position > mWidgetItems.size()) {
+			if (position < 0 || position >= mWidgetItems.size()) {
 				return null;
 			}
 
+			// reuse the views of a note that hasn't changed
+			WidgetItem note = mWidgetItems.get(position);
+			if (note.views != null) {
+				return note.views;
+			}
+
 			/*
 			 * We construct a remote views item based on our widget item xml
 			 * file, and set the text based on the position.
 			 */
 			RemoteViews rv = new RemoteViews(mContext.getPackageName(),
 					R.layout.widget_item);
-			WidgetItem note = mWidgetItems.get(position);
-			rv.setTextViewText(R.id.widget_item, note.title);
+			rv.setTextViewText(R.id.widget_item, NotePreviews.withPreview(
+					note.title, note.preview, PREVIEW_SIZE));
 
 			// Next, we set an intent so that clicking on this view will result
 			// in a toast message
@@ -111,6 +153,7 @@ public class WidgetService extends RemoteViewsService {
 			 */
 
 			// Return our remote views object.
+			note.views = rv;
 			return rv;
 		}
 